@@ -2,6 +2,9 @@ package client;
 
 import rmi.BookService;
 import common.Book;
+import common.BookPage;
+import corba.ObjectReference;
+import corba.ResultStream;
 import corba.SimpleORB;
 import corba.UserData;
 
@@ -13,9 +16,12 @@ import java.util.List;
 import java.util.Scanner;
 
 public class LibraryClient {
+    private static final int BOOK_PAGE_SIZE = 20;
+
     private BookService bookService;
     private SimpleORB.Stub userServiceStub;
     private String currentUser = null;
+    private String sessionToken = null;
     private Scanner scanner;
 
     public LibraryClient() {
@@ -54,21 +60,29 @@ public class LibraryClient {
                 return false;
             }
             
-            String[] parts = ref.split(":");
-            if (parts.length < 3) {
-                System.err.println("[Client] UserService.ref has invalid format. Expected host:port:serviceName");
+            ObjectReference reference;
+            try {
+                reference = ObjectReference.parse(ref);
+            } catch (IllegalArgumentException e) {
+                System.err.println("[Client] UserService.ref has invalid format. Expected host:port[,host:port...]:serviceName");
                 return false;
             }
             
-            String host = parts[0];
-            int port = Integer.parseInt(parts[1]);
-            String serviceName = parts[2];
-            
-            userServiceStub = new SimpleORB.Stub(host, port, serviceName);
+            userServiceStub = new SimpleORB.Stub(reference);
+            userServiceStub.markIdempotent("getUserInfo", "getUserByEmail", "getUsersByRole", "getAllUsers",
+                    "isAdmin", "authenticate", "validateToken");
+            if (reference.getEndpoints().size() > 1) {
+                System.out.println("[Client] Balancing user calls across " + reference.getEndpoints().size() + " endpoints");
+            }
             
             UserData testUser = userServiceStub.invoke("getUserInfo", "admin");
             if (testUser != null && !testUser.id.isEmpty()) {
                 System.out.println("[Client] Connected to CORBA User Service successfully!");
+                try {
+                    userServiceStub.enableNearCache(256, 30000, "getUserInfo", "isAdmin");
+                } catch (Exception e) {
+                    System.err.println("[Client] User lookups will not be cached: " + e.getMessage());
+                }
                 return true;
             }
             System.err.println("[Client] CORBA connection test failed - could not retrieve user data.");
@@ -98,6 +112,8 @@ public class LibraryClient {
             System.out.println("2. Register");
             System.out.println("3. View User Info");
             System.out.println("4. List All Users");
+            System.out.println("12. Find User by Email");
+            System.out.println("13. List Users by Role");
             
             System.out.println("\n--- Book Management (RMI) ---");
             System.out.println("5. List All Books");
@@ -162,6 +178,12 @@ public class LibraryClient {
                 case 11:
                     logout();
                     break;
+                case 12:
+                    findUserByEmail();
+                    break;
+                case 13:
+                    listUsersByRole();
+                    break;
                 default:
                     System.out.println("Invalid choice. Please try again.");
             }
@@ -177,9 +199,10 @@ public class LibraryClient {
         String password = scanner.nextLine().trim();
 
         System.out.println("\n[CORBA Call] Authenticating user...");
-        Boolean result = userServiceStub.invoke("authenticate", userId, password);
-        if (result != null && result) {
+        String token = userServiceStub.invoke("login", userId, password);
+        if (token != null && !token.isEmpty()) {
             currentUser = userId;
+            sessionToken = token;
             System.out.println("Login successful! Welcome, " + userId);
         } else {
             System.out.println("Login failed. Invalid credentials.");
@@ -226,26 +249,79 @@ public class LibraryClient {
 
     private void listAllUsers() throws Exception {
         System.out.println("\n[CORBA Call] Fetching all users...");
-        UserData[] users = userServiceStub.invoke("getAllUsers");
         
-        System.out.println("\n--- All Users (" + users.length + " total) ---");
+        System.out.println("\n--- All Users ---");
+        printUsers(userServiceStub.invokeStream("streamAllUsers"));
+    }
+
+    private void findUserByEmail() throws Exception {
+        System.out.print("Enter email to look up: ");
+        String email = scanner.nextLine().trim();
+
+        System.out.println("\n[CORBA Call] Looking up user by email...");
+        UserData info = userServiceStub.invoke("getUserByEmail", email);
+
+        if (info == null || info.id.isEmpty()) {
+            System.out.println("No user registered with that email.");
+        } else {
+            System.out.println("Found: " + info.id + " (" + info.name + ", " + info.role
+                    + (info.active ? "" : ", inactive") + ")");
+        }
+    }
+
+    private void listUsersByRole() throws Exception {
+        System.out.print("Enter role (admin, librarian, user): ");
+        String role = scanner.nextLine().trim();
+
+        System.out.println("\n[CORBA Call] Fetching users with role " + role + "...");
+
+        System.out.println("\n--- Users with role " + role + " ---");
+        printUsers(userServiceStub.invokeStream("getUsersByRole", role));
+    }
+
+    private void printUsers(ResultStream<UserData> stream) {
         System.out.printf("%-12s %-20s %-25s %-10s %-8s%n", "ID", "Name", "Email", "Role", "Active");
         System.out.println("--------------------------------------------------------------------------------");
         
-        for (UserData user : users) {
-            System.out.printf("%-12s %-20s %-25s %-10s %-8s%n",
-                    user.id, user.name, user.email, user.role, user.active ? "Yes" : "No");
+        int count = 0;
+        try (ResultStream<UserData> users = stream) {
+            while (users.hasNext()) {
+                UserData user = users.next();
+                System.out.printf("%-12s %-20s %-25s %-10s %-8s%n",
+                        user.id, user.name, user.email, user.role, user.active ? "Yes" : "No");
+                count++;
+            }
         }
+        System.out.println("(" + count + " total)");
     }
 
     private void listAllBooks() throws Exception {
-        System.out.println("\n[RMI Call] Fetching all books...");
-        List<Book> books = bookService.getAllBooks();
-        
-        System.out.println("\n--- All Books (" + books.size() + " total) ---");
-        for (Book book : books) {
-            System.out.println(book);
+        System.out.print("Sort by (title/author/year/isbn) [title]: ");
+        String sortKey = scanner.nextLine().trim();
+        if (sortKey.isEmpty()) {
+            sortKey = "title";
+        }
+
+        System.out.println("\n[RMI Call] Fetching books by " + sortKey + "...");
+        System.out.println("\n--- All Books ---");
+        int count = 0;
+        String cursor = "";
+        while (true) {
+            BookPage page = bookService.listBooks(sortKey, cursor, BOOK_PAGE_SIZE);
+            for (Book book : page.getBooks()) {
+                System.out.println(book);
+                count++;
+            }
+            if (!page.hasMore()) {
+                break;
+            }
+            System.out.print("-- " + count + " shown, Enter for more, q to stop: ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                break;
+            }
+            cursor = page.getNextCursor();
         }
+        System.out.println("(" + count + " shown)");
     }
 
     private void searchByTitle() throws Exception {
@@ -339,7 +415,13 @@ public class LibraryClient {
     private void logout() {
         if (currentUser != null) {
             System.out.println("Goodbye, " + currentUser + "!");
+            try {
+                userServiceStub.invoke("logout", sessionToken);
+            } catch (Exception e) {
+                System.err.println("[Client] Session not closed on the server: " + e.getMessage());
+            }
             currentUser = null;
+            sessionToken = null;
         } else {
             System.out.println("You are not logged in.");
         }
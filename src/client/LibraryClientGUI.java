@@ -1,16 +1,23 @@
 package client;
 
+import javafx.animation.PauseTransition;
 import javafx.application.Application;
 import javafx.application.Platform;
+import javafx.concurrent.Task;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
+import javafx.geometry.Side;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.*;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 import rmi.BookService;
 import common.Book;
+import common.BookPage;
+import corba.ObjectReference;
+import corba.ResultStream;
 import corba.SimpleORB;
 import corba.UserData;
 
@@ -20,16 +27,38 @@ import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class LibraryClientGUI extends Application {
+    private static final double SUGGEST_DELAY_MS = 150;
+    private static final int SUGGESTION_LIMIT = 10;
+    private static final int BOOK_PAGE_SIZE = 100;
+
+    private final ExecutorService suggestExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "LibraryClientGUI-suggest");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService pageExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "LibraryClientGUI-pages");
+        t.setDaemon(true);
+        return t;
+    });
     private BookService bookService;
     private SimpleORB.Stub userServiceStub;
     private String currentUser = null;
+    private String sessionToken = null;
     private Label statusLabel;
     private Label userLabel;
     private TabPane mainTabPane;
     private TableView<BookDisplay> bookTable;
     private TableView<UserDisplay> userTable;
+    private PauseTransition suggestDelay;
+    private ComboBox<String> sortBox;
+    private String nextBooksCursor = "";
+    private Task<BookPage> pageTask;
+    private Task<List<String>> suggestTask;
 
     // Classe pour afficher les livres dans le tableau
     public static class BookDisplay {
@@ -124,12 +153,14 @@ public class LibraryClientGUI extends Application {
                 String ref = reader.readLine();
                 reader.close();
                 
-                String[] parts = ref.split(":");
-                String host = parts[0];
-                int port = Integer.parseInt(parts[1]);
-                String serviceName = parts[2];
-                
-                userServiceStub = new SimpleORB.Stub(host, port, serviceName);
+                userServiceStub = new SimpleORB.Stub(ObjectReference.parse(ref));
+                userServiceStub.markIdempotent("getUserInfo", "getUserByEmail", "getUsersByRole", "getAllUsers",
+                        "isAdmin", "authenticate", "validateToken");
+                try {
+                    userServiceStub.enableNearCache(256, 30000, "getUserInfo", "isAdmin");
+                } catch (Exception e) {
+                    System.err.println("Cache utilisateurs désactivé: " + e.getMessage());
+                }
                 System.out.println("Connecté au service CORBA");
             }
         } catch (Exception e) {
@@ -195,6 +226,22 @@ public class LibraryClientGUI extends Application {
         searchField.setPromptText("Rechercher par titre...");
         searchField.setPrefWidth(300);
 
+        // Suggestions follow typing: each change restarts a short pause and cancels any request
+        // still pending, so the server is only asked once the user stops for a moment.
+        ContextMenu suggestions = new ContextMenu();
+        suggestDelay = new PauseTransition(Duration.millis(SUGGEST_DELAY_MS));
+        suggestDelay.setOnFinished(e -> requestSuggestions(searchField, suggestions));
+        searchField.textProperty().addListener((observable, oldText, newText) -> {
+            cancelSuggestions();
+            suggestDelay.playFromStart();
+        });
+        searchField.setOnAction(e -> {
+            suggestDelay.stop();
+            cancelSuggestions();
+            suggestions.hide();
+            searchBooks(searchField.getText());
+        });
+
         Button searchBtn = new Button("🔍 Rechercher");
         searchBtn.setOnAction(e -> searchBooks(searchField.getText()));
 
@@ -210,7 +257,12 @@ public class LibraryClientGUI extends Application {
         Button returnBtn = new Button("📥 Retourner");
         returnBtn.setOnAction(e -> returnSelectedBook());
 
-        toolbar.getChildren().addAll(searchField, searchBtn, refreshBtn, addBtn, borrowBtn, returnBtn);
+        sortBox = new ComboBox<>();
+        sortBox.getItems().addAll("Titre", "Auteur", "Année", "ISBN");
+        sortBox.setValue("Titre");
+        sortBox.setOnAction(e -> refreshBooks());
+
+        toolbar.getChildren().addAll(searchField, searchBtn, sortBox, refreshBtn, addBtn, borrowBtn, returnBtn);
 
         // Tableau des livres
         bookTable = new TableView<>();
@@ -236,6 +288,20 @@ public class LibraryClientGUI extends Application {
         availCol.setPrefWidth(100);
 
         bookTable.getColumns().addAll(isbnCol, titleCol, authorCol, yearCol, availCol);
+        // The server sorts the catalog; sorting by column would only reorder the pages loaded so far.
+        for (TableColumn<BookDisplay, ?> column : bookTable.getColumns()) {
+            column.setSortable(false);
+        }
+        // Showing the last loaded row fetches the next page, so the catalog arrives as the user scrolls.
+        bookTable.setRowFactory(table -> new TableRow<BookDisplay>() {
+            @Override
+            protected void updateItem(BookDisplay item, boolean empty) {
+                super.updateItem(item, empty);
+                if (!empty && getIndex() == table.getItems().size() - 1 && !nextBooksCursor.isEmpty()) {
+                    loadMoreBooks();
+                }
+            }
+        });
         VBox.setVgrow(bookTable, Priority.ALWAYS);
 
         panel.getChildren().addAll(toolbar, bookTable);
@@ -315,10 +381,11 @@ public class LibraryClientGUI extends Application {
         Optional<ButtonType> result = dialog.showAndWait();
         if (result.isPresent() && result.get() == ButtonType.OK) {
             try {
-                Boolean success = userServiceStub.invoke("authenticate", 
+                String token = userServiceStub.invoke("login", 
                     userIdField.getText(), passwordField.getText());
-                if (success != null && success) {
+                if (token != null && !token.isEmpty()) {
                     currentUser = userIdField.getText();
+                    sessionToken = token;
                     userLabel.setText("👤 " + currentUser);
                     showInfo("Succès", "Connexion réussie!");
                 } else {
@@ -473,6 +540,8 @@ public class LibraryClientGUI extends Application {
     private void searchBooks(String query) {
         try {
             List<Book> books = bookService.searchByTitle(query);
+            cancelPageLoad();
+            nextBooksCursor = "";
             bookTable.getItems().clear();
             for (Book book : books) {
                 bookTable.getItems().add(new BookDisplay(book));
@@ -483,27 +552,141 @@ public class LibraryClientGUI extends Application {
         }
     }
 
+    private void cancelSuggestions() {
+        if (suggestTask != null) {
+            suggestTask.cancel();
+            suggestTask = null;
+        }
+    }
+
+    private void requestSuggestions(TextField searchField, ContextMenu suggestions) {
+        String prefix = searchField.getText();
+        cancelSuggestions();
+        if (prefix.trim().isEmpty()) {
+            suggestions.hide();
+            return;
+        }
+        Task<List<String>> task = new Task<List<String>>() {
+            @Override
+            protected List<String> call() throws Exception {
+                return bookService.suggest(prefix, "title", SUGGESTION_LIMIT);
+            }
+        };
+        // A reply that lands after newer typing has already replaced the task is dropped.
+        task.setOnSucceeded(e -> {
+            if (task == suggestTask) {
+                showSuggestions(searchField, suggestions, task.getValue());
+            }
+        });
+        task.setOnFailed(e -> {
+            if (task == suggestTask) {
+                suggestions.hide();
+                statusLabel.setText("Suggestions indisponibles: " + task.getException().getMessage());
+            }
+        });
+        suggestTask = task;
+        suggestExecutor.execute(task);
+    }
+
+    private void showSuggestions(TextField searchField, ContextMenu suggestions, List<String> titles) {
+        suggestions.getItems().clear();
+        for (String title : titles) {
+            MenuItem item = new MenuItem(title);
+            item.setOnAction(e -> {
+                searchField.setText(title);
+                suggestDelay.stop();
+                cancelSuggestions();
+                searchBooks(title);
+            });
+            suggestions.getItems().add(item);
+        }
+        if (titles.isEmpty()) {
+            suggestions.hide();
+        } else if (!suggestions.isShowing()) {
+            suggestions.show(searchField, Side.BOTTOM, 0, 0);
+        }
+    }
+
+    private String sortKey() {
+        switch (sortBox.getValue()) {
+            case "Auteur":
+                return "author";
+            case "Année":
+                return "year";
+            case "ISBN":
+                return "isbn";
+            default:
+                return "title";
+        }
+    }
+
     private void refreshBooks() {
-        try {
-            List<Book> books = bookService.getAllBooks();
-            bookTable.getItems().clear();
-            for (Book book : books) {
+        cancelPageLoad();
+        bookTable.getItems().clear();
+        nextBooksCursor = "";
+        loadBooks("");
+    }
+
+    private void loadMoreBooks() {
+        if (pageTask == null && !nextBooksCursor.isEmpty()) {
+            loadBooks(nextBooksCursor);
+        }
+    }
+
+    private void cancelPageLoad() {
+        if (pageTask != null) {
+            pageTask.cancel();
+            pageTask = null;
+        }
+    }
+
+    // Pages are fetched off the FX thread; a page that arrives after a refresh, a new sort order
+    // or a search has replaced the task is dropped instead of being appended to the wrong listing.
+    private void loadBooks(String cursor) {
+        String sortKey = sortKey();
+        Task<BookPage> task = new Task<BookPage>() {
+            @Override
+            protected BookPage call() throws Exception {
+                return bookService.listBooks(sortKey, cursor, BOOK_PAGE_SIZE);
+            }
+        };
+        task.setOnSucceeded(e -> {
+            if (task != pageTask) {
+                return;
+            }
+            pageTask = null;
+            BookPage page = task.getValue();
+            for (Book book : page.getBooks()) {
                 bookTable.getItems().add(new BookDisplay(book));
             }
-            statusLabel.setText(books.size() + " livre(s) chargé(s)");
-        } catch (Exception e) {
-            showError("Erreur", "Erreur de chargement: " + e.getMessage());
-        }
+            nextBooksCursor = page.getNextCursor();
+            statusLabel.setText(bookTable.getItems().size() + " livre(s) chargé(s)"
+                    + (page.hasMore() ? " (défiler pour la suite)" : ""));
+        });
+        task.setOnFailed(e -> {
+            if (task != pageTask) {
+                return;
+            }
+            pageTask = null;
+            nextBooksCursor = "";
+            showError("Erreur", "Erreur de chargement: " + task.getException().getMessage());
+        });
+        pageTask = task;
+        statusLabel.setText("Chargement des livres...");
+        pageExecutor.execute(task);
     }
 
     private void refreshUsers() {
         try {
-            UserData[] users = userServiceStub.invoke("getAllUsers");
             userTable.getItems().clear();
-            for (UserData user : users) {
-                userTable.getItems().add(new UserDisplay(user));
+            try (ResultStream<UserData> users = userServiceStub.invokeStream("streamAllUsers")) {
+                for (List<UserData> page = users.nextPage(); !page.isEmpty(); page = users.nextPage()) {
+                    for (UserData user : page) {
+                        userTable.getItems().add(new UserDisplay(user));
+                    }
+                }
             }
-            statusLabel.setText(users.length + " utilisateur(s) chargé(s)");
+            statusLabel.setText(userTable.getItems().size() + " utilisateur(s) chargé(s)");
         } catch (Exception e) {
             showError("Erreur", "Erreur de chargement: " + e.getMessage());
         }
@@ -530,7 +713,15 @@ public class LibraryClientGUI extends Application {
     }
 
     private void logout() {
+        if (sessionToken != null) {
+            try {
+                userServiceStub.invoke("logout", sessionToken);
+            } catch (Exception e) {
+                System.err.println("Session non fermée côté serveur: " + e.getMessage());
+            }
+        }
         currentUser = null;
+        sessionToken = null;
         userLabel.setText("Non connecté");
         showInfo("Déconnexion", "Vous êtes déconnecté");
     }
@@ -0,0 +1,34 @@
+package common;
+
+import java.io.Serializable;
+import java.util.List;
+
+public class BookPage implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private List<Book> books;
+    private String nextCursor;
+
+    public BookPage(List<Book> books, String nextCursor) {
+        this.books = books;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Book> getBooks() {
+        return books;
+    }
+
+    // Passed back to listBooks for the following page; empty once the listing is complete.
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return !nextCursor.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BookPage[books=%d, hasMore=%s]", books.size(), hasMore() ? "Yes" : "No");
+    }
+}
@@ -0,0 +1,382 @@
+package common;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Structured server events: a constant event name plus up to three key/value fields, e.g.
+// "2026-01-01T12:00:00.000Z INFO [CORBA Server] user.registered id=alice". Callers claim a slot in a
+// preallocated ring, fill it in and publish it; one daemon thread drains the ring in batches to
+// stdout or a rolling file, so a service thread never formats a message, never waits on I/O and
+// never contends on the console lock. When the ring is full the event is dropped and counted.
+//
+// A level below -Deventlog.level (default INFO) costs one field read and allocates nothing, as
+// long as the caller passes fields that already exist rather than building them. Noisy events
+// can also be sampled: -Deventlog.sample.<event>=N keeps one in N.
+public final class EventLog {
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final int MAX_FIELDS = 3;
+    private static final long IDLE_PARK_NANOS = 2000000;
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ISO_INSTANT;
+    private static final Pipeline PIPELINE = new Pipeline(System.getProperties());
+
+    private final String source;
+
+    private EventLog(String source) {
+        this.source = source;
+    }
+
+    public static EventLog forSource(String source) {
+        return new EventLog(source);
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.ordinal() >= PIPELINE.threshold;
+    }
+
+    public void debug(String event) {
+        log(Level.DEBUG, event, 0, null, null, null, null, null, null);
+    }
+
+    public void debug(String event, String k1, Object v1) {
+        log(Level.DEBUG, event, 1, k1, v1, null, null, null, null);
+    }
+
+    public void debug(String event, String k1, Object v1, String k2, Object v2) {
+        log(Level.DEBUG, event, 2, k1, v1, k2, v2, null, null);
+    }
+
+    public void debug(String event, String k1, Object v1, String k2, Object v2, String k3, Object v3) {
+        log(Level.DEBUG, event, 3, k1, v1, k2, v2, k3, v3);
+    }
+
+    public void info(String event) {
+        log(Level.INFO, event, 0, null, null, null, null, null, null);
+    }
+
+    public void info(String event, String k1, Object v1) {
+        log(Level.INFO, event, 1, k1, v1, null, null, null, null);
+    }
+
+    public void info(String event, String k1, Object v1, String k2, Object v2) {
+        log(Level.INFO, event, 2, k1, v1, k2, v2, null, null);
+    }
+
+    public void info(String event, String k1, Object v1, String k2, Object v2, String k3, Object v3) {
+        log(Level.INFO, event, 3, k1, v1, k2, v2, k3, v3);
+    }
+
+    public void warn(String event) {
+        log(Level.WARN, event, 0, null, null, null, null, null, null);
+    }
+
+    public void warn(String event, String k1, Object v1) {
+        log(Level.WARN, event, 1, k1, v1, null, null, null, null);
+    }
+
+    public void warn(String event, String k1, Object v1, String k2, Object v2) {
+        log(Level.WARN, event, 2, k1, v1, k2, v2, null, null);
+    }
+
+    public void warn(String event, String k1, Object v1, String k2, Object v2, String k3, Object v3) {
+        log(Level.WARN, event, 3, k1, v1, k2, v2, k3, v3);
+    }
+
+    public void error(String event) {
+        log(Level.ERROR, event, 0, null, null, null, null, null, null);
+    }
+
+    public void error(String event, String k1, Object v1) {
+        log(Level.ERROR, event, 1, k1, v1, null, null, null, null);
+    }
+
+    public void error(String event, String k1, Object v1, String k2, Object v2) {
+        log(Level.ERROR, event, 2, k1, v1, k2, v2, null, null);
+    }
+
+    public void error(String event, String k1, Object v1, String k2, Object v2, String k3, Object v3) {
+        log(Level.ERROR, event, 3, k1, v1, k2, v2, k3, v3);
+    }
+
+    private void log(Level level, String event, int fields, String k1, Object v1, String k2, Object v2,
+                     String k3, Object v3) {
+        Pipeline pipeline = PIPELINE;
+        if (level.ordinal() < pipeline.threshold || !pipeline.sampled(event)) {
+            return;
+        }
+        pipeline.publish(System.currentTimeMillis(), level, source, event, fields, k1, v1, k2, v2, k3, v3);
+    }
+
+    // Blocks until everything published so far has been written; for shutdown and tests.
+    public static void flush() {
+        PIPELINE.awaitDrained();
+    }
+
+    public static Stats getStats() {
+        return PIPELINE.stats();
+    }
+
+    private static final class Slot {
+        // The sequence number this slot was last published for; the writer waits for it to match.
+        volatile long published = -1;
+        long timestamp;
+        Level level;
+        String source;
+        String event;
+        int fieldCount;
+        final String[] keys = new String[MAX_FIELDS];
+        final Object[] values = new Object[MAX_FIELDS];
+
+        void clear() {
+            source = null;
+            event = null;
+            for (int i = 0; i < MAX_FIELDS; i++) {
+                keys[i] = null;
+                values[i] = null;
+            }
+        }
+    }
+
+    private static final class Sampler {
+        final long every;
+        final AtomicLong seen = new AtomicLong();
+
+        Sampler(long every) {
+            this.every = every;
+        }
+    }
+
+    private static final class Pipeline {
+        final int threshold;
+        final Slot[] ring;
+        final int mask;
+        final Map<String, Sampler> samplers = new ConcurrentHashMap<>();
+        final boolean sampling;
+        final AtomicLong head = new AtomicLong();
+        volatile long tail;
+        final Output output;
+        final LongAdder dropped = new LongAdder();
+        final LongAdder sampledOut = new LongAdder();
+        volatile long batches;
+        // Set by the writer before it parks on an empty ring; a publisher that sees it wakes it.
+        volatile boolean idle;
+        final Thread writer;
+
+        Pipeline(Properties properties) {
+            this.threshold = Level.valueOf(properties.getProperty("eventlog.level", "INFO").toUpperCase()).ordinal();
+            int size = Integer.highestOneBit(Math.max(64, Integer.parseInt(properties.getProperty("eventlog.bufferSize", "8192"))));
+            this.ring = new Slot[size];
+            for (int i = 0; i < size; i++) {
+                ring[i] = new Slot();
+            }
+            this.mask = size - 1;
+            for (String name : properties.stringPropertyNames()) {
+                if (name.startsWith("eventlog.sample.")) {
+                    long every = Long.parseLong(properties.getProperty(name));
+                    if (every > 1) {
+                        samplers.put(name.substring("eventlog.sample.".length()), new Sampler(every));
+                    }
+                }
+            }
+            this.sampling = !samplers.isEmpty();
+            String file = properties.getProperty("eventlog.file");
+            this.output = file == null ? new Output(null, 0, 0) : new Output(Paths.get(file),
+                    Long.parseLong(properties.getProperty("eventlog.maxBytes", String.valueOf(16L << 20))),
+                    Integer.parseInt(properties.getProperty("eventlog.maxFiles", "5")));
+            this.writer = new Thread(this::drain, "EventLog-writer");
+            writer.setDaemon(true);
+            writer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::awaitDrained, "EventLog-shutdown"));
+        }
+
+        boolean sampled(String event) {
+            if (!sampling) {
+                return true;
+            }
+            Sampler sampler = samplers.get(event);
+            if (sampler == null || sampler.seen.getAndIncrement() % sampler.every == 0) {
+                return true;
+            }
+            sampledOut.increment();
+            return false;
+        }
+
+        void publish(long timestamp, Level level, String source, String event, int fields,
+                     String k1, Object v1, String k2, Object v2, String k3, Object v3) {
+            long sequence;
+            do {
+                sequence = head.get();
+                if (sequence - tail >= ring.length) {
+                    dropped.increment();
+                    return;
+                }
+            } while (!head.compareAndSet(sequence, sequence + 1));
+            Slot slot = ring[(int) sequence & mask];
+            slot.timestamp = timestamp;
+            slot.level = level;
+            slot.source = source;
+            slot.event = event;
+            slot.fieldCount = fields;
+            slot.keys[0] = k1;
+            slot.values[0] = v1;
+            slot.keys[1] = k2;
+            slot.values[1] = v2;
+            slot.keys[2] = k3;
+            slot.values[2] = v3;
+            slot.published = sequence;
+            if (idle) {
+                LockSupport.unpark(writer);
+            }
+        }
+
+        // Takes every slot published in sequence order, formats the run into one buffer and
+        // writes it with a single call. On an empty ring it parks until the next publish; the ring
+        // is checked again after idle is set, so a publish that missed the flag is still seen.
+        private void drain() {
+            StringBuilder batch = new StringBuilder(8192);
+            while (true) {
+                long next = tail;
+                Slot slot = ring[(int) next & mask];
+                if (slot.published != next) {
+                    idle = true;
+                    if (slot.published != next) {
+                        LockSupport.park(this);
+                    }
+                    idle = false;
+                    continue;
+                }
+                batch.setLength(0);
+                while (slot.published == next && batch.length() < (1 << 16)) {
+                    format(slot, batch);
+                    slot.clear();
+                    tail = ++next;
+                    slot = ring[(int) next & mask];
+                }
+                output.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+                batches++;
+            }
+        }
+
+        private static void format(Slot slot, StringBuilder out) {
+            TIMESTAMP.formatTo(Instant.ofEpochMilli(slot.timestamp), out);
+            out.append(' ').append(slot.level).append(" [").append(slot.source).append("] ").append(slot.event);
+            for (int i = 0; i < slot.fieldCount; i++) {
+                out.append(' ').append(slot.keys[i]).append('=');
+                String value = String.valueOf(slot.values[i]);
+                if (value.isEmpty() || value.indexOf(' ') >= 0 || value.indexOf('"') >= 0 || value.indexOf('=') >= 0) {
+                    out.append('"').append(value.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+                } else {
+                    out.append(value);
+                }
+            }
+            out.append('\n');
+        }
+
+        void awaitDrained() {
+            long target = head.get();
+            while (tail < target && writer.isAlive()) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+
+        Stats stats() {
+            long written = tail;
+            return new Stats(head.get(), written, dropped.sum(), sampledOut.sum(), batches, output.rolls);
+        }
+    }
+
+    // Console output, or a file that is rolled to name.1 .. name.(maxFiles-1) once it passes maxBytes.
+    private static final class Output {
+        private final Path path;
+        private final long maxBytes;
+        private final int maxFiles;
+        private OutputStream stream;
+        private long size;
+        volatile long rolls;
+
+        Output(Path path, long maxBytes, int maxFiles) {
+            this.path = path;
+            this.maxBytes = maxBytes;
+            this.maxFiles = Math.max(1, maxFiles);
+        }
+
+        void write(byte[] bytes) {
+            try {
+                if (path == null) {
+                    System.out.write(bytes);
+                    System.out.flush();
+                    return;
+                }
+                if (stream == null) {
+                    open();
+                }
+                stream.write(bytes);
+                stream.flush();
+                size += bytes.length;
+                if (size >= maxBytes) {
+                    roll();
+                }
+            } catch (IOException e) {
+                System.err.println("[EventLog] Write to " + path + " failed: " + e.getMessage());
+                stream = null;
+            }
+        }
+
+        private void open() throws IOException {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            stream = new FileOutputStream(path.toFile(), true);
+            size = Files.size(path);
+        }
+
+        private void roll() throws IOException {
+            stream.close();
+            stream = null;
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                Path from = i == 1 ? path : Paths.get(path + "." + (i - 1));
+                if (Files.exists(from)) {
+                    Files.move(from, Paths.get(path + "." + i), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            if (maxFiles == 1) {
+                Files.deleteIfExists(path);
+            }
+            rolls++;
+        }
+    }
+
+    public static class Stats {
+        public final long published;
+        public final long written;
+        public final long dropped;
+        public final long sampledOut;
+        public final long batches;
+        public final long rolls;
+
+        Stats(long published, long written, long dropped, long sampledOut, long batches, long rolls) {
+            this.published = published;
+            this.written = written;
+            this.dropped = dropped;
+            this.sampledOut = sampledOut;
+            this.batches = batches;
+            this.rolls = rolls;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("EventLog[published=%d, written=%d, dropped=%d, sampledOut=%d, batches=%d, rolls=%d]",
+                    published, written, dropped, sampledOut, batches, rolls);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package common;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class MethodMetrics {
+    private final String service;
+    private final String method;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder compressedFrames = new LongAdder();
+    private final LongAdder compressedPayloadBytes = new LongAdder();
+    private final LongAdder compressedWireBytes = new LongAdder();
+    private final LongAdder compressionNanos = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    MethodMetrics(String service, String method) {
+        this.service = service;
+        this.method = method;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public void record(long latencyNanos, boolean error) {
+        calls.increment();
+        if (error) {
+            errors.increment();
+        }
+        latency.record(latencyNanos);
+    }
+
+    public void record(long latencyNanos, boolean error, long requestBytes, long replyBytes) {
+        record(latencyNanos, error);
+        bytesIn.add(requestBytes);
+        bytesOut.add(replyBytes);
+    }
+
+    public void record(long latencyNanos, boolean error, long requestBytes, long replyBytes, long allocated) {
+        record(latencyNanos, error, requestBytes, replyBytes);
+        allocatedBytes.add(allocated);
+    }
+
+    // For transports that only learn a reply's size after the call was recorded.
+    public void recordReplyBytes(long replyBytes) {
+        bytesOut.add(replyBytes);
+    }
+
+    public void recordCompression(long payloadBytes, long wireBytes, long nanos) {
+        compressedFrames.increment();
+        compressedPayloadBytes.add(payloadBytes);
+        compressedWireBytes.add(wireBytes);
+        compressionNanos.add(nanos);
+    }
+
+    public MethodSnapshot snapshot() {
+        long count = calls.sum();
+        return new MethodSnapshot(service, method, count, errors.sum(), bytesIn.sum(), bytesOut.sum(),
+                allocatedBytes.sum(), compressedFrames.sum(), compressedPayloadBytes.sum(), compressedWireBytes.sum(),
+                compressionNanos.sum() / 1000,
+                latency.getMean() / 1000.0,
+                latency.percentile(0.50) / 1000,
+                latency.percentile(0.99) / 1000,
+                latency.percentile(0.999) / 1000,
+                latency.getMax() / 1000);
+    }
+
+    public void reset() {
+        calls.reset();
+        errors.reset();
+        bytesIn.reset();
+        bytesOut.reset();
+        allocatedBytes.reset();
+        compressedFrames.reset();
+        compressedPayloadBytes.reset();
+        compressedWireBytes.reset();
+        compressionNanos.reset();
+        latency.reset();
+    }
+}
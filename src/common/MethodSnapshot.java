@@ -0,0 +1,73 @@
+package common;
+
+import java.io.Serializable;
+
+public class MethodSnapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String service;
+    private final String method;
+    private final long calls;
+    private final long errors;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long allocatedBytes;
+    private final long compressedFrames;
+    private final long compressedPayloadBytes;
+    private final long compressedWireBytes;
+    private final long compressionMicros;
+    private final double meanMicros;
+    private final long p50Micros;
+    private final long p99Micros;
+    private final long p999Micros;
+    private final long maxMicros;
+
+    public MethodSnapshot(String service, String method, long calls, long errors, long bytesIn, long bytesOut,
+                          long allocatedBytes, long compressedFrames, long compressedPayloadBytes,
+                          long compressedWireBytes, long compressionMicros, double meanMicros, long p50Micros, long p99Micros, long p999Micros, long maxMicros) {
+        this.service = service;
+        this.method = method;
+        this.calls = calls;
+        this.errors = errors;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.allocatedBytes = allocatedBytes;
+        this.compressedFrames = compressedFrames;
+        this.compressedPayloadBytes = compressedPayloadBytes;
+        this.compressedWireBytes = compressedWireBytes;
+        this.compressionMicros = compressionMicros;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.p999Micros = p999Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    public String getService() { return service; }
+    public String getMethod() { return method; }
+    public long getCalls() { return calls; }
+    public long getErrors() { return errors; }
+    public long getBytesIn() { return bytesIn; }
+    public long getBytesOut() { return bytesOut; }
+    public long getAllocatedBytes() { return allocatedBytes; }
+    public long getAllocatedBytesPerCall() { return calls == 0 ? 0 : allocatedBytes / calls; }
+    public long getCompressedFrames() { return compressedFrames; }
+    public long getCompressedPayloadBytes() { return compressedPayloadBytes; }
+    public long getCompressedWireBytes() { return compressedWireBytes; }
+    public long getCompressionMicros() { return compressionMicros; }
+    public double getCompressionRatio() { return compressedWireBytes == 0 ? 0.0 : (double) compressedPayloadBytes / compressedWireBytes; }
+    public double getCompressionMicrosPerFrame() { return compressedFrames == 0 ? 0.0 : (double) compressionMicros / compressedFrames; }
+    public double getMeanMicros() { return meanMicros; }
+    public long getP50Micros() { return p50Micros; }
+    public long getP99Micros() { return p99Micros; }
+    public long getP999Micros() { return p999Micros; }
+    public long getMaxMicros() { return maxMicros; }
+
+    @Override
+    public String toString() {
+        return String.format("%s.%s calls=%d errors=%d in=%dB out=%dB alloc/call=%dB compressed=%d ratio=%.2f zip=%.1fus/frame "
+                        + "mean=%.1fus p50=%dus p99=%dus p999=%dus max=%dus",
+                service, method, calls, errors, bytesIn, bytesOut, getAllocatedBytesPerCall(),
+                compressedFrames, getCompressionRatio(), getCompressionMicrosPerFrame(), meanMicros, p50Micros, p99Micros, p999Micros, maxMicros);
+    }
+}
@@ -0,0 +1,11 @@
+package common;
+
+import java.util.List;
+
+public interface MetricsMXBean {
+    List<MethodSnapshot> getMethods();
+
+    String getReport();
+
+    void reset();
+}
@@ -0,0 +1,86 @@
+package common;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class MetricsRegistry implements MetricsMXBean {
+    private static final EventLog LOG = EventLog.forSource("Metrics");
+    private final String name;
+    private final Map<String, Map<String, MethodMetrics>> services = new ConcurrentHashMap<>();
+
+    public MetricsRegistry(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public MethodMetrics forMethod(String service, String method) {
+        Map<String, MethodMetrics> methods = services.get(service);
+        if (methods == null) {
+            methods = services.computeIfAbsent(service, k -> new ConcurrentHashMap<>());
+        }
+        MethodMetrics metrics = methods.get(method);
+        if (metrics == null) {
+            metrics = methods.computeIfAbsent(method, k -> new MethodMetrics(service, k));
+        }
+        return metrics;
+    }
+
+    @Override
+    public List<MethodSnapshot> getMethods() {
+        List<MethodSnapshot> snapshots = new ArrayList<>();
+        for (Map<String, MethodMetrics> methods : services.values()) {
+            for (MethodMetrics metrics : methods.values()) {
+                snapshots.add(metrics.snapshot());
+            }
+        }
+        snapshots.sort((a, b) -> {
+            int byService = a.getService().compareTo(b.getService());
+            return byService != 0 ? byService : a.getMethod().compareTo(b.getMethod());
+        });
+        return snapshots;
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-32s %10s %8s %12s %12s %11s %10s %7s %9s %10s %8s %8s %8s %8s%n",
+                "method", "calls", "errors", "bytesIn", "bytesOut", "alloc/call", "zipped", "ratio", "zip(us)",
+                "mean(us)", "p50", "p99", "p999", "max"));
+        for (MethodSnapshot s : getMethods()) {
+            report.append(String.format("%-32s %10d %8d %12d %12d %11d %10d %7.2f %9.1f %10.1f %8d %8d %8d %8d%n",
+                    s.getService() + "." + s.getMethod(), s.getCalls(), s.getErrors(), s.getBytesIn(), s.getBytesOut(),
+                    s.getAllocatedBytesPerCall(), s.getCompressedFrames(), s.getCompressionRatio(),
+                    s.getCompressionMicrosPerFrame(), s.getMeanMicros(), s.getP50Micros(), s.getP99Micros(), s.getP999Micros(), s.getMaxMicros()));
+        }
+        return report.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (Map<String, MethodMetrics> methods : services.values()) {
+            for (MethodMetrics metrics : methods.values()) {
+                metrics.reset();
+            }
+        }
+    }
+
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("library:type=Metrics,name=" + ObjectName.quote(name));
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(this, objectName);
+            }
+        } catch (Exception e) {
+            LOG.warn("jmx.register.failed", "name", name, "error", e.getMessage());
+        }
+    }
+}
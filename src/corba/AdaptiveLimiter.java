@@ -0,0 +1,114 @@
+package corba;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+class AdaptiveLimiter {
+    private static final int WINDOW_SAMPLES = 100;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double BACKOFF = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final boolean adaptive;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+
+    private final AtomicInteger windowCount = new AtomicInteger();
+    private final LongAdder windowLatency = new LongAdder();
+    private final AtomicInteger windowPeakInFlight = new AtomicInteger();
+    private final AtomicBoolean adjusting = new AtomicBoolean();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile long baselineLatencyNanos;
+
+    AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, boolean adaptive) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.adaptive = adaptive;
+    }
+
+    boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                int peak;
+                while (current + 1 > (peak = windowPeakInFlight.get())
+                        && !windowPeakInFlight.compareAndSet(peak, current + 1)) {
+                }
+                return true;
+            }
+        }
+    }
+
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    void release(long latencyNanos) {
+        inFlight.decrementAndGet();
+        if (!adaptive) {
+            return;
+        }
+        windowLatency.add(latencyNanos);
+        if (windowCount.incrementAndGet() >= WINDOW_SAMPLES && adjusting.compareAndSet(false, true)) {
+            try {
+                adjust();
+            } finally {
+                adjusting.set(false);
+            }
+        }
+    }
+
+    // AIMD on queueing delay: shrink when the window's average latency drifts well above the
+    // no-load baseline, grow while the limit is actually being used and latency stays near it.
+    // The baseline follows a slower service upwards only from windows that are not backing off;
+    // fed by overloaded ones it would climb until the overload looked normal. At the minimum
+    // limit there is nothing left to shed, so latency there is taken as the new no-load level.
+    private void adjust() {
+        int samples = windowCount.getAndSet(0);
+        long average = windowLatency.sumThenReset() / Math.max(1, samples);
+        int peak = windowPeakInFlight.getAndSet(inFlight.get());
+
+        long baseline = baselineLatencyNanos;
+        if (baseline == 0 || average < baseline) {
+            baseline = average;
+        }
+        int current = limit;
+        boolean overloaded = average > baseline * LATENCY_TOLERANCE;
+        if (!overloaded || current <= minLimit) {
+            baseline += (average - baseline) / 32;
+        }
+        baselineLatencyNanos = baseline;
+
+        int next = current;
+        if (overloaded) {
+            next = (int) (current * BACKOFF);
+        } else if (peak >= current * 0.8) {
+            next = current + Math.max(1, (int) Math.sqrt(current));
+        }
+        limit = Math.max(minLimit, Math.min(maxLimit, next));
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    long getRejected() {
+        return rejected.get();
+    }
+
+    long getBaselineLatencyNanos() {
+        return baselineLatencyNanos;
+    }
+}
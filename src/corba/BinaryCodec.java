@@ -0,0 +1,505 @@
+package corba;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class BinaryCodec implements WireCodec {
+    static final BinaryCodec INSTANCE = new BinaryCodec();
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte TRUE = 2;
+    private static final byte FALSE = 3;
+    private static final byte INT = 4;
+    private static final byte LONG = 5;
+    private static final byte DOUBLE = 6;
+    private static final byte FLOAT = 7;
+    private static final byte SHORT = 8;
+    private static final byte BYTE = 9;
+    private static final byte CHAR = 10;
+    private static final byte BYTES = 11;
+    private static final byte INTS = 12;
+    private static final byte LONGS = 13;
+    private static final byte DOUBLES = 14;
+    private static final byte ARRAY = 15;
+    private static final byte LIST = 16;
+    private static final byte MAP = 17;
+    private static final byte VALUE = 18;
+    private static final byte EXCEPTION = 19;
+    private static final byte SERIALIZED = 20;
+
+    private static final byte COMPONENT_OBJECT = 0;
+    private static final byte COMPONENT_STRING = 1;
+    private static final byte COMPONENT_VALUE = 2;
+    private static final byte COMPONENT_CLASS = 3;
+
+    public interface ValueType<T> {
+        void write(T value, DataOutputStream out) throws IOException;
+
+        T read(DataInputStream in) throws IOException;
+    }
+
+    private static final class Registration {
+        final int typeId;
+        final Class<?> type;
+        final ValueType<Object> valueType;
+
+        @SuppressWarnings("unchecked")
+        Registration(int typeId, Class<?> type, ValueType<?> valueType) {
+            this.typeId = typeId;
+            this.type = type;
+            this.valueType = (ValueType<Object>) valueType;
+        }
+    }
+
+    private static final Map<Class<?>, Registration> byType = new ConcurrentHashMap<>();
+    private static final Map<Integer, Registration> byId = new ConcurrentHashMap<>();
+
+    static {
+        register(1, UserData.class, new ValueType<UserData>() {
+            @Override
+            public void write(UserData user, DataOutputStream out) throws IOException {
+                writeString(user.id, out);
+                writeString(user.name, out);
+                writeString(user.email, out);
+                writeString(user.role, out);
+                out.writeBoolean(user.active);
+                out.writeLong(user.version);
+            }
+
+            @Override
+            public UserData read(DataInputStream in) throws IOException {
+                return new UserData(readString(in), readString(in), readString(in), readString(in), in.readBoolean(),
+                        in.readLong());
+            }
+        });
+        register(2, ResultPage.class, new ValueType<ResultPage>() {
+            @Override
+            public void write(ResultPage page, DataOutputStream out) throws IOException {
+                out.writeLong(page.cursorId);
+                out.writeBoolean(page.last);
+                writeArray(page.rows, out);
+            }
+
+            @Override
+            public ResultPage read(DataInputStream in) throws IOException {
+                long cursorId = in.readLong();
+                boolean last = in.readBoolean();
+                if (in.readByte() != ARRAY) {
+                    throw new StreamCorruptedException("Result page without rows");
+                }
+                return new ResultPage(cursorId, readArray(in), last);
+            }
+        });
+    }
+
+    public static <T> void register(int typeId, Class<T> type, ValueType<T> valueType) {
+        Registration registration = new Registration(typeId, type, valueType);
+        Registration existing = byId.putIfAbsent(typeId, registration);
+        if (existing != null && existing.type != type) {
+            throw new IllegalArgumentException("Type id " + typeId + " already registered for " + existing.type.getName());
+        }
+        byType.put(type, registration);
+    }
+
+    @Override
+    public byte id() {
+        return BINARY;
+    }
+
+    @Override
+    public String name() {
+        return "binary";
+    }
+
+    @Override
+    public void encode(Object value, DataOutputStream out) throws IOException {
+        writeValue(value, out);
+    }
+
+    @Override
+    public Object decode(DataInputStream in) throws IOException {
+        return readValue(in);
+    }
+
+    private static void writeValue(Object value, DataOutputStream out) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString((String) value, out);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            writeVarLong(zigZag((Integer) value), out);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            writeVarLong(zigZag((Long) value), out);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            out.writeByte(CHAR);
+            out.writeChar((Character) value);
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(BYTES);
+            writeVarInt(bytes.length, out);
+            out.write(bytes);
+        } else if (value instanceof int[]) {
+            int[] ints = (int[]) value;
+            out.writeByte(INTS);
+            writeVarInt(ints.length, out);
+            for (int i : ints) {
+                writeVarLong(zigZag(i), out);
+            }
+        } else if (value instanceof long[]) {
+            long[] longs = (long[]) value;
+            out.writeByte(LONGS);
+            writeVarInt(longs.length, out);
+            for (long l : longs) {
+                writeVarLong(zigZag(l), out);
+            }
+        } else if (value instanceof double[]) {
+            double[] doubles = (double[]) value;
+            out.writeByte(DOUBLES);
+            writeVarInt(doubles.length, out);
+            for (double d : doubles) {
+                out.writeDouble(d);
+            }
+        } else if (value instanceof Object[]) {
+            writeArray((Object[]) value, out);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(LIST);
+            writeVarInt(list.size(), out);
+            for (Object element : list) {
+                writeValue(element, out);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(MAP);
+            writeVarInt(map.size(), out);
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(entry.getKey(), out);
+                writeValue(entry.getValue(), out);
+            }
+        } else if (value instanceof Throwable) {
+            Throwable error = (Throwable) value;
+            out.writeByte(EXCEPTION);
+            writeString(error.getClass().getName(), out);
+            writeString(error.getMessage(), out);
+        } else {
+            Registration registration = byType.get(value.getClass());
+            if (registration != null) {
+                out.writeByte(VALUE);
+                writeVarInt(registration.typeId, out);
+                registration.valueType.write(value, out);
+            } else {
+                byte[] serialized = javaSerialize(value);
+                out.writeByte(SERIALIZED);
+                writeVarInt(serialized.length, out);
+                out.write(serialized);
+            }
+        }
+    }
+
+    private static void writeArray(Object[] array, DataOutputStream out) throws IOException {
+        Class<?> component = array.getClass().getComponentType();
+        out.writeByte(ARRAY);
+        Registration registration = byType.get(component);
+        if (component == String.class) {
+            out.writeByte(COMPONENT_STRING);
+            writeVarInt(array.length, out);
+            for (Object element : array) {
+                writeString((String) element, out);
+            }
+        } else if (registration != null) {
+            out.writeByte(COMPONENT_VALUE);
+            writeVarInt(registration.typeId, out);
+            writeVarInt(array.length, out);
+            for (Object element : array) {
+                out.writeBoolean(element != null);
+                if (element != null) {
+                    registration.valueType.write(element, out);
+                }
+            }
+        } else {
+            // Any other component type is named, so a Book[] or Integer[] comes back as one.
+            if (component == Object.class) {
+                out.writeByte(COMPONENT_OBJECT);
+            } else {
+                out.writeByte(COMPONENT_CLASS);
+                writeString(component.getName(), out);
+            }
+            writeVarInt(array.length, out);
+            for (Object element : array) {
+                writeValue(element, out);
+            }
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case INT:
+                return (int) unZigZag(readVarLong(in));
+            case LONG:
+                return unZigZag(readVarLong(in));
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case CHAR:
+                return in.readChar();
+            case BYTES: {
+                byte[] bytes = new byte[readLength(in)];
+                in.readFully(bytes);
+                return bytes;
+            }
+            case INTS: {
+                int[] ints = new int[readLength(in)];
+                for (int i = 0; i < ints.length; i++) {
+                    ints[i] = (int) unZigZag(readVarLong(in));
+                }
+                return ints;
+            }
+            case LONGS: {
+                long[] longs = new long[readLength(in)];
+                for (int i = 0; i < longs.length; i++) {
+                    longs[i] = unZigZag(readVarLong(in));
+                }
+                return longs;
+            }
+            case DOUBLES: {
+                double[] doubles = new double[readLength(in)];
+                for (int i = 0; i < doubles.length; i++) {
+                    doubles[i] = in.readDouble();
+                }
+                return doubles;
+            }
+            case ARRAY:
+                return readArray(in);
+            case LIST: {
+                int size = readLength(in);
+                List<Object> list = new ArrayList<>(Math.min(size, 1024));
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            }
+            case MAP: {
+                int size = readLength(in);
+                Map<Object, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    map.put(readValue(in), readValue(in));
+                }
+                return map;
+            }
+            case VALUE:
+                return registration(readVarInt(in)).valueType.read(in);
+            case EXCEPTION:
+                return readException(readString(in), readString(in));
+            case SERIALIZED: {
+                byte[] bytes = new byte[readLength(in)];
+                in.readFully(bytes);
+                return javaDeserialize(bytes);
+            }
+            default:
+                throw new StreamCorruptedException("Unknown binary codec tag: " + tag);
+        }
+    }
+
+    private static Object[] readArray(DataInputStream in) throws IOException {
+        byte component = in.readByte();
+        switch (component) {
+            case COMPONENT_STRING: {
+                String[] array = new String[readLength(in)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readString(in);
+                }
+                return array;
+            }
+            case COMPONENT_VALUE: {
+                Registration registration = registration(readVarInt(in));
+                Object[] array = (Object[]) java.lang.reflect.Array.newInstance(registration.type, readLength(in));
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readBoolean() ? registration.valueType.read(in) : null;
+                }
+                return array;
+            }
+            case COMPONENT_OBJECT: {
+                Object[] array = new Object[readLength(in)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readValue(in);
+                }
+                return array;
+            }
+            case COMPONENT_CLASS: {
+                Class<?> type = resolve(readString(in));
+                if (type.isPrimitive()) {
+                    throw new StreamCorruptedException("Primitive array component: " + type.getName());
+                }
+                Object[] array = (Object[]) java.lang.reflect.Array.newInstance(type, readLength(in));
+                for (int i = 0; i < array.length; i++) {
+                    Object element = readValue(in);
+                    if (element != null && !type.isInstance(element)) {
+                        throw new StreamCorruptedException(element.getClass().getName() + " in a " + type.getName() + " array");
+                    }
+                    array[i] = element;
+                }
+                return array;
+            }
+            default:
+                throw new StreamCorruptedException("Unknown array component kind: " + component);
+        }
+    }
+
+    // A length read from the wire, before anything is allocated for it; no frame can hold more.
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = readVarInt(in);
+        if (length < 0 || length > FramedStream.MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("Invalid length: " + (length & 0xFFFFFFFFL));
+        }
+        return length;
+    }
+
+    private static Class<?> resolve(String name) throws IOException {
+        try {
+            return Class.forName(name, false, BinaryCodec.class.getClassLoader());
+        } catch (ClassNotFoundException | LinkageError e) {
+            throw new InvalidClassException(name, "Unknown array component type");
+        }
+    }
+
+    // Rebuilt as the thrown type when this side has it with a message constructor, so callers
+    // can still catch it by type; anything else, Errors included, arrives as an OrbException
+    // naming the remote type.
+    private static Exception readException(String className, String message) {
+        try {
+            Class<?> type = Class.forName(className, false, BinaryCodec.class.getClassLoader());
+            if (Exception.class.isAssignableFrom(type)) {
+                return (Exception) type.getConstructor(String.class).newInstance(message);
+            }
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+        }
+        return new OrbException(className, message);
+    }
+
+    private static Registration registration(int typeId) throws IOException {
+        Registration registration = byId.get(typeId);
+        if (registration == null) {
+            throw new StreamCorruptedException("Unregistered value type id: " + typeId);
+        }
+        return registration;
+    }
+
+    public static void writeString(String s, DataOutputStream out) throws IOException {
+        if (s == null) {
+            writeVarInt(0, out);
+            return;
+        }
+        int length = s.length();
+        boolean ascii = true;
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) >= 0x80) {
+                ascii = false;
+                break;
+            }
+        }
+        if (ascii) {
+            writeVarInt(length + 1, out);
+            out.writeBytes(s);
+        } else {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length + 1, out);
+            out.write(bytes);
+        }
+    }
+
+    public static String readString(DataInputStream in) throws IOException {
+        int length = readLength(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeVarInt(int value, DataOutputStream out) throws IOException {
+        writeVarLong(value & 0xFFFFFFFFL, out);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        return (int) readVarLong(in);
+    }
+
+    private static void writeVarLong(long value, DataOutputStream out) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new StreamCorruptedException("Malformed varint");
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static byte[] javaSerialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object javaDeserialize(byte[] bytes) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new InvalidClassException(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package corba;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+class BufferPool {
+    private final int bufferSize;
+    private final ArrayBlockingQueue<ByteBuffer> free;
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder allocated = new LongAdder();
+
+    BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+    ByteBuffer acquire() {
+        acquired.increment();
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            allocated.increment();
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        return buffer;
+    }
+
+    // Anything that did not come from this pool (heap buffers, wrapped arrays, odd sizes) is left
+    // to the garbage collector, so callers can release every buffer they finish with.
+    void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize) {
+            return;
+        }
+        buffer.clear();
+        free.offer(buffer);
+    }
+
+    long getAcquired() {
+        return acquired.sum();
+    }
+
+    long getAllocated() {
+        return allocated.sum();
+    }
+
+    int getFree() {
+        return free.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BufferPool[size=%dKB, acquired=%d, allocated=%d, free=%d]",
+                bufferSize / 1024, getAcquired(), getAllocated(), getFree());
+    }
+}
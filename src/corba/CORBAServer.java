@@ -1,6 +1,7 @@
 package corba;
 
 import java.io.*;
+import java.util.*;
 
 public class CORBAServer {
     public static final int CORBA_PORT = 1100;
@@ -13,19 +14,31 @@ public class CORBAServer {
             System.out.println("   (Using SimpleORB - CORBA-like implementation)");
             System.out.println("==============================================");
 
+            SimpleORB.Transport transport = SimpleORB.Transport.valueOf(
+                    System.getProperty("simpleorb.transport", "blocking").toUpperCase());
+
+            int port = args.length > 0 ? Integer.parseInt(args[0]) : CORBA_PORT;
+            ObjectReference reference = reference(port, System.getProperty("simpleorb.replicas", ""));
+
             SimpleORB orb = new SimpleORB();
-            orb.init(CORBA_PORT);
+            ExecutionStrategy strategy = ExecutionStrategy.fromSystemProperties();
+            orb.init(port, transport, strategy);
             
             UserServiceServant userService = new UserServiceServant();
             orb.registerServant(SERVICE_NAME, userService);
+            orb.getMetrics().registerMBean();
             
             PrintWriter out = new PrintWriter(new FileWriter("UserService.ref"));
-            out.println("localhost:" + CORBA_PORT + ":" + SERVICE_NAME);
+            out.println(reference);
             out.close();
 
             System.out.println("[CORBA Server] Server started successfully!");
             System.out.println("[CORBA Server] Service Name: " + SERVICE_NAME);
-            System.out.println("[CORBA Server] Port: " + CORBA_PORT);
+            System.out.println("[CORBA Server] Port: " + port);
+            System.out.println("[CORBA Server] Reference: " + reference);
+            System.out.println("[CORBA Server] Transport: " + transport);
+            System.out.println("[CORBA Server] Execution: " + strategy);
+            System.out.println("[CORBA Server] Metrics: servant " + SimpleORB.METRICS_SERVANT + " and JMX library:type=Metrics,name=\"SimpleORB\"");
             System.out.println("[CORBA Server] Reference file created: UserService.ref");
             System.out.println("[CORBA Server] Waiting for client connections...");
             System.out.println("==============================================");
@@ -37,4 +50,20 @@ public class CORBAServer {
             e.printStackTrace();
         }
     }
+
+    // Replicas started with the same -Dsimpleorb.replicas=host:port,... list all write the same
+    // reference, so clients spread across every node whichever one wrote it last. Each client
+    // stub stays on one node, but servant state is not replicated: every replica has its own
+    // users, sessions and journal. Replicas must share one store for clients on different
+    // nodes, or a client that fails over, to see the same users.
+    static ObjectReference reference(int port, String replicas) {
+        Set<ObjectReference.Endpoint> endpoints = new LinkedHashSet<>();
+        endpoints.add(new ObjectReference.Endpoint("localhost", port));
+        for (String replica : replicas.split(",")) {
+            if (!replica.trim().isEmpty()) {
+                endpoints.add(ObjectReference.Endpoint.parse(replica));
+            }
+        }
+        return new ObjectReference(new ArrayList<>(endpoints), SERVICE_NAME);
+    }
 }
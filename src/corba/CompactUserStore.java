@@ -0,0 +1,740 @@
+package corba;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Users packed for multi-million-account deployments. Each user is a single blob of bytes,
+// [version][active][role][id][name][email][password][epoch] with the strings in UTF-8, appended to large
+// shared chunks and located through one long per user; there are no per-user objects, headers or
+// references. Roles are a byte into a small dictionary. Names are stored word by word and emails
+// as a local part and a domain, and a word or domain that recurs across users is stored once in a
+// shared dictionary and referred to by code. Ids and emails are found through open-addressing
+// tables of longs, each entry a 32-bit hash and a slot number.
+//
+// Reads take no lock: they follow the published pointer to a blob that is never overwritten.
+// Writes are serialized on one lock and append a fresh blob, so an update leaves garbage behind,
+// and once garbage outweighs live data the chunks are compacted. Every read decodes its record,
+// which makes lookups slower than HeapUserStore in exchange for a fraction of the heap.
+final class CompactUserStore implements UserStore {
+    static final int CHUNK_SIZE = 1 << 22;
+    private static final int PAGE_SHIFT = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int MIN_TABLE = 1 << 10;
+    private static final long MIN_GARBAGE = 4L * CHUNK_SIZE;
+    private static final int HEADER = 10;
+    private static final int MAX_ROLES = 256;
+    // A shorter name or email part would save a byte at most as a dictionary code.
+    private static final int MIN_CODED_BYTES = 3;
+
+    private final Object writeLock = new Object();
+
+    private final int chunkSize;
+    private final long minGarbage;
+
+    // Published copy-on-write. A retired chunk is dropped from the array only after every blob in
+    // it has been moved, and its index is handed to the next chunk allocated, so a reader checks
+    // that the pointer it followed is still current before decoding what it found.
+    private volatile byte[][] chunks = new byte[0][];
+    private volatile AtomicLongArray[] pages = new AtomicLongArray[0];
+    private volatile int size;
+    private volatile AtomicLongArray ids = new AtomicLongArray(MIN_TABLE);
+    private volatile AtomicLongArray emails = new AtomicLongArray(MIN_TABLE);
+    private volatile String[] roles = new String[0];
+    private volatile Members[] members = new Members[0];
+    private final Dictionary words = new Dictionary();
+
+    // Guarded by writeLock.
+    private final FramedStream.ExposedByteArrayOutputStream blob = new FramedStream.ExposedByteArrayOutputStream(256);
+    private int chunk = -1;
+    private int chunkUsed;
+    private int emailEntries;
+    private long liveBytes;
+    private long garbageBytes;
+    private long compactions;
+
+    // Slots holding one role, appended under writeLock. The array is published before the count
+    // that covers it, so a reader that reads count first never indexes past the array it sees.
+    private static final class Members {
+        volatile int[] slots = new int[16];
+        volatile int count;
+
+        void add(int slot) {
+            int[] current = slots;
+            if (count == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+                slots = current;
+            }
+            current[count] = slot;
+            count = count + 1;
+        }
+    }
+
+    // Strings shared between users, each stored once and known by its code. A string is admitted
+    // the second time it is written, which a filter of hashes remembers; one that occurs once
+    // stays inline in its blob and costs the dictionary nothing, and a filter collision only
+    // admits a string early. Codes stay valid for the life of the store.
+    private static final class Dictionary {
+        private static final int CODE_PAGE_SHIFT = 12;
+        private static final int CODE_PAGE_SIZE = 1 << CODE_PAGE_SHIFT;
+        private static final int MAX_CODES = 1 << 20;
+        private static final int SEEN_BITS = 1 << 23;
+
+        // Pages are published before the codes they hold are written into any blob.
+        private volatile String[][] pages = new String[0][];
+
+        // Guarded by writeLock.
+        private int count;
+        private long[] table = new long[MIN_TABLE];
+        private final long[] seen = new long[SEEN_BITS / 64];
+
+        String get(int code) {
+            return pages[code >>> CODE_PAGE_SHIFT][code & (CODE_PAGE_SIZE - 1)];
+        }
+
+        int size() {
+            return count;
+        }
+
+        // The code for value, or -1 to store it inline.
+        int code(String value) {
+            int hash = hash(value);
+            int mask = table.length - 1;
+            int i = hash & mask;
+            for (long entry; (entry = table[i]) != 0; i = (i + 1) & mask) {
+                if ((int) (entry >>> 32) == hash && get((int) entry - 1).equals(value)) {
+                    return (int) entry - 1;
+                }
+            }
+            int bit = hash & (SEEN_BITS - 1);
+            if ((seen[bit >>> 6] & (1L << bit)) == 0) {
+                seen[bit >>> 6] |= 1L << bit;
+                return -1;
+            }
+            if (count == MAX_CODES) {
+                return -1;
+            }
+            int code = count;
+            String[][] current = pages;
+            if ((code >>> CODE_PAGE_SHIFT) == current.length) {
+                current = Arrays.copyOf(current, current.length + 1);
+                current[current.length - 1] = new String[CODE_PAGE_SIZE];
+                pages = current;
+            }
+            current[code >>> CODE_PAGE_SHIFT][code & (CODE_PAGE_SIZE - 1)] = value;
+            count = code + 1;
+            table[i] = ((long) hash << 32) | (code + 1);
+            if (count * 3L >= table.length * 2L) {
+                long[] rebuilt = new long[table.length * 2];
+                for (long entry : table) {
+                    if (entry != 0) {
+                        int j = (int) (entry >>> 32) & (rebuilt.length - 1);
+                        while (rebuilt[j] != 0) {
+                            j = (j + 1) & (rebuilt.length - 1);
+                        }
+                        rebuilt[j] = entry;
+                    }
+                }
+                table = rebuilt;
+            }
+            return code;
+        }
+    }
+
+    CompactUserStore() {
+        this(CHUNK_SIZE, MIN_GARBAGE);
+    }
+
+    // Smaller chunks and a lower compaction threshold let tests exercise compaction cheaply.
+    CompactUserStore(int chunkSize, long minGarbage) {
+        this.chunkSize = chunkSize;
+        this.minGarbage = minGarbage;
+    }
+
+    @Override
+    public UserRecord get(String id) {
+        int slot = find(id);
+        return slot >= 0 ? read(slot) : null;
+    }
+
+    @Override
+    public UserRecord getByEmail(String key) {
+        int hash = hash(key);
+        AtomicLongArray table = emails;
+        int mask = table.length() - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            long entry = table.get(i);
+            if (entry == 0) {
+                return null;
+            }
+            // Entries left behind by an address change stay until the next resize; the record
+            // the entry points at decides whether it still holds this address.
+            if ((int) (entry >>> 32) == hash) {
+                UserRecord user = read((int) entry - 1);
+                if (key.equals(UserStore.emailKey(user.email))) {
+                    return user;
+                }
+            }
+        }
+    }
+
+    @Override
+    public Iterator<UserRecord> withRole(String role) {
+        String[] names = roles;
+        Members[] lists = members;
+        for (int code = 0; code < names.length; code++) {
+            if (names[code].equals(role)) {
+                Members list = lists[code];
+                int count = list.count;
+                int[] slots = list.slots;
+                return Arrays.stream(slots, 0, count).mapToObj(this::read)
+                        .filter(user -> role.equals(user.role)).iterator();
+            }
+        }
+        return Collections.emptyIterator();
+    }
+
+    @Override
+    public Iterator<UserRecord> iterator() {
+        int end = size;
+        return new Iterator<UserRecord>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            @Override
+            public UserRecord next() {
+                if (next >= end) {
+                    throw new NoSuchElementException();
+                }
+                return read(next++);
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Result insert(UserRecord user) {
+        String key = UserStore.emailKey(user.email);
+        synchronized (writeLock) {
+            if (find(user.id) >= 0) {
+                return Result.EXISTS;
+            }
+            if (key != null && getByEmail(key) != null) {
+                return Result.EMAIL_TAKEN;
+            }
+            add(user);
+            return Result.OK;
+        }
+    }
+
+    @Override
+    public Result replace(UserRecord current, UserRecord next) {
+        String oldKey = UserStore.emailKey(current.email);
+        String newKey = UserStore.emailKey(next.email);
+        synchronized (writeLock) {
+            int slot = find(current.id);
+            if (slot < 0 || versionAt(slot) != current.version) {
+                return Result.CONFLICT;
+            }
+            if (newKey != null && !newKey.equals(oldKey) && getByEmail(newKey) != null) {
+                return Result.EMAIL_TAKEN;
+            }
+            overwrite(slot, current, next);
+            return Result.OK;
+        }
+    }
+
+    // Slots stay dense: the last user moves into the freed slot, and the id, email and role
+    // tables are rebuilt with the removed slot gone and the moved one renumbered, then published.
+    // A reader still on the old tables finds the moved user at either slot, and its id or address
+    // check turns away the slot the removed user held.
+    @Override
+    public boolean remove(UserRecord user) {
+        synchronized (writeLock) {
+            int slot = find(user.id);
+            if (slot < 0 || versionAt(slot) != user.version) {
+                return false;
+            }
+            int last = size - 1;
+            AtomicLongArray page = pages[slot >>> PAGE_SHIFT];
+            long pointer = page.get(slot & (PAGE_SIZE - 1));
+            int length = blobLength(chunks[(int) (pointer >>> 32)], (int) pointer);
+            if (slot != last) {
+                page.set(slot & (PAGE_SIZE - 1), pages[last >>> PAGE_SHIFT].get(last & (PAGE_SIZE - 1)));
+            }
+            ids = renumber(ids, slot, last);
+            emails = renumber(emails, slot, last);
+            emailEntries = countEntries(emails);
+            Members[] lists = members.clone();
+            for (int code = 0; code < lists.length; code++) {
+                Members list = lists[code];
+                Members kept = new Members();
+                for (int i = 0; i < list.count; i++) {
+                    int member = list.slots[i];
+                    if (member != slot) {
+                        kept.add(member == last ? slot : member);
+                    }
+                }
+                lists[code] = kept;
+            }
+            members = lists;
+            size = last;
+            liveBytes -= length;
+            garbageBytes += length;
+            return true;
+        }
+    }
+
+    @Override
+    public void restore(UserRecord user) {
+        synchronized (writeLock) {
+            int slot = find(user.id);
+            if (slot < 0) {
+                add(user);
+            } else if (versionAt(slot) < user.version) {
+                overwrite(slot, read(slot), user);
+            }
+        }
+    }
+
+    private void add(UserRecord user) {
+        int slot = size;
+        int role = roleCode(user.role);
+        encode(user, role);
+        long pointer = allocate(blob.buffer(), 0, blob.size());
+        AtomicLongArray[] current = pages;
+        if ((slot >>> PAGE_SHIFT) == current.length) {
+            current = Arrays.copyOf(current, current.length + 1);
+            current[current.length - 1] = new AtomicLongArray(PAGE_SIZE);
+            pages = current;
+        }
+        current[slot >>> PAGE_SHIFT].set(slot & (PAGE_SIZE - 1), pointer);
+        size = slot + 1;
+        if (slot * 3L >= ids.length() * 2L) {
+            ids = rehash(ids, ids.length() * 2, false);
+        }
+        ids = insertEntry(ids, hash(user.id), slot);
+        String key = UserStore.emailKey(user.email);
+        if (key != null) {
+            addEmail(key, slot);
+        }
+        members[role].add(slot);
+    }
+
+    private void overwrite(int slot, UserRecord previous, UserRecord user) {
+        int role = roleCode(user.role);
+        AtomicLongArray page = pages[slot >>> PAGE_SHIFT];
+        long old = page.get(slot & (PAGE_SIZE - 1));
+        int oldLength = blobLength(chunks[(int) (old >>> 32)], (int) old);
+        encode(user, role);
+        page.set(slot & (PAGE_SIZE - 1), allocate(blob.buffer(), 0, blob.size()));
+        liveBytes -= oldLength;
+        garbageBytes += oldLength;
+        String oldKey = UserStore.emailKey(previous.email);
+        String newKey = UserStore.emailKey(user.email);
+        if (newKey != null && !newKey.equals(oldKey)) {
+            UserRecord holder = getByEmail(newKey);
+            if (holder == null || !holder.id.equals(user.id)) {
+                addEmail(newKey, slot);
+            }
+        }
+        if (!user.role.equals(previous.role)) {
+            members[role].add(slot);
+        }
+        if (garbageBytes > liveBytes && garbageBytes > minGarbage) {
+            compact();
+        }
+    }
+
+    private void addEmail(String key, int slot) {
+        if ((emailEntries + 1) * 3L >= emails.length() * 2L) {
+            emails = rehash(emails, emails.length(), true);
+            emailEntries = countEntries(emails);
+            if ((emailEntries + 1) * 3L >= emails.length()) {
+                emails = rehash(emails, emails.length() * 2, false);
+            }
+        }
+        emails = insertEntry(emails, hash(key), slot);
+        emailEntries++;
+    }
+
+    private int find(String id) {
+        int hash = hash(id);
+        AtomicLongArray table = ids;
+        int mask = table.length() - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            long entry = table.get(i);
+            if (entry == 0) {
+                return -1;
+            }
+            if ((int) (entry >>> 32) == hash && id.equals(idAt((int) entry - 1))) {
+                return (int) entry - 1;
+            }
+        }
+    }
+
+    private static AtomicLongArray insertEntry(AtomicLongArray table, int hash, int slot) {
+        int mask = table.length() - 1;
+        int i = hash & mask;
+        while (table.get(i) != 0) {
+            i = (i + 1) & mask;
+        }
+        table.set(i, ((long) hash << 32) | (slot + 1));
+        return table;
+    }
+
+    // Builds a new table for readers to switch to. Email entries whose slot has since moved to
+    // another address are dropped on the way.
+    private AtomicLongArray rehash(AtomicLongArray table, int capacity, boolean dropStale) {
+        AtomicLongArray rebuilt = new AtomicLongArray(capacity);
+        for (int i = 0; i < table.length(); i++) {
+            long entry = table.get(i);
+            if (entry == 0) {
+                continue;
+            }
+            if (dropStale) {
+                String key = UserStore.emailKey(read((int) entry - 1).email);
+                if (key == null || hash(key) != (int) (entry >>> 32)) {
+                    continue;
+                }
+            }
+            insertEntry(rebuilt, (int) (entry >>> 32), (int) entry - 1);
+        }
+        return rebuilt;
+    }
+
+    // A copy of table without the entries for removed, and with those for moved pointing at
+    // removed instead.
+    private static AtomicLongArray renumber(AtomicLongArray table, int removed, int moved) {
+        AtomicLongArray rebuilt = new AtomicLongArray(table.length());
+        for (int i = 0; i < table.length(); i++) {
+            long entry = table.get(i);
+            if (entry == 0 || (int) entry - 1 == removed) {
+                continue;
+            }
+            insertEntry(rebuilt, (int) (entry >>> 32), (int) entry - 1 == moved ? removed : (int) entry - 1);
+        }
+        return rebuilt;
+    }
+
+    private static int countEntries(AtomicLongArray table) {
+        int count = 0;
+        for (int i = 0; i < table.length(); i++) {
+            if (table.get(i) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int roleCode(String role) {
+        String[] names = roles;
+        for (int code = 0; code < names.length; code++) {
+            if (names[code].equals(role)) {
+                return code;
+            }
+        }
+        if (names.length == MAX_ROLES) {
+            throw new IllegalStateException("Too many distinct roles (" + MAX_ROLES + ")");
+        }
+        Members[] lists = Arrays.copyOf(members, names.length + 1);
+        lists[names.length] = new Members();
+        members = lists;
+        names = Arrays.copyOf(names, names.length + 1);
+        names[names.length - 1] = role;
+        roles = names;
+        return names.length - 1;
+    }
+
+    // Returns the pointer to a copy of a blob: chunk index in the high word, offset in the low. A
+    // new chunk takes the first index a compaction has freed, so the array stays as long as the
+    // most chunks ever live at once.
+    private long allocate(byte[] bytes, int offset, int length) {
+        byte[][] current = chunks;
+        if (chunk < 0 || chunkUsed + length > current[chunk].length) {
+            int index = 0;
+            while (index < current.length && current[index] != null) {
+                index++;
+            }
+            current = Arrays.copyOf(current, Math.max(current.length, index + 1));
+            current[index] = new byte[Math.max(chunkSize, length)];
+            chunks = current;
+            chunk = index;
+            chunkUsed = 0;
+        }
+        System.arraycopy(bytes, offset, current[chunk], chunkUsed, length);
+        long pointer = ((long) chunk << 32) | chunkUsed;
+        chunkUsed += length;
+        liveBytes += length;
+        return pointer;
+    }
+
+    // Moves every live blob into fresh chunks, then retires the old ones.
+    private void compact() {
+        byte[][] before = chunks;
+        boolean[] retired = new boolean[before.length];
+        for (int i = 0; i < before.length; i++) {
+            retired[i] = before[i] != null;
+        }
+        chunk = -1;
+        liveBytes = 0;
+        for (int slot = 0; slot < size; slot++) {
+            AtomicLongArray page = pages[slot >>> PAGE_SHIFT];
+            long pointer = page.get(slot & (PAGE_SIZE - 1));
+            byte[] bytes = chunks[(int) (pointer >>> 32)];
+            int offset = (int) pointer;
+            page.set(slot & (PAGE_SIZE - 1), allocate(bytes, offset, blobLength(bytes, offset)));
+        }
+        byte[][] current = chunks.clone();
+        for (int i = 0; i < retired.length; i++) {
+            if (retired[i]) {
+                current[i] = null;
+            }
+        }
+        chunks = current;
+        garbageBytes = 0;
+        compactions++;
+    }
+
+    // The blob a slot points at, or null if the pointer moved while it was being looked up. Once a
+    // chunk index is reused a stale pointer can lead into the wrong chunk; the recheck catches that,
+    // and the bytes it returns were written before the pointer to them was published.
+    private byte[] chunkFor(AtomicLongArray page, int index, long pointer) {
+        byte[] bytes = chunks[(int) (pointer >>> 32)];
+        return bytes != null && page.get(index) == pointer ? bytes : null;
+    }
+
+    private UserRecord read(int slot) {
+        AtomicLongArray page = pages[slot >>> PAGE_SHIFT];
+        int index = slot & (PAGE_SIZE - 1);
+        while (true) {
+            long pointer = page.get(index);
+            byte[] bytes = chunkFor(page, index, pointer);
+            if (bytes != null) {
+                return decode(bytes, (int) pointer);
+            }
+        }
+    }
+
+    private String idAt(int slot) {
+        AtomicLongArray page = pages[slot >>> PAGE_SHIFT];
+        int index = slot & (PAGE_SIZE - 1);
+        while (true) {
+            long pointer = page.get(index);
+            byte[] bytes = chunkFor(page, index, pointer);
+            if (bytes != null) {
+                return new Cursor(bytes, (int) pointer + HEADER).string();
+            }
+        }
+    }
+
+    // Called under writeLock, where blobs cannot move.
+    private long versionAt(int slot) {
+        long pointer = pages[slot >>> PAGE_SHIFT].get(slot & (PAGE_SIZE - 1));
+        return new Cursor(chunks[(int) (pointer >>> 32)], (int) pointer).fixed64();
+    }
+
+    private UserRecord decode(byte[] bytes, int offset) {
+        Cursor in = new Cursor(bytes, offset);
+        long version = in.fixed64();
+        boolean active = bytes[in.position++] != 0;
+        String role = roles[bytes[in.position++] & 0xFF];
+        String id = in.string();
+        String name = in.parts(words, ' ');
+        String email = in.parts(words, '@');
+        String password = in.string();
+        return new UserRecord(id, name, email, password, role, active, version, version - in.varint());
+    }
+
+    private static int blobLength(byte[] bytes, int offset) {
+        Cursor in = new Cursor(bytes, offset + HEADER);
+        in.skipString();
+        in.skipParts();
+        in.skipParts();
+        in.skipString();
+        in.varint();
+        return in.position - offset;
+    }
+
+    // Leaves the blob for user in blob. A string is a varint of its UTF-8 length plus one, with
+    // zero standing for null. A name or email is the number of its parts plus one, zero for null,
+    // then each part as twice its inline UTF-8 length or twice its dictionary code plus one.
+    // Names split at every space and emails at their last '@', so joining the parts back with
+    // that separator restores the original exactly. The epoch is a varint of how far it lags the
+    // version, a single zero byte for most users. Called under writeLock.
+    private void encode(UserRecord user, int role) {
+        blob.reset();
+        long version = user.version;
+        for (int i = 0; i < 8; i++) {
+            blob.write((int) (version >>> (56 - 8 * i)));
+        }
+        blob.write(user.active ? 1 : 0);
+        blob.write(role);
+        writeString(user.id);
+        writeParts(user.name == null ? null : user.name.split(" ", -1), 0);
+        // The local part of an address is as unique as the address; only the domain recurs.
+        writeParts(user.email == null ? null : emailParts(user.email), 1);
+        writeString(user.password);
+        writeVarint((int) (user.version - user.epoch));
+    }
+
+    private static String[] emailParts(String email) {
+        int at = email.lastIndexOf('@');
+        return at < 0 ? new String[] {email} : new String[] {email.substring(0, at), email.substring(at + 1)};
+    }
+
+    private void writeString(String value) {
+        if (value == null) {
+            writeVarint(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length + 1);
+        blob.write(bytes, 0, bytes.length);
+    }
+
+    // Parts before firstCoded are always stored inline.
+    private void writeParts(String[] parts, int firstCoded) {
+        if (parts == null) {
+            writeVarint(0);
+            return;
+        }
+        writeVarint(parts.length + 1);
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i];
+            byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+            int code = i >= firstCoded && bytes.length >= MIN_CODED_BYTES ? words.code(part) : -1;
+            if (code >= 0) {
+                writeVarint(code * 2 + 1);
+            } else {
+                writeVarint(bytes.length * 2);
+                blob.write(bytes, 0, bytes.length);
+            }
+        }
+    }
+
+    private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            blob.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        blob.write(value);
+    }
+
+    private static int hash(String value) {
+        int h = value.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Cursor {
+        final byte[] bytes;
+        int position;
+
+        Cursor(byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        long fixed64() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (bytes[position++] & 0xFF);
+            }
+            return value;
+        }
+
+        int varint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[position++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        String string() {
+            int stored = varint();
+            if (stored == 0) {
+                return null;
+            }
+            String value = new String(bytes, position, stored - 1, StandardCharsets.UTF_8);
+            position += stored - 1;
+            return value;
+        }
+
+        void skipString() {
+            int stored = varint();
+            position += stored > 0 ? stored - 1 : 0;
+        }
+
+        // A value made of one coded part comes back as the dictionary's own string.
+        String parts(Dictionary words, char separator) {
+            int count = varint() - 1;
+            if (count < 0) {
+                return null;
+            }
+            String first = part(words);
+            if (count == 1) {
+                return first;
+            }
+            StringBuilder value = new StringBuilder(first);
+            for (int i = 1; i < count; i++) {
+                value.append(separator).append(part(words));
+            }
+            return value.toString();
+        }
+
+        private String part(Dictionary words) {
+            int stored = varint();
+            if ((stored & 1) != 0) {
+                return words.get(stored >>> 1);
+            }
+            String value = new String(bytes, position, stored >>> 1, StandardCharsets.UTF_8);
+            position += stored >>> 1;
+            return value;
+        }
+
+        void skipParts() {
+            for (int count = varint() - 1; count > 0; count--) {
+                int stored = varint();
+                if ((stored & 1) == 0) {
+                    position += stored >>> 1;
+                }
+            }
+        }
+    }
+
+    int chunkSlots() {
+        return chunks.length;
+    }
+
+    int dictionarySize() {
+        synchronized (writeLock) {
+            return words.size();
+        }
+    }
+
+    @Override
+    public String getStats() {
+        synchronized (writeLock) {
+            long tables = 8L * (ids.length() + emails.length()) + 8L * PAGE_SIZE * pages.length;
+            long arena = 0;
+            for (byte[] bytes : chunks) {
+                arena += bytes != null ? bytes.length : 0;
+            }
+            return String.format("CompactStore[users=%d, live=%dKB, garbage=%dKB, arena=%dKB, chunkSlots=%d, tables=%dKB, words=%d, compactions=%d]",
+                    size, liveBytes / 1024, garbageBytes / 1024, arena / 1024, chunks.length, tables / 1024,
+                    words.size(), compactions);
+        }
+    }
+}
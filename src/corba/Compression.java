@@ -0,0 +1,152 @@
+package corba;
+
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+final class Compression {
+    static final byte FLAG_DEFLATE = 0x01;
+    static final byte CAPABILITY_DEFLATE = 0x01;
+    static final int DEFAULT_THRESHOLD = 8 * 1024;
+
+    static final boolean ENABLED = !"off".equalsIgnoreCase(System.getProperty("simpleorb.compression", "on"));
+    static final int THRESHOLD = Integer.getInteger("simpleorb.compression.threshold", DEFAULT_THRESHOLD);
+    static final int LEVEL = Integer.getInteger("simpleorb.compression.level", Deflater.BEST_SPEED);
+    static final int POOL_SIZE = Integer.getInteger("simpleorb.compression.pool",
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private static final int CHUNK = 8 * 1024;
+
+    // Each thread keeps only the figures of its last operation. The zlib state, which lives off the
+    // heap, is borrowed from a small pool for one deflate or inflate at a time; a pair returned to
+    // a full pool is ended at once rather than left for finalization.
+    private static final ThreadLocal<Compression> CURRENT = ThreadLocal.withInitial(Compression::new);
+    private static final ArrayBlockingQueue<Zlib> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private static final class Zlib {
+        final Deflater deflater = new Deflater(LEVEL);
+        final Inflater inflater = new Inflater();
+        final byte[] chunk = new byte[CHUNK];
+
+        void end() {
+            deflater.end();
+            inflater.end();
+        }
+    }
+
+    long lastPayloadBytes;
+    long lastWireBytes;
+    long lastNanos;
+
+    private Compression() {
+    }
+
+    static Compression current() {
+        return CURRENT.get();
+    }
+
+    private static Zlib borrow() {
+        Zlib zlib = POOL.poll();
+        return zlib != null ? zlib : new Zlib();
+    }
+
+    private static void giveBack(Zlib zlib) {
+        if (!POOL.offer(zlib)) {
+            zlib.end();
+        }
+    }
+
+    // Ends the idle pairs; any in use go back to the pool when their operation finishes.
+    static void endPooled() {
+        Zlib zlib;
+        while ((zlib = POOL.poll()) != null) {
+            zlib.end();
+        }
+    }
+
+    static byte capabilities() {
+        return ENABLED ? CAPABILITY_DEFLATE : 0;
+    }
+
+    static boolean shouldCompress(boolean negotiated, int length) {
+        return negotiated && length >= THRESHOLD;
+    }
+
+    // Compressed payloads are the original length followed by the deflate stream, so the reader
+    // can size its buffer (and refuse oversized frames) before inflating anything. The result
+    // replaces whatever output held; its length is returned.
+    int deflate(byte[] payload, int length, FramedStream.ExposedByteArrayOutputStream output) {
+        long start = System.nanoTime();
+        output.reset();
+        output.write(length >>> 24);
+        output.write(length >>> 16);
+        output.write(length >>> 8);
+        output.write(length);
+        Zlib zlib = borrow();
+        try {
+            Deflater deflater = zlib.deflater;
+            deflater.reset();
+            deflater.setInput(payload, 0, length);
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(zlib.chunk);
+                output.write(zlib.chunk, 0, n);
+            }
+        } finally {
+            giveBack(zlib);
+        }
+        record(length, output.size(), System.nanoTime() - start);
+        return output.size();
+    }
+
+    void record(long payloadBytes, long wireBytes, long nanos) {
+        lastPayloadBytes = payloadBytes;
+        lastWireBytes = wireBytes;
+        lastNanos = nanos;
+    }
+
+    void clear() {
+        lastPayloadBytes = 0;
+        lastWireBytes = 0;
+        lastNanos = 0;
+    }
+
+    static int inflatedLength(byte[] src, int offset, int length) throws IOException {
+        if (length < 4) {
+            throw new StreamCorruptedException("Truncated compressed frame");
+        }
+        int original = ((src[offset] & 0xFF) << 24) | ((src[offset + 1] & 0xFF) << 16)
+                | ((src[offset + 2] & 0xFF) << 8) | (src[offset + 3] & 0xFF);
+        if (original < 0 || original > FramedStream.MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("Invalid compressed frame length: " + original);
+        }
+        return original;
+    }
+
+    void inflate(byte[] src, int offset, int length, byte[] dst, int original) throws IOException {
+        long start = System.nanoTime();
+        Zlib zlib = borrow();
+        Inflater inflater = zlib.inflater;
+        inflater.reset();
+        inflater.setInput(src, offset + 4, length - 4);
+        try {
+            int n = 0;
+            while (n < original) {
+                int inflated = inflater.inflate(dst, n, original - n);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflated;
+            }
+            if (n != original) {
+                throw new StreamCorruptedException("Compressed frame does not match its length");
+            }
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException("Corrupt compressed frame: " + e.getMessage());
+        } finally {
+            giveBack(zlib);
+        }
+        record(original, length, System.nanoTime() - start);
+    }
+}
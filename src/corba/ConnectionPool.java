@@ -0,0 +1,294 @@
+package corba;
+
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ConnectionPool {
+    public static final int DEFAULT_MAX_IDLE = 8;
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 60000;
+    public static final long DEFAULT_MAX_LIFETIME_MS = 30 * 60000;
+    public static final int SO_TIMEOUT_MS = 30000;
+
+    private static final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "SimpleORB-pool-evictor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String host;
+    private final int port;
+    private final int maxIdle;
+    private final long idleTimeoutMs;
+    private final long maxLifetimeMs;
+    private final int soTimeoutMs;
+    private final byte[] codecPreferences = WireCodec.defaultPreferences();
+    private final BlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final ScheduledFuture<?> evictionTask;
+    private volatile boolean closed = false;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong retired = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong retiredAgeTotalMs = new AtomicLong();
+    private final AtomicLong retiredAgeMaxMs = new AtomicLong();
+    private final AtomicLong retiredCallsTotal = new AtomicLong();
+    private final AtomicInteger inUse = new AtomicInteger();
+
+    public ConnectionPool(String host, int port) {
+        this(host, port, DEFAULT_MAX_IDLE, DEFAULT_IDLE_TIMEOUT_MS, DEFAULT_MAX_LIFETIME_MS);
+    }
+
+    public ConnectionPool(String host, int port, int maxIdle, long idleTimeoutMs, long maxLifetimeMs) {
+        this(host, port, maxIdle, idleTimeoutMs, maxLifetimeMs, SO_TIMEOUT_MS);
+    }
+
+    ConnectionPool(String host, int port, int maxIdle, long idleTimeoutMs, long maxLifetimeMs, int soTimeoutMs) {
+        this.host = host;
+        this.port = port;
+        this.maxIdle = maxIdle;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.maxLifetimeMs = maxLifetimeMs;
+        this.soTimeoutMs = soTimeoutMs;
+        long period = Math.max(1000, idleTimeoutMs / 2);
+        this.evictionTask = evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    PooledConnection acquire() throws IOException {
+        if (closed) {
+            throw new IOException("Connection pool closed: " + host + ":" + port);
+        }
+        long now = System.currentTimeMillis();
+        PooledConnection conn;
+        while ((conn = idle.pollFirst()) != null) {
+            if (conn.isUsable(now)) {
+                hits.incrementAndGet();
+                inUse.incrementAndGet();
+                return conn;
+            }
+            retire(conn, now);
+        }
+        misses.incrementAndGet();
+        conn = new PooledConnection(host, port);
+        created.incrementAndGet();
+        inUse.incrementAndGet();
+        return conn;
+    }
+
+    void release(PooledConnection conn, boolean reusable) {
+        inUse.decrementAndGet();
+        long now = System.currentTimeMillis();
+        conn.lastUsed = now;
+        if (reusable && !closed && conn.isUsable(now) && idle.size() < maxIdle) {
+            idle.offerFirst(conn);
+            if (closed && idle.remove(conn)) {
+                retire(conn, now);
+            }
+            return;
+        }
+        retire(conn, now);
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        for (PooledConnection conn : idle) {
+            if (!conn.isUsable(now) && idle.remove(conn)) {
+                evicted.incrementAndGet();
+                retire(conn, now);
+            }
+        }
+    }
+
+    // Drops idle connections that may predate a failure so the next call opens a fresh one.
+    void retireIdle() {
+        long now = System.currentTimeMillis();
+        PooledConnection conn;
+        while ((conn = idle.pollFirst()) != null) {
+            retire(conn, now);
+        }
+    }
+
+    // A fresh connection completing the handshake shows the server is accepting again; it is
+    // kept for the next call rather than thrown away.
+    boolean probe() {
+        if (closed) {
+            return false;
+        }
+        PooledConnection conn;
+        try {
+            conn = new PooledConnection(host, port);
+        } catch (IOException e) {
+            return false;
+        }
+        created.incrementAndGet();
+        inUse.incrementAndGet();
+        release(conn, true);
+        return true;
+    }
+
+    private void retire(PooledConnection conn, long now) {
+        long age = now - conn.createdAt;
+        retired.incrementAndGet();
+        retiredAgeTotalMs.addAndGet(age);
+        retiredCallsTotal.addAndGet(conn.calls);
+        long max;
+        while (age > (max = retiredAgeMaxMs.get()) && !retiredAgeMaxMs.compareAndSet(max, age)) {
+        }
+        conn.close();
+    }
+
+    public void close() {
+        closed = true;
+        evictionTask.cancel(false);
+        retireIdle();
+    }
+
+    public Stats getStats() {
+        long now = System.currentTimeMillis();
+        long oldestIdle = 0;
+        int idleCount = 0;
+        for (PooledConnection conn : idle) {
+            idleCount++;
+            oldestIdle = Math.max(oldestIdle, now - conn.createdAt);
+        }
+        long retiredCount = retired.get();
+        return new Stats(hits.get(), misses.get(), created.get(), retiredCount, evicted.get(),
+                idleCount, inUse.get(), oldestIdle,
+                retiredCount == 0 ? 0 : retiredAgeTotalMs.get() / retiredCount,
+                retiredAgeMaxMs.get(),
+                retiredCount == 0 ? 0 : (double) retiredCallsTotal.get() / retiredCount);
+    }
+
+    class PooledConnection {
+        final Socket socket;
+        final FramedStream stream;
+        final long createdAt;
+        volatile long lastUsed;
+        long calls;
+        boolean unsent;
+        boolean failedBeforeReply;
+
+        PooledConnection(String host, int port) throws IOException {
+            this.socket = new Socket(host, port);
+            boolean ok = false;
+            try {
+                socket.setSoTimeout(soTimeoutMs);
+                socket.setTcpNoDelay(true);
+                socket.setKeepAlive(true);
+                this.stream = FramedStream.connect(socket, codecPreferences);
+                ok = true;
+            } finally {
+                if (!ok) {
+                    socket.close();
+                }
+            }
+            this.createdAt = System.currentTimeMillis();
+            this.lastUsed = createdAt;
+        }
+
+        boolean isReused() {
+            return calls > 0;
+        }
+
+        boolean isUsable(long now) {
+            return !socket.isClosed()
+                    && now - lastUsed < idleTimeoutMs
+                    && now - createdAt < maxLifetimeMs;
+        }
+
+        // On failure, unsent means the write itself failed, so the server never had the whole
+        // frame and cannot have run it. failedBeforeReply means the peer closed or reset the
+        // connection before a single byte of the reply arrived. That is what a server dropping an
+        // idle connection looks like, but a server that fails mid-call looks the same. A read
+        // timeout is neither, since the server may still be running the request.
+        Object call(byte kind, Object body) throws IOException {
+            long id = ++calls;
+            unsent = false;
+            failedBeforeReply = false;
+            try {
+                stream.write(kind, id, body);
+            } catch (FramedStream.CodecException e) {
+                throw e;
+            } catch (IOException e) {
+                unsent = true;
+                failedBeforeReply = true;
+                throw e;
+            }
+            try {
+                stream.awaitFrame();
+            } catch (EOFException | SocketException e) {
+                failedBeforeReply = true;
+                throw e;
+            }
+            FramedStream.Frame reply = stream.read();
+            if (reply.correlationId != id) {
+                throw new StreamCorruptedException("Reply " + reply.correlationId + " does not match request " + id);
+            }
+            if (reply.kind == FramedStream.KIND_OVERLOADED) {
+                return new ServerOverloadedException(String.valueOf(reply.body));
+            }
+            return reply.body;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    public static class Stats {
+        public final long hits;
+        public final long misses;
+        public final long created;
+        public final long retired;
+        public final long evicted;
+        public final int idle;
+        public final int inUse;
+        public final long oldestIdleAgeMs;
+        public final long avgRetiredAgeMs;
+        public final long maxRetiredAgeMs;
+        public final double avgCallsPerConnection;
+
+        Stats(long hits, long misses, long created, long retired, long evicted, int idle, int inUse,
+              long oldestIdleAgeMs, long avgRetiredAgeMs, long maxRetiredAgeMs, double avgCallsPerConnection) {
+            this.hits = hits;
+            this.misses = misses;
+            this.created = created;
+            this.retired = retired;
+            this.evicted = evicted;
+            this.idle = idle;
+            this.inUse = inUse;
+            this.oldestIdleAgeMs = oldestIdleAgeMs;
+            this.avgRetiredAgeMs = avgRetiredAgeMs;
+            this.maxRetiredAgeMs = maxRetiredAgeMs;
+            this.avgCallsPerConnection = avgCallsPerConnection;
+        }
+
+        public double getHitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Pool[hits=%d, misses=%d, hitRate=%.2f, created=%d, retired=%d, evicted=%d, idle=%d, inUse=%d, "
+                            + "oldestIdleAge=%dms, avgRetiredAge=%dms, maxRetiredAge=%dms, avgCallsPerConnection=%.1f]",
+                    hits, misses, getHitRate(), created, retired, evicted, idle, inUse,
+                    oldestIdleAgeMs, avgRetiredAgeMs, maxRetiredAgeMs, avgCallsPerConnection);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package corba;
+
+import java.lang.reflect.Array;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.BaseStream;
+
+// Holds the iterators behind streamed results. A page is only produced when the client asks for
+// it, so a slow reader holds one iterator rather than a growing backlog, and cursors a client
+// abandoned are closed after IDLE_TIMEOUT_MS.
+public class CursorServant {
+    public static final int DEFAULT_PAGE_SIZE = 256;
+    public static final int MAX_PAGE_SIZE = 4096;
+    static final int MAX_OPEN_CURSORS = 1024;
+    static final long IDLE_TIMEOUT_MS = 60000;
+
+    private static final ScheduledExecutorService expirer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "SimpleORB-cursor-expiry");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Map<Long, OpenCursor> cursors = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final ScheduledFuture<?> expiryTask;
+
+    private static final class OpenCursor {
+        final Iterator<?> rows;
+        final AutoCloseable resource;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        OpenCursor(Iterator<?> rows, AutoCloseable resource) {
+            this.rows = rows;
+            this.resource = resource;
+        }
+
+        void close() {
+            if (resource != null) {
+                try {
+                    resource.close();
+                } catch (Exception e) {
+                }
+            }
+        }
+    }
+
+    CursorServant() {
+        long period = IDLE_TIMEOUT_MS / 4;
+        this.expiryTask = expirer.scheduleWithFixedDelay(this::expireIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    static boolean isStreamed(Object result) {
+        return result instanceof Iterator || result instanceof BaseStream;
+    }
+
+    static void discard(Object result) {
+        if (result instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) result).close();
+            } catch (Exception e) {
+            }
+        }
+    }
+
+    Object open(Object result) {
+        OpenCursor cursor = result instanceof BaseStream
+                ? new OpenCursor(((BaseStream<?, ?>) result).iterator(), (BaseStream<?, ?>) result)
+                : new OpenCursor((Iterator<?>) result, result instanceof AutoCloseable ? (AutoCloseable) result : null);
+        if (cursors.size() >= MAX_OPEN_CURSORS) {
+            expireIdle();
+            if (cursors.size() >= MAX_OPEN_CURSORS) {
+                cursor.close();
+                return new Exception("Too many open cursors (" + MAX_OPEN_CURSORS + ")");
+            }
+        }
+        long id = nextId.incrementAndGet();
+        cursors.put(id, cursor);
+        opened.incrementAndGet();
+        return page(id, cursor, DEFAULT_PAGE_SIZE);
+    }
+
+    public ResultPage next(long cursorId, int pageSize) throws Exception {
+        OpenCursor cursor = cursors.get(cursorId);
+        if (cursor == null) {
+            throw new Exception("Cursor not found or expired: " + cursorId);
+        }
+        return page(cursorId, cursor, Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE)));
+    }
+
+    public boolean close(long cursorId) {
+        OpenCursor cursor = cursors.remove(cursorId);
+        if (cursor == null) {
+            return false;
+        }
+        cursor.close();
+        return true;
+    }
+
+    public String getStats() {
+        return String.format("Cursors[open=%d, opened=%d, expired=%d]", cursors.size(), opened.get(), expired.get());
+    }
+
+    private ResultPage page(long cursorId, OpenCursor cursor, int pageSize) {
+        Object[] rows = new Object[pageSize];
+        int count = 0;
+        boolean last;
+        synchronized (cursor) {
+            cursor.lastUsed = System.currentTimeMillis();
+            while (count < pageSize && cursor.rows.hasNext()) {
+                rows[count++] = cursor.rows.next();
+            }
+            last = !cursor.rows.hasNext();
+        }
+        if (last) {
+            close(cursorId);
+        }
+        return new ResultPage(cursorId, typed(rows, count), last);
+    }
+
+    // Rows of one registered type travel as a typed array, which the binary codec writes without
+    // a tag per element; the client then sees UserData[] pages rather than Object[].
+    private static Object[] typed(Object[] rows, int count) {
+        Class<?> type = count > 0 && rows[0] != null ? rows[0].getClass() : null;
+        for (int i = 1; i < count && type != null; i++) {
+            if (rows[i] == null || rows[i].getClass() != type) {
+                type = null;
+            }
+        }
+        Object[] page = type != null ? (Object[]) Array.newInstance(type, count) : new Object[count];
+        System.arraycopy(rows, 0, page, 0, count);
+        return page;
+    }
+
+    private void expireIdle() {
+        long cutoff = System.currentTimeMillis() - IDLE_TIMEOUT_MS;
+        for (Map.Entry<Long, OpenCursor> entry : cursors.entrySet()) {
+            if (entry.getValue().lastUsed < cutoff && close(entry.getKey())) {
+                expired.incrementAndGet();
+            }
+        }
+    }
+
+    void shutdown() {
+        expiryTask.cancel(false);
+        for (Long id : cursors.keySet()) {
+            close(id);
+        }
+    }
+}
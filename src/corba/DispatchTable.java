@@ -0,0 +1,226 @@
+package corba;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+class DispatchTable {
+    private static final MethodType SPREAD_TYPE = MethodType.methodType(Object.class, Object[].class);
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private final Object servant;
+    private final Map<String, Overloads[]> methods;
+
+    static final class Invoker {
+        final Method method;
+        final Class<?>[] paramTypes;
+        final boolean[] primitive;
+        final MethodHandle handle;
+
+        Invoker(Method method, MethodHandle handle) {
+            Class<?>[] declared = method.getParameterTypes();
+            this.method = method;
+            this.paramTypes = new Class<?>[declared.length];
+            this.primitive = new boolean[declared.length];
+            for (int i = 0; i < declared.length; i++) {
+                paramTypes[i] = box(declared[i]);
+                primitive[i] = declared[i].isPrimitive();
+            }
+            this.handle = handle;
+        }
+
+        boolean accepts(Object[] args) {
+            for (int i = 0; i < paramTypes.length; i++) {
+                Object arg = args[i];
+                if (arg == null) {
+                    if (primitive[i]) {
+                        return false;
+                    }
+                } else if (!paramTypes[i].isInstance(arg)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        Object invoke(Object[] args) throws Throwable {
+            return (Object) handle.invokeExact(args);
+        }
+    }
+
+    private static final class Overloads {
+        final Invoker[] candidates;
+        final Map<Signature, Invoker> resolved = new ConcurrentHashMap<>();
+
+        Overloads(Invoker[] candidates) {
+            this.candidates = candidates;
+        }
+
+        Invoker resolve(Object[] args) {
+            if (candidates.length == 1) {
+                Invoker only = candidates[0];
+                return only.accepts(args) ? only : null;
+            }
+            Signature signature = new Signature(args);
+            Invoker invoker = resolved.get(signature);
+            if (invoker == null) {
+                for (Invoker candidate : candidates) {
+                    if (candidate.accepts(args)) {
+                        invoker = candidate;
+                        break;
+                    }
+                }
+                if (invoker == null) {
+                    return null;
+                }
+                resolved.put(signature, invoker);
+            }
+            return invoker;
+        }
+    }
+
+    private static final class Signature {
+        final Class<?>[] types;
+        final int hash;
+
+        Signature(Object[] args) {
+            types = new Class<?>[args.length];
+            for (int i = 0; i < args.length; i++) {
+                types[i] = args[i] == null ? null : args[i].getClass();
+            }
+            hash = Arrays.hashCode(types);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Signature && Arrays.equals(types, ((Signature) o).types);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    DispatchTable(Object servant) {
+        this.servant = servant;
+        Map<String, List<List<Invoker>>> byName = new HashMap<>();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (Method method : servant.getClass().getMethods()) {
+            if (method.getDeclaringClass() == Object.class || Modifier.isStatic(method.getModifiers())
+                    || isOrbHook(servant, method)) {
+                continue;
+            }
+            MethodHandle handle;
+            try {
+                method.setAccessible(true);
+                handle = lookup.unreflect(method)
+                        .bindTo(servant)
+                        .asSpreader(Object[].class, method.getParameterCount())
+                        .asType(SPREAD_TYPE);
+            } catch (IllegalAccessException | RuntimeException e) {
+                continue;
+            }
+            List<List<Invoker>> byArity = byName.computeIfAbsent(method.getName(), k -> new ArrayList<>());
+            while (byArity.size() <= method.getParameterCount()) {
+                byArity.add(new ArrayList<>());
+            }
+            byArity.get(method.getParameterCount()).add(new Invoker(method, handle));
+        }
+
+        Map<String, Overloads[]> table = new HashMap<>();
+        for (Map.Entry<String, List<List<Invoker>>> entry : byName.entrySet()) {
+            List<List<Invoker>> byArity = entry.getValue();
+            Overloads[] overloads = new Overloads[byArity.size()];
+            for (int arity = 0; arity < overloads.length; arity++) {
+                List<Invoker> candidates = byArity.get(arity);
+                if (!candidates.isEmpty()) {
+                    candidates.sort(DispatchTable::mostSpecificFirst);
+                    overloads[arity] = new Overloads(candidates.toArray(new Invoker[0]));
+                }
+            }
+            table.put(entry.getKey(), overloads);
+        }
+        this.methods = table;
+    }
+
+    // Callbacks the ORB uses to wire up a servant are public only because interface methods must
+    // be; a client calling setInvalidationListener(null) would silence every near cache.
+    private static boolean isOrbHook(Object servant, Method method) {
+        if (!(servant instanceof InvalidatingServant)) {
+            return false;
+        }
+        for (Method hook : InvalidatingServant.class.getMethods()) {
+            if (hook.getName().equals(method.getName())
+                    && Arrays.equals(hook.getParameterTypes(), method.getParameterTypes())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    Object getServant() {
+        return servant;
+    }
+
+    Set<String> getMethodNames() {
+        return Collections.unmodifiableSet(methods.keySet());
+    }
+
+    Invoker lookup(String methodName, Object[] args) {
+        Overloads[] byArity = methods.get(methodName);
+        if (byArity == null || args.length >= byArity.length || byArity[args.length] == null) {
+            return null;
+        }
+        return byArity[args.length].resolve(args);
+    }
+
+    Object invoke(String methodName, Object[] args) {
+        if (args == null) {
+            args = NO_ARGS;
+        }
+        Invoker invoker = lookup(methodName, args);
+        if (invoker == null) {
+            return new Exception("Method not found or incompatible parameters: " + methodName);
+        }
+        try {
+            return invoker.invoke(args);
+        } catch (Exception e) {
+            return e;
+        } catch (Throwable t) {
+            return new Exception(t.toString(), t);
+        }
+    }
+
+    // Overloads are tried in order, so a parameter list that is assignable to another
+    // (e.g. String before Object) must come first to keep resolution deterministic.
+    private static int mostSpecificFirst(Invoker a, Invoker b) {
+        boolean aFitsB = true;
+        boolean bFitsA = true;
+        for (int i = 0; i < a.paramTypes.length; i++) {
+            aFitsB &= b.paramTypes[i].isAssignableFrom(a.paramTypes[i]);
+            bFitsA &= a.paramTypes[i].isAssignableFrom(b.paramTypes[i]);
+        }
+        if (aFitsB == bFitsA) {
+            return a.method.toString().compareTo(b.method.toString());
+        }
+        return aFitsB ? -1 : 1;
+    }
+
+    private static Class<?> box(Class<?> type) {
+        if (!type.isPrimitive()) return type;
+        if (type == boolean.class) return Boolean.class;
+        if (type == int.class) return Integer.class;
+        if (type == long.class) return Long.class;
+        if (type == double.class) return Double.class;
+        if (type == float.class) return Float.class;
+        if (type == byte.class) return Byte.class;
+        if (type == short.class) return Short.class;
+        if (type == char.class) return Character.class;
+        return type;
+    }
+}
@@ -0,0 +1,75 @@
+package corba;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public final class EncodedReply<T> {
+    private static final int MAX_CODEC_ID = 8;
+
+    private final T value;
+    private static final byte[] INCOMPRESSIBLE = new byte[0];
+
+    private final AtomicReferenceArray<byte[]> encoded = new AtomicReferenceArray<>(MAX_CODEC_ID);
+    private final AtomicReferenceArray<byte[]> compressed = new AtomicReferenceArray<>(MAX_CODEC_ID);
+
+    public EncodedReply(T value) {
+        this.value = value;
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+    // Encoded lazily per codec and then reused for every connection that negotiated that codec;
+    // two threads racing on the first encode produce identical bytes, so either copy may win.
+    byte[] encode(WireCodec codec) throws IOException {
+        int id = codec.id();
+        if (id < 0 || id >= MAX_CODEC_ID) {
+            return encodeValue(codec);
+        }
+        byte[] bytes = encoded.get(id);
+        if (bytes == null) {
+            bytes = encodeValue(codec);
+            encoded.compareAndSet(id, null, bytes);
+        }
+        return bytes;
+    }
+
+    // The deflated form is cached next to the plain one, so a large shared reply is compressed
+    // once rather than on every call; later hits are recorded with no compression time.
+    byte[] encodeCompressed(WireCodec codec) throws IOException {
+        byte[] plain = encode(codec);
+        int id = codec.id();
+        byte[] bytes = id >= 0 && id < MAX_CODEC_ID ? compressed.get(id) : null;
+        if (bytes == null) {
+            Compression compression = Compression.current();
+            FramedStream.ExposedByteArrayOutputStream output =
+                    new FramedStream.ExposedByteArrayOutputStream(plain.length / 2 + 64);
+            int length = compression.deflate(plain, plain.length, output);
+            bytes = length < plain.length ? Arrays.copyOf(output.buffer(), length) : INCOMPRESSIBLE;
+            if (id >= 0 && id < MAX_CODEC_ID) {
+                compressed.compareAndSet(id, null, bytes);
+            }
+        } else if (bytes != INCOMPRESSIBLE) {
+            Compression.current().record(plain.length, bytes.length, 0);
+        }
+        if (bytes == INCOMPRESSIBLE) {
+            Compression.current().clear();
+            return null;
+        }
+        return bytes;
+    }
+
+    private byte[] encodeValue(WireCodec codec) throws IOException {
+        FramedStream.ExposedByteArrayOutputStream bytes = new FramedStream.ExposedByteArrayOutputStream(1024);
+        DataOutputStream data = new DataOutputStream(bytes);
+        codec.encode(value, data);
+        data.flush();
+        return bytes.toByteArray();
+    }
+
+    static Object unwrap(Object result) {
+        return result instanceof EncodedReply ? ((EncodedReply<?>) result).getValue() : result;
+    }
+}
@@ -0,0 +1,95 @@
+package corba;
+
+public class ExecutionStrategy {
+    public enum Mode { BOUNDED, VIRTUAL }
+
+    private final Mode mode;
+    private final int threads;
+    private final int queueCapacity;
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final boolean adaptive;
+
+    private ExecutionStrategy(Mode mode, int threads, int queueCapacity,
+                              int initialLimit, int minLimit, int maxLimit, boolean adaptive) {
+        if (threads < 1 || queueCapacity < 0 || minLimit < 1 || minLimit > maxLimit) {
+            throw new IllegalArgumentException("Invalid execution strategy settings");
+        }
+        this.mode = mode;
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.initialLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.adaptive = adaptive;
+    }
+
+    public static ExecutionStrategy defaults() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return bounded(Math.max(4, cores * 2), 1024);
+    }
+
+    public static ExecutionStrategy bounded(int threads, int queueCapacity) {
+        int maxLimit = threads + queueCapacity;
+        return new ExecutionStrategy(Mode.BOUNDED, threads, queueCapacity,
+                Math.min(maxLimit, threads * 4), Math.min(maxLimit, threads), maxLimit, true);
+    }
+
+    public static ExecutionStrategy virtualThreads(int maxConcurrency) {
+        return new ExecutionStrategy(Mode.VIRTUAL, 1, 0,
+                Math.min(maxConcurrency, 256), Math.min(maxConcurrency, 16), maxConcurrency, true);
+    }
+
+    public ExecutionStrategy withFixedLimit() {
+        return new ExecutionStrategy(mode, threads, queueCapacity, maxLimit, maxLimit, maxLimit, false);
+    }
+
+    public ExecutionStrategy withLimits(int initialLimit, int minLimit, int maxLimit) {
+        return new ExecutionStrategy(mode, threads, queueCapacity, initialLimit, minLimit, maxLimit, adaptive);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public static ExecutionStrategy fromSystemProperties() {
+        String mode = System.getProperty("simpleorb.executor", "bounded");
+        int cores = Runtime.getRuntime().availableProcessors();
+        if ("virtual".equalsIgnoreCase(mode)) {
+            return virtualThreads(Integer.getInteger("simpleorb.maxConcurrency", 10000));
+        }
+        return bounded(Integer.getInteger("simpleorb.threads", Math.max(4, cores * 2)),
+                Integer.getInteger("simpleorb.queue", 1024));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ExecutionStrategy[mode=%s, threads=%d, queue=%d, limit=%d..%d, adaptive=%s]",
+                mode, threads, queueCapacity, minLimit, maxLimit, adaptive);
+    }
+}
@@ -0,0 +1,298 @@
+package corba;
+
+import java.io.*;
+import java.net.*;
+import java.util.Arrays;
+
+class FramedStream {
+    static final int MAGIC = 0x534F5242;
+    static final byte VERSION = 3;
+    static final int HEADER_LENGTH = 14;
+    static final int KIND_OFFSET = 4;
+    static final int FLAGS_OFFSET = 5;
+    static final int CORRELATION_OFFSET = 6;
+    static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    static final byte KIND_REQUEST = 1;
+    static final byte KIND_REPLY = 2;
+    static final byte KIND_OVERLOADED = 3;
+    static final byte KIND_BATCH = 4;
+    static final byte KIND_SUBSCRIBE = 5;
+    static final byte KIND_INVALIDATE = 6;
+
+    static boolean isRequestKind(byte kind) {
+        return kind == KIND_REQUEST || kind == KIND_BATCH || kind == KIND_SUBSCRIBE;
+    }
+
+    static class Frame {
+        final byte kind;
+        final byte flags;
+        final long correlationId;
+        final Object body;
+        final int length;
+
+        Frame(byte kind, byte flags, long correlationId, Object body, int length) {
+            this.kind = kind;
+            this.flags = flags;
+            this.correlationId = correlationId;
+            this.body = body;
+            this.length = length;
+        }
+    }
+
+    static class CodecException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        CodecException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        ExposedByteArrayOutputStream(int size) {
+            super(size);
+        }
+
+        @Override
+        public void write(int b) {
+            if (count == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (count + len > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + len));
+            }
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    static class ByteArrayInput extends InputStream {
+        private byte[] buf;
+        private int pos;
+        private int limit;
+
+        void reset(byte[] buf, int offset, int length) {
+            this.buf = buf;
+            this.pos = offset;
+            this.limit = offset + length;
+        }
+
+        @Override
+        public int read() {
+            return pos < limit ? buf[pos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (pos >= limit) {
+                return -1;
+            }
+            int n = Math.min(len, limit - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - pos;
+        }
+    }
+
+    static final class Encoder {
+        private final ExposedByteArrayOutputStream bytes = new ExposedByteArrayOutputStream(256);
+        private final DataOutputStream data = new DataOutputStream(bytes);
+        private final ExposedByteArrayOutputStream deflated = new ExposedByteArrayOutputStream(256);
+        byte[] payload;
+        int length;
+        byte flags;
+
+        void encode(WireCodec codec, Object body, boolean compress) throws IOException {
+            Compression compression = Compression.current();
+            compression.clear();
+            flags = 0;
+            if (body instanceof EncodedReply) {
+                EncodedReply<?> reply = (EncodedReply<?>) body;
+                payload = reply.encode(codec);
+                length = payload.length;
+                if (Compression.shouldCompress(compress, length)) {
+                    byte[] compressed = reply.encodeCompressed(codec);
+                    if (compressed != null) {
+                        payload = compressed;
+                        length = compressed.length;
+                        flags = Compression.FLAG_DEFLATE;
+                    }
+                }
+                return;
+            }
+            bytes.reset();
+            codec.encode(body, data);
+            data.flush();
+            payload = bytes.buffer();
+            length = bytes.size();
+            if (Compression.shouldCompress(compress, length)) {
+                int compressed = compression.deflate(payload, length, deflated);
+                if (compressed < length) {
+                    payload = deflated.buffer();
+                    length = compressed;
+                    flags = Compression.FLAG_DEFLATE;
+                } else {
+                    compression.clear();
+                }
+            }
+        }
+    }
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final WireCodec codec;
+    private final boolean compress;
+    private final Encoder encoder = new Encoder();
+    private byte[] readBuffer = new byte[256];
+    private byte[] inflateBuffer;
+    private final ByteArrayInput readInput = new ByteArrayInput();
+    private final DataInputStream readData = new DataInputStream(readInput);
+
+    private FramedStream(DataInputStream in, DataOutputStream out, WireCodec codec, boolean compress) {
+        this.in = in;
+        this.out = out;
+        this.codec = codec;
+        this.compress = compress;
+    }
+
+    static FramedStream connect(Socket socket, byte[] codecPreferences) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(codecPreferences.length);
+        out.write(codecPreferences);
+        out.writeByte(Compression.capabilities());
+        out.flush();
+
+        if (in.readInt() != MAGIC) {
+            throw new StreamCorruptedException("Peer is not a SimpleORB endpoint");
+        }
+        WireCodec codec = WireCodec.forId(in.readByte());
+        if (codec == null) {
+            throw new IOException("Server supports none of the requested codecs");
+        }
+        byte accepted = in.readByte();
+        return new FramedStream(in, out, codec, (accepted & Compression.CAPABILITY_DEFLATE) != 0);
+    }
+
+    static FramedStream accept(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        if (in.readInt() != MAGIC) {
+            throw new StreamCorruptedException("Client did not send the SimpleORB handshake");
+        }
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new StreamCorruptedException("Unsupported protocol version: " + version);
+        }
+        byte[] preferences = new byte[in.readUnsignedByte()];
+        in.readFully(preferences);
+        byte accepted = (byte) (in.readByte() & Compression.capabilities());
+
+        WireCodec codec = negotiate(preferences);
+        out.writeInt(MAGIC);
+        out.writeByte(codec != null ? codec.id() : 0);
+        out.writeByte(accepted);
+        out.flush();
+        if (codec == null) {
+            throw new IOException("Client requested no supported codec");
+        }
+        return new FramedStream(in, out, codec, (accepted & Compression.CAPABILITY_DEFLATE) != 0);
+    }
+
+    static WireCodec negotiate(byte[] preferences) {
+        for (byte id : preferences) {
+            WireCodec codec = WireCodec.forId(id);
+            if (codec != null) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    WireCodec getCodec() {
+        return codec;
+    }
+
+    int write(byte kind, long correlationId, Object body) throws IOException {
+        return write(kind, (byte) 0, correlationId, body);
+    }
+
+    synchronized int write(byte kind, byte flags, long correlationId, Object body) throws IOException {
+        try {
+            encoder.encode(codec, body, compress);
+        } catch (IOException | RuntimeException e) {
+            throw new CodecException("Unable to encode " + describe(body) + ": " + e.getMessage(), e);
+        }
+        out.writeInt(encoder.length);
+        out.writeByte(kind);
+        out.writeByte(flags | encoder.flags);
+        out.writeLong(correlationId);
+        out.write(encoder.payload, 0, encoder.length);
+        out.flush();
+        return HEADER_LENGTH + encoder.length;
+    }
+
+    static boolean isCompressed(byte flags, boolean negotiated) throws IOException {
+        if ((flags & ~Compression.FLAG_DEFLATE) != 0 || (flags != 0 && !negotiated)) {
+            throw new StreamCorruptedException("Unsupported frame flags: " + flags);
+        }
+        return flags != 0;
+    }
+
+    static String describe(Object body) {
+        body = EncodedReply.unwrap(body);
+        return body == null ? "null" : body.getClass().getName();
+    }
+
+    // Blocks until the first byte of the next frame is buffered, without consuming it.
+    void awaitFrame() throws IOException {
+        in.mark(1);
+        if (in.read() < 0) {
+            throw new EOFException("Connection closed before the next frame");
+        }
+        in.reset();
+    }
+
+    Frame read() throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("Invalid frame length: " + length);
+        }
+        byte kind = in.readByte();
+        byte flags = in.readByte();
+        long correlationId = in.readLong();
+        if (readBuffer.length < length) {
+            readBuffer = new byte[Math.max(length, readBuffer.length * 2)];
+        }
+        in.readFully(readBuffer, 0, length);
+        Compression.current().clear();
+        if (isCompressed(flags, compress)) {
+            int original = Compression.inflatedLength(readBuffer, 0, length);
+            if (inflateBuffer == null || inflateBuffer.length < original) {
+                inflateBuffer = new byte[Math.max(original, readBuffer.length)];
+            }
+            Compression.current().inflate(readBuffer, 0, length, inflateBuffer, original);
+            readInput.reset(inflateBuffer, 0, original);
+        } else {
+            readInput.reset(readBuffer, 0, length);
+        }
+        Object body = codec.decode(readData);
+        return new Frame(kind, flags, correlationId, body, HEADER_LENGTH + length);
+    }
+}
@@ -0,0 +1,155 @@
+package corba;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// One UserRecord object per user in a ConcurrentHashMap, with the email and role indexes kept
+// alongside as maps of ids. The fastest reads, at a few hundred bytes of headers, references and
+// separate strings per user.
+final class HeapUserStore implements UserStore {
+    private static final int LOCK_STRIPES = 64;
+
+    private final Map<String, UserRecord> users = new ConcurrentHashMap<>();
+    // An email is claimed with putIfAbsent before the record that carries it is swapped in, so
+    // lookups confirm the claim against the record they find.
+    private final Map<String, String> byEmail = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byRole = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    HeapUserStore() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    private Object lockFor(String id) {
+        int h = id.hashCode();
+        return locks[(h ^ (h >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+    @Override
+    public UserRecord get(String id) {
+        return users.get(id);
+    }
+
+    @Override
+    public UserRecord getByEmail(String key) {
+        String id = byEmail.get(key);
+        UserRecord user = id != null ? users.get(id) : null;
+        return user != null && key.equals(UserStore.emailKey(user.email)) ? user : null;
+    }
+
+    @Override
+    public Iterator<UserRecord> withRole(String role) {
+        Set<String> members = byRole.get(role);
+        if (members == null) {
+            return Collections.emptyIterator();
+        }
+        return members.stream().map(users::get).filter(Objects::nonNull).iterator();
+    }
+
+    @Override
+    public Iterator<UserRecord> iterator() {
+        return users.values().iterator();
+    }
+
+    @Override
+    public int size() {
+        return users.size();
+    }
+
+    // The email is claimed before the id, so of two registrations racing for one address exactly
+    // one wins; the loser releases only what it claimed.
+    @Override
+    public Result insert(UserRecord user) {
+        String key = UserStore.emailKey(user.email);
+        if (key != null && byEmail.putIfAbsent(key, user.id) != null) {
+            return Result.EMAIL_TAKEN;
+        }
+        if (users.putIfAbsent(user.id, user) != null) {
+            if (key != null) {
+                byEmail.remove(key, user.id);
+            }
+            return Result.EXISTS;
+        }
+        byRole.computeIfAbsent(user.role, role -> ConcurrentHashMap.newKeySet()).add(user.id);
+        return Result.OK;
+    }
+
+    // Changes to one user are serialized on its stripe, so a claim on the new address is made and
+    // released by the same change and never shared with a concurrent one. An address already
+    // mapped to this user means current is stale (or a registration reusing the id is backing its
+    // claim out); either way the caller re-reads and retries.
+    @Override
+    public Result replace(UserRecord current, UserRecord next) {
+        String oldKey = UserStore.emailKey(current.email);
+        String newKey = UserStore.emailKey(next.email);
+        boolean claim = newKey != null && !newKey.equals(oldKey);
+        synchronized (lockFor(next.id)) {
+            if (claim) {
+                String holder = byEmail.putIfAbsent(newKey, next.id);
+                if (holder != null) {
+                    return holder.equals(next.id) ? Result.CONFLICT : Result.EMAIL_TAKEN;
+                }
+            }
+            if (!users.replace(current.id, current, next)) {
+                if (claim) {
+                    byEmail.remove(newKey, next.id);
+                }
+                return Result.CONFLICT;
+            }
+            if (oldKey != null && !oldKey.equals(newKey)) {
+                byEmail.remove(oldKey, current.id);
+            }
+        }
+        return Result.OK;
+    }
+
+    @Override
+    public boolean remove(UserRecord user) {
+        synchronized (lockFor(user.id)) {
+            UserRecord current = users.get(user.id);
+            if (current == null || current.version != user.version || !users.remove(user.id, current)) {
+                return false;
+            }
+            String key = UserStore.emailKey(current.email);
+            if (key != null) {
+                byEmail.remove(key, current.id);
+            }
+            Set<String> members = byRole.get(current.role);
+            if (members != null) {
+                members.remove(current.id);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public void restore(UserRecord user) {
+        UserRecord current = users.get(user.id);
+        if (current != null && current.version >= user.version) {
+            return;
+        }
+        users.put(user.id, user);
+        if (current != null) {
+            String key = UserStore.emailKey(current.email);
+            if (key != null) {
+                byEmail.remove(key, current.id);
+            }
+            Set<String> members = byRole.get(current.role);
+            if (members != null) {
+                members.remove(current.id);
+            }
+        }
+        String key = UserStore.emailKey(user.email);
+        if (key != null) {
+            byEmail.put(key, user.id);
+        }
+        byRole.computeIfAbsent(user.role, role -> ConcurrentHashMap.newKeySet()).add(user.id);
+    }
+
+    @Override
+    public String getStats() {
+        return String.format("HeapStore[users=%d]", users.size());
+    }
+}
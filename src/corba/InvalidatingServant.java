@@ -0,0 +1,7 @@
+package corba;
+
+import java.util.function.Consumer;
+
+public interface InvalidatingServant {
+    void setInvalidationListener(Consumer<Object> listener);
+}
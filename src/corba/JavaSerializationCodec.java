@@ -0,0 +1,33 @@
+package corba;
+
+import java.io.*;
+
+class JavaSerializationCodec implements WireCodec {
+    static final JavaSerializationCodec INSTANCE = new JavaSerializationCodec();
+
+    @Override
+    public byte id() {
+        return JAVA_SERIALIZATION;
+    }
+
+    @Override
+    public String name() {
+        return "java";
+    }
+
+    @Override
+    public void encode(Object value, DataOutputStream out) throws IOException {
+        ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.writeObject(value);
+        oos.flush();
+    }
+
+    @Override
+    public Object decode(DataInputStream in) throws IOException {
+        try {
+            return new ObjectInputStream(in).readObject();
+        } catch (ClassNotFoundException e) {
+            throw new InvalidClassException(e.getMessage());
+        }
+    }
+}
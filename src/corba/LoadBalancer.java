@@ -0,0 +1,322 @@
+package corba;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import common.EventLog;
+
+public class LoadBalancer {
+    private static final EventLog LOG = EventLog.forSource("SimpleORB");
+    static final long HEALTH_CHECK_INTERVAL_MS = 1000;
+    static final int FAILURES_TO_EJECT = 3;
+    static final long BASE_EJECTION_MS = 1000;
+    static final long MAX_EJECTION_MS = 30000;
+    static final double SLOW_FACTOR = 3.0;
+    static final long SLOW_FLOOR_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    static final int MIN_SAMPLES = 20;
+
+    private static final ScheduledExecutorService healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "SimpleORB-health-check");
+        t.setDaemon(true);
+        return t;
+    });
+
+    enum Outcome { SUCCESS, OVERLOADED, FAILURE }
+
+    private final List<Node> nodes;
+    private final ScheduledFuture<?> healthCheck;
+
+    LoadBalancer(List<Node> nodes) {
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        this.healthCheck = nodes.size() > 1
+                ? healthChecker.scheduleWithFixedDelay(this::check, HEALTH_CHECK_INTERVAL_MS, HEALTH_CHECK_INTERVAL_MS,
+                        TimeUnit.MILLISECONDS)
+                : null;
+    }
+
+    static final class Node {
+        final ConnectionPool pool;
+        volatile MultiplexedConnection mux;
+        volatile MultiplexedConnection subscription;
+
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final AtomicLong latencyNanos = new AtomicLong();
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong overloaded = new AtomicLong();
+        private volatile long samples;
+        private volatile long ejectedUntil;
+        private volatile int backoff;
+        private long ejections;
+
+        Node(ConnectionPool pool) {
+            this.pool = pool;
+        }
+
+        boolean isEjected() {
+            return ejectedUntil != 0;
+        }
+
+        @Override
+        public String toString() {
+            return pool.getHost() + ":" + pool.getPort();
+        }
+    }
+
+    List<Node> nodes() {
+        return nodes;
+    }
+
+    // Power of two choices: the less loaded of two random healthy nodes, which tracks the least
+    // loaded node closely without every client piling onto the same one. If every node has been
+    // ejected they are all tried anyway, since failing fast helps nobody; a retry, which passes
+    // the node it is moving away from, only ever goes to a healthy node.
+    Node choose(Node exclude) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Node first = null;
+        Node second = null;
+        int candidates = 0;
+        for (Node node : nodes) {
+            if (node == exclude || node.isEjected()) {
+                continue;
+            }
+            candidates++;
+            if (candidates == 1) {
+                first = node;
+            } else if (candidates == 2) {
+                second = node;
+            } else {
+                int slot = random.nextInt(candidates);
+                if (slot == 0) {
+                    first = node;
+                } else if (slot == 1) {
+                    second = node;
+                }
+            }
+        }
+        if (first == null) {
+            return exclude == null ? leastOutstanding() : null;
+        }
+        if (second == null) {
+            return first;
+        }
+        int a = first.outstanding.get();
+        int b = second.outstanding.get();
+        if (a == b) {
+            return random.nextBoolean() ? first : second;
+        }
+        return a < b ? first : second;
+    }
+
+    private Node leastOutstanding() {
+        Node best = null;
+        for (Node node : nodes) {
+            if (best == null || node.outstanding.get() < best.outstanding.get()) {
+                best = node;
+            }
+        }
+        return best;
+    }
+
+    long begin(Node node) {
+        node.outstanding.incrementAndGet();
+        node.calls.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    void end(Node node, long start, Outcome outcome) {
+        node.outstanding.decrementAndGet();
+        if (outcome == Outcome.FAILURE) {
+            recordFailure(node);
+            return;
+        }
+        node.consecutiveFailures.set(0);
+        if (outcome == Outcome.OVERLOADED) {
+            // A rejection is fast by design and must not make the node look attractive.
+            node.overloaded.incrementAndGet();
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        node.latencyNanos.accumulateAndGet(elapsed, (old, sample) -> old == 0 ? sample : old + (sample - old) / 8);
+        node.samples++;
+    }
+
+    void recordFailure(Node node) {
+        node.failures.incrementAndGet();
+        if (node.consecutiveFailures.incrementAndGet() >= FAILURES_TO_EJECT) {
+            eject(node, "failed " + FAILURES_TO_EJECT + " calls in a row");
+        }
+    }
+
+    static Outcome outcome(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof ServerOverloadedException) {
+            return Outcome.OVERLOADED;
+        }
+        if ((error instanceof IOException && !(error instanceof FramedStream.CodecException))
+                || error instanceof TimeoutException) {
+            return Outcome.FAILURE;
+        }
+        return Outcome.SUCCESS;
+    }
+
+    boolean isEjected(Node node) {
+        return node.isEjected();
+    }
+
+    private synchronized void eject(Node node, String reason) {
+        if (nodes.size() < 2 || node.isEjected()) {
+            return;
+        }
+        long period = scheduleProbe(node);
+        node.ejections++;
+        node.pool.retireIdle();
+        LOG.warn("node.ejected", "node", node, "periodMs", period, "reason", reason);
+    }
+
+    // Ejected nodes come back once a fresh connection handshakes; healthy ones are compared
+    // against the median so one node that has become much slower than its peers stops taking
+    // traffic, but never more than half of the nodes are ejected for being slow.
+    void check() {
+        long now = System.currentTimeMillis();
+        List<Node> healthy = new ArrayList<>();
+        for (Node node : nodes) {
+            if (!node.isEjected()) {
+                healthy.add(node);
+            } else if (now >= node.ejectedUntil) {
+                probe(node);
+            }
+        }
+        List<Long> latencies = new ArrayList<>();
+        for (Node node : healthy) {
+            if (node.samples >= MIN_SAMPLES) {
+                latencies.add(node.latencyNanos.get());
+            }
+        }
+        if (latencies.size() < 2) {
+            resetBackoff(healthy);
+            return;
+        }
+        Collections.sort(latencies);
+        long median = latencies.get((latencies.size() - 1) / 2);
+        for (Node node : healthy) {
+            long latency = node.latencyNanos.get();
+            if (node.samples >= MIN_SAMPLES && latency > SLOW_FLOOR_NANOS && latency > SLOW_FACTOR * median
+                    && ejectedCount() < nodes.size() / 2) {
+                eject(node, String.format("latency %dus against a median of %dus", latency / 1000, median / 1000));
+            }
+        }
+        resetBackoff(healthy);
+    }
+
+    private synchronized void resetBackoff(List<Node> healthy) {
+        for (Node node : healthy) {
+            if (!node.isEjected() && node.samples >= MIN_SAMPLES) {
+                node.backoff = 0;
+            }
+        }
+    }
+
+    private void probe(Node node) {
+        if (node.pool.probe()) {
+            synchronized (this) {
+                node.consecutiveFailures.set(0);
+                node.latencyNanos.set(medianLatency());
+                node.samples = 0;
+                node.ejectedUntil = 0;
+            }
+            LOG.info("node.restored", "node", node);
+        } else {
+            synchronized (this) {
+                scheduleProbe(node);
+            }
+        }
+    }
+
+    // Each ejection or failed probe doubles the wait, up to MAX_EJECTION_MS, until the node has
+    // served MIN_SAMPLES calls since it was restored without being ejected again.
+    private long scheduleProbe(Node node) {
+        long period = Math.min(MAX_EJECTION_MS, BASE_EJECTION_MS << Math.min(node.backoff, 5));
+        node.backoff++;
+        node.ejectedUntil = System.currentTimeMillis() + period;
+        return period;
+    }
+
+    private synchronized int ejectedCount() {
+        int count = 0;
+        for (Node node : nodes) {
+            if (node.isEjected()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private long medianLatency() {
+        List<Long> latencies = new ArrayList<>();
+        for (Node node : nodes) {
+            if (!node.isEjected() && node.samples > 0) {
+                latencies.add(node.latencyNanos.get());
+            }
+        }
+        if (latencies.isEmpty()) {
+            return 0;
+        }
+        Collections.sort(latencies);
+        return latencies.get((latencies.size() - 1) / 2);
+    }
+
+    void close() {
+        if (healthCheck != null) {
+            healthCheck.cancel(false);
+        }
+    }
+
+    List<Stats> getStats() {
+        List<Stats> stats = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            long ejections;
+            synchronized (this) {
+                ejections = node.ejections;
+            }
+            stats.add(new Stats(node.toString(), node.isEjected(), node.outstanding.get(), node.calls.get(),
+                    node.failures.get(), node.overloaded.get(), ejections, node.latencyNanos.get() / 1000));
+        }
+        return stats;
+    }
+
+    public static class Stats {
+        public final String endpoint;
+        public final boolean ejected;
+        public final int outstanding;
+        public final long calls;
+        public final long failures;
+        public final long overloaded;
+        public final long ejections;
+        public final long latencyMicros;
+
+        Stats(String endpoint, boolean ejected, int outstanding, long calls, long failures, long overloaded,
+              long ejections, long latencyMicros) {
+            this.endpoint = endpoint;
+            this.ejected = ejected;
+            this.outstanding = outstanding;
+            this.calls = calls;
+            this.failures = failures;
+            this.overloaded = overloaded;
+            this.ejections = ejections;
+            this.latencyMicros = latencyMicros;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Node[%s, state=%s, outstanding=%d, calls=%d, failures=%d, overloaded=%d, ejections=%d, latency=%dus]",
+                    endpoint, ejected ? "ejected" : "healthy", outstanding, calls, failures, overloaded, ejections,
+                    latencyMicros);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package corba;
+
+import java.util.ArrayList;
+import common.EventLog;
+import common.MethodSnapshot;
+
+public class MetricsServant {
+    private final SimpleORB orb;
+
+    MetricsServant(SimpleORB orb) {
+        this.orb = orb;
+    }
+
+    public String report() {
+        StringBuilder report = new StringBuilder(orb.getMetrics().getReport());
+        report.append(orb.getExecutorStats()).append(System.lineSeparator());
+        report.append(orb.getCursorStats()).append(System.lineSeparator());
+        report.append(EventLog.getStats()).append(System.lineSeparator());
+        String transport = orb.getTransportStats();
+        if (transport != null) {
+            report.append(transport).append(System.lineSeparator());
+        }
+        return report.toString();
+    }
+
+    public ArrayList<MethodSnapshot> snapshot() {
+        return new ArrayList<>(orb.getMetrics().getMethods());
+    }
+
+    public boolean reset() {
+        orb.getMetrics().reset();
+        return true;
+    }
+}
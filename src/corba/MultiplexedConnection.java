@@ -0,0 +1,140 @@
+package corba;
+
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+class MultiplexedConnection {
+    static final long DEFAULT_CALL_TIMEOUT_MS = 30000;
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "SimpleORB-call-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Socket socket;
+    private final FramedStream stream;
+    private final ConcurrentHashMap<Long, CompletableFuture<Object>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final long callTimeoutMs;
+    private volatile Consumer<Object> pushListener;
+    private volatile boolean closed = false;
+
+    MultiplexedConnection(String host, int port, long callTimeoutMs) throws IOException {
+        this.callTimeoutMs = callTimeoutMs;
+        this.socket = new Socket(host, port);
+        boolean ok = false;
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            this.stream = FramedStream.connect(socket, WireCodec.defaultPreferences());
+            ok = true;
+        } finally {
+            if (!ok) {
+                socket.close();
+            }
+        }
+        Thread reader = new Thread(this::readLoop, "SimpleORB-mux-" + host + ":" + port);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    boolean isOpen() {
+        return !closed;
+    }
+
+    void setPushListener(Consumer<Object> listener) {
+        this.pushListener = listener;
+    }
+
+    int getPendingCount() {
+        return pending.size();
+    }
+
+    CompletableFuture<Object> send(byte kind, Object body, String description) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new IOException("Connection closed"));
+            return future;
+        }
+        long id = nextId.incrementAndGet();
+        pending.put(id, future);
+        if (closed && pending.remove(id) != null) {
+            future.completeExceptionally(new IOException("Connection closed"));
+            return future;
+        }
+        try {
+            stream.write(kind, id, body);
+        } catch (FramedStream.CodecException e) {
+            pending.remove(id);
+            future.completeExceptionally(e);
+            return future;
+        } catch (IOException e) {
+            pending.remove(id);
+            future.completeExceptionally(e);
+            close(e);
+            return future;
+        }
+        ScheduledFuture<?> timeout = timer.schedule(() -> {
+            if (pending.remove(id) != null) {
+                future.completeExceptionally(new TimeoutException(
+                        "No reply to " + description + " within " + callTimeoutMs + "ms"));
+            }
+        }, callTimeoutMs, TimeUnit.MILLISECONDS);
+        future.whenComplete((r, e) -> timeout.cancel(false));
+        return future;
+    }
+
+    private void readLoop() {
+        try {
+            while (!closed) {
+                FramedStream.Frame reply = stream.read();
+                Object result = reply.body;
+                if (reply.kind == FramedStream.KIND_INVALIDATE) {
+                    Consumer<Object> listener = pushListener;
+                    if (listener != null) {
+                        listener.accept(result);
+                    }
+                    continue;
+                }
+                CompletableFuture<Object> future = pending.remove(reply.correlationId);
+                if (future == null) {
+                    continue;
+                }
+                if (reply.kind == FramedStream.KIND_OVERLOADED) {
+                    future.completeExceptionally(new ServerOverloadedException(String.valueOf(result)));
+                } else if (result instanceof Exception) {
+                    future.completeExceptionally((Exception) result);
+                } else {
+                    future.complete(result);
+                }
+            }
+        } catch (Exception e) {
+            close(e);
+        }
+    }
+
+    void close() {
+        close(new IOException("Connection closed"));
+    }
+
+    private void close(Exception cause) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException e) {
+        }
+        for (Long id : pending.keySet()) {
+            CompletableFuture<Object> future = pending.remove(id);
+            if (future != null) {
+                future.completeExceptionally(cause);
+            }
+        }
+    }
+}
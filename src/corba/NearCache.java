@@ -0,0 +1,195 @@
+package corba;
+
+import java.util.*;
+
+public class NearCache {
+    static final Object MISS = new Object();
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Set<String> cacheableMethods;
+    private final LinkedHashMap<Key, Cached> entries;
+    private final Map<Object, Set<Key>> byFirstArg = new HashMap<>();
+    private final Set<Key> noArgs = new HashSet<>();
+    private long epoch;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private long invalidations;
+
+    private static final class Key {
+        final String method;
+        final Object[] args;
+        final int hash;
+
+        Key(String method, Object[] args) {
+            this.method = method;
+            this.args = args;
+            this.hash = 31 * method.hashCode() + Arrays.deepHashCode(args);
+        }
+
+        Object firstArg() {
+            return args[0];
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && method.equals(other.method) && Arrays.deepEquals(args, other.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Cached {
+        final Object value;
+        final long expiresAt;
+
+        Cached(Object value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    NearCache(int maxEntries, long ttlMillis, Collection<String> cacheableMethods) {
+        if (maxEntries < 1 || ttlMillis < 1) {
+            throw new IllegalArgumentException("Near cache size and TTL must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1000000L;
+        this.cacheableMethods = new HashSet<>(cacheableMethods);
+        this.entries = new LinkedHashMap<Key, Cached>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Cached> eldest) {
+                if (size() <= NearCache.this.maxEntries) {
+                    return false;
+                }
+                unindex(eldest.getKey());
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    boolean isCacheable(String method) {
+        return cacheableMethods.contains(method);
+    }
+
+    synchronized Object get(String method, Object[] args) {
+        Key key = new Key(method, args);
+        Cached cached = entries.get(key);
+        if (cached == null) {
+            misses++;
+            return MISS;
+        }
+        if (System.nanoTime() - cached.expiresAt > 0) {
+            entries.remove(key);
+            unindex(key);
+            expirations++;
+            misses++;
+            return MISS;
+        }
+        hits++;
+        return cached.value;
+    }
+
+    synchronized long epoch() {
+        return epoch;
+    }
+
+    // A reply is only stored if no invalidation arrived since the request was sent; otherwise the
+    // server may have answered before a write whose invalidation we already processed.
+    synchronized void put(String method, Object[] args, Object value, long requestEpoch) {
+        if (requestEpoch != epoch) {
+            return;
+        }
+        Key key = new Key(method, args.clone());
+        if (entries.put(key, new Cached(value, System.nanoTime() + ttlNanos)) == null) {
+            if (key.args.length == 0) {
+                noArgs.add(key);
+            } else {
+                byFirstArg.computeIfAbsent(key.firstArg(), k -> new HashSet<>()).add(key);
+            }
+        }
+    }
+
+    // Drops every call whose first argument is the invalidated key, plus all no-argument calls,
+    // since those (e.g. list-everything reads) may include the changed entity.
+    synchronized void invalidate(Object invalidatedKey) {
+        epoch++;
+        invalidations++;
+        Set<Key> keys = byFirstArg.remove(invalidatedKey);
+        if (keys != null) {
+            for (Key key : keys) {
+                entries.remove(key);
+            }
+        }
+        for (Key key : noArgs) {
+            entries.remove(key);
+        }
+        noArgs.clear();
+    }
+
+    synchronized void clear() {
+        epoch++;
+        entries.clear();
+        byFirstArg.clear();
+        noArgs.clear();
+    }
+
+    private void unindex(Key key) {
+        if (key.args.length == 0) {
+            noArgs.remove(key);
+            return;
+        }
+        Set<Key> keys = byFirstArg.get(key.firstArg());
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            byFirstArg.remove(key.firstArg());
+        }
+    }
+
+    synchronized Stats getStats() {
+        return new Stats(hits, misses, evictions, expirations, invalidations, entries.size(), maxEntries);
+    }
+
+    public static class Stats {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final long expirations;
+        public final long invalidations;
+        public final int size;
+        public final int maxSize;
+
+        Stats(long hits, long misses, long evictions, long expirations, long invalidations, int size, int maxSize) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.expirations = expirations;
+            this.invalidations = invalidations;
+            this.size = size;
+            this.maxSize = maxSize;
+        }
+
+        public double getHitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("NearCache[hits=%d, misses=%d, hitRate=%.2f, evictions=%d, expirations=%d, invalidations=%d, size=%d/%d]",
+                    hits, misses, getHitRate(), evictions, expirations, invalidations, size, maxSize);
+        }
+    }
+}
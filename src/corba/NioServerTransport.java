@@ -0,0 +1,545 @@
+package corba;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import common.EventLog;
+import common.MethodMetrics;
+import common.ThreadAllocation;
+
+class NioServerTransport {
+    private static final EventLog LOG = EventLog.forSource("SimpleORB");
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 256;
+    private static final long IDLE_SCAN_INTERVAL_MS = 5000;
+    // A connection whose queued replies pass the high-water mark stops being read until they
+    // drain below the low one, so a client that does not read cannot make the server buffer
+    // without bound.
+    private static final int WRITE_HIGH_WATER = 1024 * 1024;
+    private static final int WRITE_LOW_WATER = 256 * 1024;
+
+    private static final ThreadLocal<FramedStream.Encoder> ENCODER = ThreadLocal.withInitial(FramedStream.Encoder::new);
+
+    private final SimpleORB orb;
+    private final ServerSocketChannel serverChannel;
+    private final IoLoop[] loops;
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+    private volatile boolean running = true;
+
+    NioServerTransport(SimpleORB orb, int port, int ioThreads) throws IOException {
+        this.orb = orb;
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        this.loops = new IoLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            loops[i] = new IoLoop(i);
+        }
+    }
+
+    int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    void run() {
+        for (IoLoop loop : loops) {
+            Thread t = new Thread(loop, "SimpleORB-io-" + loop.index);
+            t.setDaemon(true);
+            t.start();
+        }
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                loops[next++ % loops.length].register(channel);
+            } catch (IOException e) {
+                if (running) {
+                    LOG.error("accept.failed", "error", e.getMessage());
+                }
+            }
+        }
+    }
+
+    void shutdown() {
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+        }
+        for (IoLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+    }
+
+    private final class IoLoop implements Runnable {
+        final int index;
+        final Selector selector;
+        final Queue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+        final Queue<Connection> writeInterest = new ConcurrentLinkedQueue<>();
+        final ByteBuffer readBuffer = bufferPool.acquire();
+        final FramedStream.ByteArrayInput input = new FramedStream.ByteArrayInput();
+        final DataInputStream data = new DataInputStream(input);
+        byte[] scratch = new byte[1024];
+        byte[] inflated = new byte[1024];
+        long lastIdleScan = System.currentTimeMillis();
+
+        IoLoop(int index) throws IOException {
+            this.index = index;
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            registrations.add(channel);
+            selector.wakeup();
+        }
+
+        void requestWrite(Connection conn) {
+            writeInterest.add(conn);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select(1000);
+                    SocketChannel channel;
+                    while ((channel = registrations.poll()) != null) {
+                        Connection conn = new Connection(this, channel);
+                        conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+                        openConnections.incrementAndGet();
+                    }
+                    Connection pending;
+                    while ((pending = writeInterest.poll()) != null) {
+                        pending.updateInterest();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection conn = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable()) {
+                                conn.flush();
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                read(conn);
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            conn.close();
+                        }
+                    }
+                    closeIdle();
+                } catch (IOException e) {
+                    if (running) {
+                        LOG.error("selector.failed", "error", e.getMessage());
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                ((Connection) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+            }
+        }
+
+        private void closeIdle() {
+            long now = System.currentTimeMillis();
+            if (now - lastIdleScan < IDLE_SCAN_INTERVAL_MS) {
+                return;
+            }
+            lastIdleScan = now;
+            for (SelectionKey key : selector.keys()) {
+                Connection conn = (Connection) key.attachment();
+                if (now - conn.lastActivity > SimpleORB.CONNECTION_IDLE_TIMEOUT_MS) {
+                    conn.close();
+                }
+            }
+        }
+
+        // Unparsed bytes are read into the connection's pooled buffer, which then holds at most
+        // the head of one frame; a frame too large for it has its body read into pooled chunks as
+        // the bytes arrive, so memory follows what a client sends rather than what it announces.
+        private void read(Connection conn) throws IOException {
+            if (conn.large != null) {
+                readLarge(conn);
+                return;
+            }
+            ByteBuffer dst = conn.partial;
+            if (dst == null) {
+                dst = readBuffer;
+                dst.clear();
+            }
+            int n = conn.channel.read(dst);
+            if (n < 0) {
+                conn.close();
+                return;
+            }
+            if (n == 0) {
+                return;
+            }
+            conn.lastActivity = System.currentTimeMillis();
+            dst.flip();
+            parse(conn, dst);
+            if (conn.key == null || !conn.key.isValid()) {
+                return;
+            }
+
+            if (!dst.hasRemaining()) {
+                if (dst == conn.partial) {
+                    bufferPool.release(conn.partial);
+                    conn.partial = null;
+                }
+            } else if (dst == conn.partial) {
+                conn.partial.compact();
+            } else {
+                conn.partial = bufferPool.acquire();
+                conn.partial.put(dst);
+            }
+        }
+
+        private void readLarge(Connection conn) throws IOException {
+            LargeFrame frame = conn.large;
+            ByteBuffer chunk = frame.chunks.isEmpty() ? null : frame.chunks.get(frame.chunks.size() - 1);
+            if (chunk == null || !chunk.hasRemaining()) {
+                chunk = bufferPool.acquire();
+                chunk.limit(Math.min(chunk.capacity(), frame.length - frame.received));
+                frame.chunks.add(chunk);
+            }
+            int n = conn.channel.read(chunk);
+            if (n <= 0) {
+                if (n < 0) {
+                    conn.close();
+                }
+                return;
+            }
+            conn.lastActivity = System.currentTimeMillis();
+            frame.received += n;
+            if (frame.received == frame.length) {
+                conn.large = null;
+                byte[] body = ensureScratch(frame.length);
+                int offset = 0;
+                for (ByteBuffer filled : frame.chunks) {
+                    filled.flip();
+                    int length = filled.remaining();
+                    filled.get(body, offset, length);
+                    offset += length;
+                    bufferPool.release(filled);
+                }
+                frame(conn, frame.kind, frame.flags, frame.correlationId, frame.length);
+            }
+        }
+
+        private byte[] ensureScratch(int length) {
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            return scratch;
+        }
+
+        private void parse(Connection conn, ByteBuffer src) throws IOException {
+            if (conn.codec == null && !handshake(conn, src)) {
+                return;
+            }
+            while (src.remaining() >= FramedStream.HEADER_LENGTH) {
+                int pos = src.position();
+                int length = src.getInt(pos);
+                if (length < 0 || length > FramedStream.MAX_FRAME_LENGTH) {
+                    throw new StreamCorruptedException("Invalid frame length: " + length);
+                }
+                byte kind = src.get(pos + FramedStream.KIND_OFFSET);
+                if (!FramedStream.isRequestKind(kind)) {
+                    throw new StreamCorruptedException("Unexpected frame kind: " + kind);
+                }
+                byte flags = src.get(pos + FramedStream.FLAGS_OFFSET);
+                long correlationId = src.getLong(pos + FramedStream.CORRELATION_OFFSET);
+                if (FramedStream.HEADER_LENGTH + length > bufferPool.getBufferSize()) {
+                    // Whatever of the body this read brought in starts the first chunk; the rest
+                    // is read straight into further chunks.
+                    src.position(pos + FramedStream.HEADER_LENGTH);
+                    LargeFrame frame = new LargeFrame(kind, flags, correlationId, length);
+                    ByteBuffer chunk = bufferPool.acquire();
+                    chunk.limit(Math.min(chunk.capacity(), length));
+                    chunk.put(src);
+                    frame.chunks.add(chunk);
+                    frame.received = chunk.position();
+                    conn.large = frame;
+                    return;
+                }
+                if (src.remaining() < FramedStream.HEADER_LENGTH + length) {
+                    return;
+                }
+                src.position(pos + FramedStream.HEADER_LENGTH);
+                src.get(ensureScratch(length), 0, length);
+                frame(conn, kind, flags, correlationId, length);
+            }
+        }
+
+        // Decodes and dispatches a frame whose body is in scratch.
+        private void frame(Connection conn, byte kind, byte flags, long correlationId, int length) throws IOException {
+            long received = System.nanoTime();
+            long allocated = ThreadAllocation.currentThreadAllocatedBytes();
+            Compression compression = Compression.current();
+            compression.clear();
+            if (FramedStream.isCompressed(flags, conn.compress)) {
+                int original = Compression.inflatedLength(scratch, 0, length);
+                if (inflated.length < original) {
+                    inflated = new byte[Math.max(original, inflated.length * 2)];
+                }
+                compression.inflate(scratch, 0, length, inflated, original);
+                input.reset(inflated, 0, original);
+            } else {
+                input.reset(scratch, 0, length);
+            }
+            Object body = conn.codec.decode(data);
+            allocated = ThreadAllocation.currentThreadAllocatedBytes() - allocated;
+            if (kind == FramedStream.KIND_SUBSCRIBE) {
+                conn.sendReply(FramedStream.KIND_REPLY, correlationId, orb.subscribe(body, conn.subscriber));
+                return;
+            }
+            submit(conn, kind, correlationId, body, FramedStream.HEADER_LENGTH + length, received, allocated,
+                    compression.lastPayloadBytes, compression.lastWireBytes, compression.lastNanos);
+        }
+
+        private boolean handshake(Connection conn, ByteBuffer src) throws IOException {
+            if (src.remaining() < 6) {
+                return false;
+            }
+            int pos = src.position();
+            if (src.getInt(pos) != FramedStream.MAGIC) {
+                throw new StreamCorruptedException("Client did not send the SimpleORB handshake");
+            }
+            if (src.get(pos + 4) != FramedStream.VERSION) {
+                throw new StreamCorruptedException("Unsupported protocol version: " + src.get(pos + 4));
+            }
+            int count = src.get(pos + 5) & 0xFF;
+            if (src.remaining() < 7 + count) {
+                return false;
+            }
+            byte[] preferences = new byte[count];
+            src.position(pos + 6);
+            src.get(preferences);
+            byte accepted = (byte) (src.get() & Compression.capabilities());
+            WireCodec codec = FramedStream.negotiate(preferences);
+
+            ByteBuffer reply = ByteBuffer.allocate(6);
+            reply.putInt(FramedStream.MAGIC).put(codec != null ? codec.id() : 0).put(accepted).flip();
+            if (codec == null) {
+                conn.closeAfterFlush = true;
+            }
+            conn.write(reply);
+            conn.compress = (accepted & Compression.CAPABILITY_DEFLATE) != 0;
+            conn.codec = codec;
+            return codec != null;
+        }
+    }
+
+    private void submit(Connection conn, byte kind, long correlationId, Object body, int bytesIn, long received,
+                        long decodeAllocated, long inflatedBytes, long compressedBytes, long inflateNanos) {
+        if (!orb.submitRequest(complete -> {
+            long allocated = ThreadAllocation.currentThreadAllocatedBytes();
+            Object result = orb.dispatchFrame(kind, body);
+            complete.run();
+            int bytesOut = conn.sendReply(FramedStream.KIND_REPLY, correlationId, result);
+            allocated = ThreadAllocation.currentThreadAllocatedBytes() - allocated + decodeAllocated;
+            MethodMetrics metrics = orb.metricsFor(kind, body);
+            if (metrics != null) {
+                metrics.record(System.nanoTime() - received, result instanceof Exception, bytesIn, bytesOut, allocated);
+                SimpleORB.recordCompression(metrics, inflatedBytes, compressedBytes, inflateNanos);
+            }
+        })) {
+            conn.sendReply(FramedStream.KIND_OVERLOADED, correlationId, SimpleORB.OVERLOADED_MESSAGE);
+        }
+    }
+
+    // A request body too large for one pooled buffer, collected chunk by chunk.
+    private static final class LargeFrame {
+        final byte kind;
+        final byte flags;
+        final long correlationId;
+        final int length;
+        final List<ByteBuffer> chunks = new ArrayList<>();
+        int received;
+
+        LargeFrame(byte kind, byte flags, long correlationId, int length) {
+            this.kind = kind;
+            this.flags = flags;
+            this.correlationId = correlationId;
+            this.length = length;
+        }
+    }
+
+    private final class Connection {
+        final IoLoop loop;
+        final SocketChannel channel;
+        final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>();
+        final SimpleORB.Subscriber subscriber = invalidation -> {
+            sendReply(FramedStream.KIND_INVALIDATE, 0, invalidation);
+            return !isClosed();
+        };
+        SelectionKey key;
+        volatile WireCodec codec;
+        volatile boolean compress;
+        ByteBuffer partial;
+        LargeFrame large;
+        int queuedBytes;
+        boolean readsPaused;
+        volatile long lastActivity = System.currentTimeMillis();
+        boolean closeAfterFlush;
+        boolean closed;
+
+        Connection(IoLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        int sendReply(byte kind, long correlationId, Object result) {
+            FramedStream.Encoder encoder = ENCODER.get();
+            try {
+                encoder.encode(codec, result, compress);
+            } catch (IOException | RuntimeException e) {
+                try {
+                    encoder.encode(codec, new Exception("Unable to encode "
+                            + FramedStream.describe(result) + ": " + e.getMessage()), compress);
+                } catch (IOException ex) {
+                    close();
+                    return 0;
+                }
+            }
+            int length = encoder.length;
+            ByteBuffer first = bufferPool.acquire();
+            first.putInt(length).put(kind).put(encoder.flags).putLong(correlationId);
+            int inline = Math.min(length, first.remaining());
+            first.put(encoder.payload, 0, inline).flip();
+            if (inline == length) {
+                write(first);
+            } else {
+                write(first, ByteBuffer.wrap(encoder.payload, inline, length - inline));
+            }
+            return FramedStream.HEADER_LENGTH + length;
+        }
+
+        // Small frames go out as one pooled buffer; a large payload follows its first chunk in a
+        // gathering write. Whatever the socket does not take is queued in pooled buffers owned by
+        // this connection, since the caller's encode buffer is reused as soon as we return.
+        synchronized void write(ByteBuffer... buffers) {
+            if (closed) {
+                release(buffers);
+                return;
+            }
+            try {
+                boolean idle = writeQueue.isEmpty();
+                if (idle) {
+                    channel.write(buffers);
+                }
+                for (ByteBuffer buffer : buffers) {
+                    if (!buffer.hasRemaining()) {
+                        bufferPool.release(buffer);
+                    } else if (buffer.isDirect() && buffer.capacity() == bufferPool.getBufferSize()) {
+                        queuedBytes += buffer.remaining();
+                        writeQueue.add(buffer);
+                    } else {
+                        queuedBytes += buffer.remaining();
+                        while (buffer.hasRemaining()) {
+                            ByteBuffer chunk = bufferPool.acquire();
+                            int n = Math.min(chunk.remaining(), buffer.remaining());
+                            int limit = buffer.limit();
+                            buffer.limit(buffer.position() + n);
+                            chunk.put(buffer).flip();
+                            buffer.limit(limit);
+                            writeQueue.add(chunk);
+                        }
+                    }
+                }
+                if (writeQueue.isEmpty()) {
+                    if (closeAfterFlush) {
+                        close();
+                    }
+                } else if (idle) {
+                    readsPaused = queuedBytes > WRITE_HIGH_WATER;
+                    loop.requestWrite(this);
+                } else if (!readsPaused && queuedBytes > WRITE_HIGH_WATER) {
+                    readsPaused = true;
+                    loop.requestWrite(this);
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        synchronized void flush() throws IOException {
+            ByteBuffer head;
+            while ((head = writeQueue.peek()) != null) {
+                queuedBytes -= channel.write(head);
+                if (head.hasRemaining()) {
+                    if (readsPaused && queuedBytes <= WRITE_LOW_WATER) {
+                        readsPaused = false;
+                        updateInterest();
+                    }
+                    return;
+                }
+                bufferPool.release(writeQueue.poll());
+            }
+            readsPaused = false;
+            key.interestOps(SelectionKey.OP_READ);
+            if (closeAfterFlush) {
+                close();
+            }
+        }
+
+        // Called on the I/O loop only.
+        synchronized void updateInterest() {
+            if (key.isValid()) {
+                int ops = readsPaused ? 0 : SelectionKey.OP_READ;
+                key.interestOps(writeQueue.isEmpty() ? ops : ops | SelectionKey.OP_WRITE);
+            }
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            orb.unsubscribe(subscriber);
+            ByteBuffer queued;
+            while ((queued = writeQueue.poll()) != null) {
+                bufferPool.release(queued);
+            }
+            queuedBytes = 0;
+            // The I/O loop may still be reading into these, so they are left to the collector.
+            partial = null;
+            large = null;
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+            openConnections.decrementAndGet();
+        }
+
+        private void release(ByteBuffer[] buffers) {
+            for (ByteBuffer buffer : buffers) {
+                bufferPool.release(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package corba;
+
+import java.util.*;
+
+// host:port[,host:port...]:serviceName - every endpoint serves the same servant, over a store
+// they all share when the servant keeps state.
+public final class ObjectReference {
+    private final List<Endpoint> endpoints;
+    private final String serviceName;
+
+    public ObjectReference(String host, int port, String serviceName) {
+        this(Collections.singletonList(new Endpoint(host, port)), serviceName);
+    }
+
+    public ObjectReference(List<Endpoint> endpoints, String serviceName) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("An object reference needs at least one endpoint");
+        }
+        this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+        this.serviceName = serviceName;
+    }
+
+    public static ObjectReference parse(String reference) {
+        String ref = reference.trim();
+        int separator = ref.lastIndexOf(':');
+        if (separator <= 0 || separator == ref.length() - 1) {
+            throw new IllegalArgumentException("Invalid object reference '" + reference
+                    + "', expected host:port[,host:port...]:serviceName");
+        }
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (String endpoint : ref.substring(0, separator).split(",")) {
+            endpoints.add(Endpoint.parse(endpoint));
+        }
+        return new ObjectReference(endpoints, ref.substring(separator + 1));
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Endpoint endpoint : endpoints) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(endpoint);
+        }
+        return sb.append(':').append(serviceName).toString();
+    }
+
+    public static final class Endpoint {
+        public final String host;
+        public final int port;
+
+        public Endpoint(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        public static Endpoint parse(String endpoint) {
+            String value = endpoint.trim();
+            int separator = value.lastIndexOf(':');
+            try {
+                if (separator > 0) {
+                    int port = Integer.parseInt(value.substring(separator + 1));
+                    if (port > 0 && port <= 65535) {
+                        return new Endpoint(value.substring(0, separator), port);
+                    }
+                }
+            } catch (NumberFormatException e) {
+            }
+            throw new IllegalArgumentException("Invalid endpoint '" + endpoint + "', expected host:port");
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Endpoint)) {
+                return false;
+            }
+            Endpoint other = (Endpoint) o;
+            return port == other.port && host.equals(other.host);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * host.hashCode() + port;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package corba;
+
+public class OrbException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final String remoteType;
+
+    public OrbException(String remoteType, String message) {
+        super(message);
+        this.remoteType = remoteType;
+    }
+
+    public String getRemoteType() {
+        return remoteType;
+    }
+
+    @Override
+    public String toString() {
+        String message = getLocalizedMessage();
+        return remoteType + (message != null ? ": " + message : "");
+    }
+}
@@ -0,0 +1,168 @@
+package corba;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import common.EventLog;
+
+public class RequestExecutor {
+    private static final EventLog LOG = EventLog.forSource("SimpleORB");
+    private final ExecutionStrategy strategy;
+    private final ExecutionStrategy.Mode mode;
+    private final ExecutorService executor;
+    private final AdaptiveLimiter limiter;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejectedByPool = new AtomicLong();
+
+    interface Request {
+        void run(Runnable complete);
+    }
+
+    RequestExecutor(ExecutionStrategy strategy) {
+        this.strategy = strategy;
+        this.limiter = new AdaptiveLimiter(strategy.getInitialLimit(), strategy.getMinLimit(),
+                strategy.getMaxLimit(), strategy.isAdaptive());
+        ExecutorService virtual = strategy.getMode() == ExecutionStrategy.Mode.VIRTUAL ? newVirtualThreadExecutor() : null;
+        if (virtual != null) {
+            this.mode = ExecutionStrategy.Mode.VIRTUAL;
+            this.executor = virtual;
+        } else {
+            if (strategy.getMode() == ExecutionStrategy.Mode.VIRTUAL) {
+                LOG.warn("executor.fallback", "reason", "virtual threads unavailable", "using", "bounded pool");
+            }
+            AtomicInteger ids = new AtomicInteger();
+            int threads = strategy.getMode() == ExecutionStrategy.Mode.VIRTUAL
+                    ? Math.max(4, Runtime.getRuntime().availableProcessors() * 2)
+                    : strategy.getThreads();
+            int capacity = Math.max(1, strategy.getMode() == ExecutionStrategy.Mode.VIRTUAL
+                    ? strategy.getMaxLimit()
+                    : strategy.getQueueCapacity());
+            this.mode = ExecutionStrategy.Mode.BOUNDED;
+            this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(capacity), r -> {
+                        Thread t = new Thread(r, "SimpleORB-worker-" + ids.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    boolean execute(Runnable task) {
+        return execute(complete -> task.run());
+    }
+
+    // The request may call complete before it writes its reply: once the client has the reply it
+    // can send its next request, and that one must not find this slot still taken.
+    boolean execute(Request request) {
+        if (!limiter.tryAcquire()) {
+            return false;
+        }
+        long start = System.nanoTime();
+        queued.incrementAndGet();
+        try {
+            executor.execute(new Admitted(request, start));
+            return true;
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            rejectedByPool.incrementAndGet();
+            limiter.release();
+            return false;
+        }
+    }
+
+    private final class Admitted implements Runnable {
+        private final Request request;
+        private final long start;
+        private boolean completedRequest;
+
+        Admitted(Request request, long start) {
+            this.request = request;
+            this.start = start;
+        }
+
+        @Override
+        public void run() {
+            queued.decrementAndGet();
+            try {
+                request.run(this::complete);
+            } finally {
+                complete();
+            }
+        }
+
+        private void complete() {
+            if (!completedRequest) {
+                completedRequest = true;
+                completed.incrementAndGet();
+                limiter.release(System.nanoTime() - start);
+            }
+        }
+    }
+
+    // Runs helper work only when a thread is free right now, without taking an admission slot,
+    // so fan-out inside an admitted request never displaces or sheds other clients' requests.
+    boolean executeIfIdle(Runnable task) {
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            if (!pool.getQueue().isEmpty() || pool.getActiveCount() >= pool.getMaximumPoolSize()) {
+                return false;
+            }
+        }
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    Stats getStats() {
+        return new Stats(mode, limiter.getLimit(), limiter.getInFlight(), queued.get(),
+                limiter.getRejected() + rejectedByPool.get(), completed.get(),
+                limiter.getBaselineLatencyNanos() / 1000);
+    }
+
+    ExecutionStrategy getStrategy() {
+        return strategy;
+    }
+
+    public static class Stats {
+        public final ExecutionStrategy.Mode mode;
+        public final int limit;
+        public final int inFlight;
+        public final int queueDepth;
+        public final long rejected;
+        public final long completed;
+        public final long baselineLatencyMicros;
+
+        Stats(ExecutionStrategy.Mode mode, int limit, int inFlight, int queueDepth, long rejected, long completed,
+              long baselineLatencyMicros) {
+            this.mode = mode;
+            this.limit = limit;
+            this.inFlight = inFlight;
+            this.queueDepth = queueDepth;
+            this.rejected = rejected;
+            this.completed = completed;
+            this.baselineLatencyMicros = baselineLatencyMicros;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Executor[mode=%s, limit=%d, inFlight=%d, queueDepth=%d, rejected=%d, completed=%d, baselineLatency=%dus]",
+                    mode, limit, inFlight, queueDepth, rejected, completed, baselineLatencyMicros);
+        }
+    }
+}
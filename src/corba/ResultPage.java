@@ -0,0 +1,19 @@
+package corba;
+
+import java.io.Serializable;
+
+// One page of a streamed result. Later pages are fetched from the cursor servant by cursorId
+// until a page arrives with last set, at which point the server has already closed the cursor.
+public class ResultPage implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public final long cursorId;
+    public final Object[] rows;
+    public final boolean last;
+
+    public ResultPage(long cursorId, Object[] rows, boolean last) {
+        this.cursorId = cursorId;
+        this.rows = rows;
+        this.last = last;
+    }
+}
@@ -0,0 +1,117 @@
+package corba;
+
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Client view of a streamed result. Rows are fetched a page at a time as they are consumed, so
+// only one page is held no matter how long the result is. Closing it early releases the cursor
+// on the server; a fully consumed stream has nothing left to release.
+public class ResultStream<T> implements Iterator<T>, AutoCloseable {
+    interface PageSource {
+        ResultPage next(long cursorId, int pageSize) throws Exception;
+
+        void close(long cursorId) throws Exception;
+    }
+
+    private final PageSource source;
+    private long cursorId;
+    private Object[] rows;
+    private int position;
+    private boolean last;
+    private int pageSize = CursorServant.DEFAULT_PAGE_SIZE;
+    private long fetched;
+
+    ResultStream(ResultPage first, PageSource source) {
+        this.source = source;
+        accept(first);
+    }
+
+    static <T> ResultStream<T> of(Object[] rows) {
+        return new ResultStream<>(new ResultPage(0, rows, true), null);
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = Math.max(1, Math.min(pageSize, CursorServant.MAX_PAGE_SIZE));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (position < rows.length) {
+            return true;
+        }
+        if (last) {
+            return false;
+        }
+        try {
+            fetch();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to fetch the next page: " + e.getMessage(), e);
+        }
+        return position < rows.length;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return (T) rows[position++];
+    }
+
+    // The rows not yet returned from the current page, fetching the next one if it is used up;
+    // an empty list means the stream is exhausted.
+    @SuppressWarnings("unchecked")
+    public List<T> nextPage() throws Exception {
+        if (position >= rows.length && !last) {
+            fetch();
+        }
+        List<T> page = (List<T>) Arrays.asList(rows).subList(position, rows.length);
+        position = rows.length;
+        return page;
+    }
+
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false)
+                .onClose(this::close);
+    }
+
+    public long getFetchedRows() {
+        return fetched;
+    }
+
+    public boolean isExhausted() {
+        return last && position >= rows.length;
+    }
+
+    private void fetch() throws Exception {
+        while (position >= rows.length && !last) {
+            accept(source.next(cursorId, pageSize));
+        }
+    }
+
+    private void accept(ResultPage page) {
+        cursorId = page.cursorId;
+        rows = page.rows;
+        position = 0;
+        last = page.last;
+        fetched += rows.length;
+    }
+
+    @Override
+    public void close() {
+        if (last) {
+            return;
+        }
+        last = true;
+        rows = new Object[0];
+        position = 0;
+        try {
+            source.close(cursorId);
+        } catch (Exception e) {
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package corba;
+
+public class ServerOverloadedException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public ServerOverloadedException(String message) {
+        super(message);
+    }
+}
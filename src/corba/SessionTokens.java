@@ -0,0 +1,200 @@
+package corba;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// Self-contained session tokens: base64url(expiresAt, nonce, epoch, userId) "." base64url(HMAC).
+// A token is bound to the credential epoch of the user it was issued to, and validation checks
+// that epoch against the store: a password change or a deactivation moves the epoch on and so
+// revokes every token issued before it, while a profile edit does not. The store is journaled,
+// so this survives a restart and holds on every replica that shares the store and the key.
+// Logging out revokes one token by nonce, in this process only, until it would have expired
+// anyway.
+public class SessionTokens {
+    public static final long DEFAULT_TTL_SECONDS = 30 * 60;
+    static final String ALGORITHM = "HmacSHA256";
+    static final long PURGE_INTERVAL_MS = 60000;
+
+    private static final ScheduledExecutorService purger = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "SessionTokens-purge");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+    private final ThreadLocal<Mac> macs;
+    private final SecureRandom random = new SecureRandom();
+    private final ToLongFunction<String> epochs;
+    private final Map<Long, Long> revoked = new ConcurrentHashMap<>();
+    private final ScheduledFuture<?> purgeTask;
+
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder valid = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final AtomicLong purged = new AtomicLong();
+
+    // Replicas that must accept each other's tokens share a key through -Duserservice.tokenKey
+    // (base64); otherwise each process signs with its own random key. epochs gives the current
+    // credential epoch of a user, or a negative value when the user may no longer hold a session.
+    public SessionTokens(ToLongFunction<String> epochs) {
+        this(keyFromProperties(), Long.getLong("userservice.tokenTtlSeconds", DEFAULT_TTL_SECONDS) * 1000, epochs);
+    }
+
+    public SessionTokens(byte[] secret, long ttlMillis, ToLongFunction<String> epochs) {
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.ttlMillis = ttlMillis;
+        this.epochs = epochs;
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(ALGORITHM + " unavailable", e);
+            }
+        });
+        this.purgeTask = purger.scheduleWithFixedDelay(this::purgeRevoked, PURGE_INTERVAL_MS, PURGE_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private static byte[] keyFromProperties() {
+        String configured = System.getProperty("userservice.tokenKey");
+        if (configured != null && !configured.isEmpty()) {
+            return Base64.getDecoder().decode(configured);
+        }
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        return secret;
+    }
+
+    // epoch is that of the user record the credentials were checked against.
+    public String issue(String userId, long epoch) {
+        byte[] id = userId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(24 + id.length);
+        payload.putLong(System.currentTimeMillis() + ttlMillis);
+        payload.putLong(random.nextLong());
+        payload.putLong(epoch);
+        payload.put(id);
+        byte[] bytes = payload.array();
+        issued.increment();
+        return ENCODER.encodeToString(bytes) + "." + ENCODER.encodeToString(sign(bytes));
+    }
+
+    // The user id the token was issued to, or null when it is malformed, forged, expired or revoked.
+    public String validate(String token) {
+        ByteBuffer payload = verify(token);
+        if (payload == null) {
+            rejected.increment();
+            return null;
+        }
+        long expiresAt = payload.getLong();
+        long nonce = payload.getLong();
+        long epoch = payload.getLong();
+        String userId = new String(payload.array(), payload.position(), payload.remaining(), StandardCharsets.UTF_8);
+        if (expiresAt <= System.currentTimeMillis()) {
+            expired.increment();
+            return null;
+        }
+        if (epoch < 0 || epoch != epochs.applyAsLong(userId) || revoked.containsKey(nonce)) {
+            rejected.increment();
+            return null;
+        }
+        valid.increment();
+        return userId;
+    }
+
+    public boolean revoke(String token) {
+        ByteBuffer payload = verify(token);
+        if (payload == null) {
+            return false;
+        }
+        long expiresAt = payload.getLong();
+        long nonce = payload.getLong();
+        if (expiresAt > System.currentTimeMillis()) {
+            revoked.put(nonce, expiresAt);
+        }
+        return true;
+    }
+
+    private ByteBuffer verify(String token) {
+        if (token == null) {
+            return null;
+        }
+        int separator = token.indexOf('.');
+        if (separator <= 0) {
+            return null;
+        }
+        byte[] payload;
+        byte[] signature;
+        try {
+            payload = DECODER.decode(token.substring(0, separator));
+            signature = DECODER.decode(token.substring(separator + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (payload.length < 24 || !MessageDigest.isEqual(signature, sign(payload))) {
+            return null;
+        }
+        return ByteBuffer.wrap(payload);
+    }
+
+    private byte[] sign(byte[] payload) {
+        return macs.get().doFinal(payload);
+    }
+
+    private void purgeRevoked() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, Long> entry : revoked.entrySet()) {
+            if (entry.getValue() <= now && revoked.remove(entry.getKey(), entry.getValue())) {
+                purged.incrementAndGet();
+            }
+        }
+    }
+
+    public void shutdown() {
+        purgeTask.cancel(false);
+    }
+
+    public Stats getStats() {
+        return new Stats(issued.sum(), valid.sum(), rejected.sum(), expired.sum(), revoked.size(), purged.get());
+    }
+
+    public static class Stats {
+        public final long issued;
+        public final long valid;
+        public final long rejected;
+        public final long expired;
+        public final int revoked;
+        public final long purged;
+
+        Stats(long issued, long valid, long rejected, long expired, int revoked, long purged) {
+            this.issued = issued;
+            this.valid = valid;
+            this.rejected = rejected;
+            this.expired = expired;
+            this.revoked = revoked;
+            this.purged = purged;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Sessions[issued=%d, valid=%d, rejected=%d, expired=%d, revoked=%d, purged=%d]",
+                    issued, valid, rejected, expired, revoked, purged);
+        }
+    }
+}
@@ -4,64 +4,231 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import common.EventLog;
+import common.MethodMetrics;
+import common.MetricsRegistry;
+import common.ThreadAllocation;
 
 public class SimpleORB {
+    private static final EventLog LOG = EventLog.forSource("SimpleORB");
+    public enum Transport { BLOCKING, NIO }
+
     private ServerSocket serverSocket;
-    private final Map<String, Object> servants = new ConcurrentHashMap<>();
-    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private NioServerTransport nioTransport;
+    private final Map<String, DispatchTable> servants = new ConcurrentHashMap<>();
+    private final ExecutorService connectionExecutor = Executors.newCachedThreadPool();
+    private RequestExecutor requestExecutor;
+    private CursorServant cursors;
+    private final MetricsRegistry metrics = new MetricsRegistry("SimpleORB");
+    private final Map<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final ExecutorService invalidationExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "SimpleORB-invalidation");
+        t.setDaemon(true);
+        return t;
+    });
     private volatile boolean running = false;
     private int port;
+
+    static final int CONNECTION_IDLE_TIMEOUT_MS = 5 * 60000;
+    static final String OVERLOADED_MESSAGE = "Server overloaded, request rejected";
+    static final int MAX_BATCH_PARALLELISM = 8;
+    public static final int MAX_BATCH_SIZE = 1000;
+    public static final String METRICS_SERVANT = "_metrics";
+    public static final String CURSOR_SERVANT = "_cursor";
+    static final String BATCH_METRIC = "<batch>";
+    static final String UNKNOWN_METRIC = "<unknown>";
+
+    interface Subscriber {
+        boolean push(Object invalidation);
+    }
     
     public void init(int port) throws IOException {
+        init(port, Transport.BLOCKING);
+    }
+
+    public void init(int port, Transport transport) throws IOException {
+        init(port, transport, ExecutionStrategy.defaults());
+    }
+
+    public void init(int port, Transport transport, ExecutionStrategy strategy) throws IOException {
         this.port = port;
-        this.serverSocket = new ServerSocket(port);
+        this.requestExecutor = new RequestExecutor(strategy);
+        if (transport == Transport.NIO) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            this.nioTransport = new NioServerTransport(this, port, Math.max(1, Math.min(4, cores / 2)));
+        } else {
+            this.serverSocket = new ServerSocket(port);
+        }
+        this.cursors = new CursorServant();
+        servants.put(METRICS_SERVANT, new DispatchTable(new MetricsServant(this)));
+        servants.put(CURSOR_SERVANT, new DispatchTable(cursors));
         this.running = true;
     }
     
     public int getPort() {
         return port;
     }
+
+    public RequestExecutor.Stats getExecutorStats() {
+        return requestExecutor.getStats();
+    }
+
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    String getCursorStats() {
+        return cursors.getStats();
+    }
+
+    String getTransportStats() {
+        if (nioTransport == null) {
+            return null;
+        }
+        return "Open connections: " + nioTransport.getOpenConnections() + ", " + nioTransport.getBufferPool();
+    }
+
+    boolean submitRequest(RequestExecutor.Request request) {
+        return requestExecutor.execute(request);
+    }
     
     public void registerServant(String name, Object servant) {
-        servants.put(name, servant);
+        if (METRICS_SERVANT.equals(name) || CURSOR_SERVANT.equals(name)) {
+            throw new IllegalArgumentException("Servant name is reserved: " + name);
+        }
+        servants.put(name, new DispatchTable(servant));
+        if (servant instanceof InvalidatingServant) {
+            ((InvalidatingServant) servant).setInvalidationListener(key -> publishInvalidation(name, key));
+        }
+    }
+
+    Object subscribe(Object body, Subscriber subscriber) {
+        if (!(body instanceof String)) {
+            return new Exception("Malformed subscription");
+        }
+        DispatchTable table = servants.get(body);
+        if (table == null) {
+            return new Exception("Servant not found: " + body);
+        }
+        if (!(table.getServant() instanceof InvalidatingServant)) {
+            return new Exception("Servant does not publish invalidations: " + body);
+        }
+        subscribers.computeIfAbsent((String) body, k -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        return Boolean.TRUE;
+    }
+
+    void unsubscribe(Subscriber subscriber) {
+        for (Set<Subscriber> set : subscribers.values()) {
+            set.remove(subscriber);
+        }
+    }
+
+    // Pushes run on one thread, in mutation order, so a slow subscriber never stalls the request
+    // that made the change.
+    private void publishInvalidation(String servantName, Object key) {
+        Set<Subscriber> set = subscribers.get(servantName);
+        if (set == null || set.isEmpty()) {
+            return;
+        }
+        Object invalidation = new Object[] { servantName, key };
+        try {
+            invalidationExecutor.execute(() -> set.removeIf(subscriber -> !subscriber.push(invalidation)));
+        } catch (RejectedExecutionException e) {
+        }
     }
     
     public void run() {
-        System.out.println("[SimpleORB] ORB running on port " + port);
+        LOG.info("orb.running", "port", port);
+        if (nioTransport != null) {
+            nioTransport.run();
+            return;
+        }
         while (running) {
             try {
                 Socket clientSocket = serverSocket.accept();
-                executor.submit(() -> handleClient(clientSocket));
+                connectionExecutor.submit(() -> handleClient(clientSocket));
             } catch (IOException e) {
                 if (running) {
-                    System.err.println("[SimpleORB] Error accepting connection: " + e.getMessage());
+                    LOG.error("accept.failed", "error", e.getMessage());
                 }
             }
         }
     }
     
     private void handleClient(Socket clientSocket) {
-        try (
-            ObjectInputStream in = new ObjectInputStream(clientSocket.getInputStream());
-            ObjectOutputStream out = new ObjectOutputStream(clientSocket.getOutputStream())
-        ) {
-            String servantName = (String) in.readObject();
-            String methodName = (String) in.readObject();
-            Object[] args = (Object[]) in.readObject();
-            
-            Object servant = servants.get(servantName);
-            if (servant == null) {
-                out.writeObject(new Exception("Servant not found: " + servantName));
-                return;
+        Subscriber subscriber = null;
+        try {
+            clientSocket.setSoTimeout(CONNECTION_IDLE_TIMEOUT_MS);
+            clientSocket.setTcpNoDelay(true);
+            FramedStream stream = FramedStream.accept(clientSocket);
+            subscriber = invalidation -> {
+                try {
+                    stream.write(FramedStream.KIND_INVALIDATE, 0, invalidation);
+                    return true;
+                } catch (IOException e) {
+                    return false;
+                }
+            };
+
+            while (running) {
+                FramedStream.Frame request;
+                long decodeAllocated = ThreadAllocation.currentThreadAllocatedBytes();
+                try {
+                    request = stream.read();
+                } catch (EOFException | SocketTimeoutException e) {
+                    break;
+                }
+                long requestAllocated = ThreadAllocation.currentThreadAllocatedBytes() - decodeAllocated;
+                Compression inflation = Compression.current();
+                long inflatedBytes = inflation.lastPayloadBytes;
+                long compressedBytes = inflation.lastWireBytes;
+                long inflateNanos = inflation.lastNanos;
+                if (!FramedStream.isRequestKind(request.kind)) {
+                    throw new StreamCorruptedException("Unexpected frame kind: " + request.kind);
+                }
+                if (request.kind == FramedStream.KIND_SUBSCRIBE) {
+                    stream.write(FramedStream.KIND_REPLY, request.correlationId, subscribe(request.body, subscriber));
+                    continue;
+                }
+                long received = System.nanoTime();
+                boolean accepted = requestExecutor.execute(complete -> {
+                    long allocated = ThreadAllocation.currentThreadAllocatedBytes();
+                    Object result = dispatchFrame(request.kind, request.body);
+                    complete.run();
+                    try {
+                        int written;
+                        try {
+                            written = stream.write(FramedStream.KIND_REPLY, request.correlationId, result);
+                        } catch (FramedStream.CodecException e) {
+                            result = new Exception(e.getMessage());
+                            written = stream.write(FramedStream.KIND_REPLY, request.correlationId, result);
+                        }
+                        allocated = ThreadAllocation.currentThreadAllocatedBytes() - allocated + requestAllocated;
+                        MethodMetrics methodMetrics = metricsFor(request.kind, request.body);
+                        if (methodMetrics != null) {
+                            methodMetrics.record(System.nanoTime() - received, result instanceof Exception,
+                                    request.length, written, allocated);
+                            recordCompression(methodMetrics, inflatedBytes, compressedBytes, inflateNanos);
+                        }
+                    } catch (IOException e) {
+                        LOG.warn("reply.failed", "error", e.getMessage());
+                    }
+                });
+                if (!accepted) {
+                    stream.write(FramedStream.KIND_OVERLOADED, request.correlationId, OVERLOADED_MESSAGE);
+                }
             }
-            
-            Object result = invokeMethod(servant, methodName, args);
-            out.writeObject(result);
-            out.flush();
-            
+
         } catch (Exception e) {
-            System.err.println("[SimpleORB] Error handling client: " + e.getMessage());
+            if (running) {
+                LOG.warn("connection.failed", "error", e.getMessage());
+            }
         } finally {
+            if (subscriber != null) {
+                unsubscribe(subscriber);
+            }
             try {
                 clientSocket.close();
             } catch (IOException e) {
@@ -69,94 +236,690 @@ public class SimpleORB {
         }
     }
     
-    private Object invokeMethod(Object servant, String methodName, Object[] args) {
+    Object dispatchFrame(byte kind, Object body) {
+        return kind == FramedStream.KIND_BATCH ? dispatchBatch(body) : dispatchRequest(body);
+    }
+
+    Object dispatchRequest(Object body) {
+        if (!(body instanceof Object[]) || ((Object[]) body).length != 3) {
+            return new Exception("Malformed request");
+        }
+        Object[] request = (Object[]) body;
         try {
-            if (args == null) {
-                args = new Object[0];
-            }
-            
-            for (java.lang.reflect.Method method : servant.getClass().getMethods()) {
-                if (method.getName().equals(methodName) && method.getParameterCount() == args.length) {
-                    Class<?>[] paramTypes = method.getParameterTypes();
-                    boolean compatible = true;
-                    
-                    for (int i = 0; i < args.length; i++) {
-                        if (args[i] == null) {
-                            if (paramTypes[i].isPrimitive()) {
-                                compatible = false;
-                                break;
-                            }
-                        } else if (!isAssignableFrom(paramTypes[i], args[i].getClass())) {
-                            compatible = false;
-                            break;
-                        }
-                    }
-                    
-                    if (compatible) {
-                        return method.invoke(servant, args);
+            return dispatch((String) request[0], (String) request[1], (Object[]) request[2]);
+        } catch (ClassCastException e) {
+            return new Exception("Malformed request: " + e.getMessage());
+        }
+    }
+
+    private Object dispatchBatch(Object body) {
+        if (!(body instanceof Object[]) || ((Object[]) body).length != 4) {
+            return new Exception("Malformed batch request");
+        }
+        Object[] request = (Object[]) body;
+        String servantName;
+        boolean sequential;
+        String[] methodNames;
+        Object[] argLists;
+        try {
+            servantName = (String) request[0];
+            sequential = (Boolean) request[1];
+            methodNames = (String[]) request[2];
+            argLists = (Object[]) request[3];
+        } catch (ClassCastException e) {
+            return new Exception("Malformed batch request: " + e.getMessage());
+        }
+        if (methodNames.length != argLists.length) {
+            return new Exception("Malformed batch request: " + methodNames.length + " methods, " + argLists.length + " argument lists");
+        }
+        DispatchTable table = servants.get(servantName);
+        if (table == null) {
+            return new Exception("Servant not found: " + servantName);
+        }
+
+        Object[] results = new Object[methodNames.length];
+        if (sequential || methodNames.length == 1) {
+            for (int i = 0; i < methodNames.length; i++) {
+                results[i] = invokeBatchEntry(servantName, table, methodNames[i], argLists[i]);
+            }
+            return results;
+        }
+
+        // Helpers and the calling thread all claim entries from the same counter, so the caller
+        // only ever waits on entries a running helper has already claimed. A helper still stuck in
+        // the executor queue finds nothing left to do, which keeps a full pool from deadlocking.
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger remaining = new AtomicInteger(methodNames.length);
+        Object done = new Object();
+        Runnable drain = () -> {
+            int i;
+            while ((i = next.getAndIncrement()) < methodNames.length) {
+                results[i] = invokeBatchEntry(servantName, table, methodNames[i], argLists[i]);
+                if (remaining.decrementAndGet() == 0) {
+                    synchronized (done) {
+                        done.notifyAll();
                     }
                 }
             }
-            return new Exception("Method not found or incompatible parameters: " + methodName);
-        } catch (Exception e) {
-            return e;
+        };
+        int helpers = Math.min(methodNames.length - 1, MAX_BATCH_PARALLELISM - 1);
+        for (int h = 0; h < helpers && requestExecutor.executeIfIdle(drain); h++) {
+        }
+        drain.run();
+        synchronized (done) {
+            while (remaining.get() > 0) {
+                try {
+                    done.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return new Exception("Batch interrupted");
+                }
+            }
         }
+        return results;
     }
-    
-    private boolean isAssignableFrom(Class<?> target, Class<?> source) {
-        if (target.isAssignableFrom(source)) {
-            return true;
+
+    private Object invokeBatchEntry(String servantName, DispatchTable table, String methodName, Object args) {
+        if (args != null && !(args instanceof Object[])) {
+            return new Exception("Malformed arguments for " + methodName);
+        }
+        long start = System.nanoTime();
+        Object result = EncodedReply.unwrap(table.invoke(methodName, (Object[]) args));
+        if (CursorServant.isStreamed(result)) {
+            CursorServant.discard(result);
+            result = new Exception("Streamed results cannot be batched: " + methodName);
+        }
+        metrics.forMethod(servantName, metricName(table, methodName))
+                .record(System.nanoTime() - start, result instanceof Exception);
+        return result;
+    }
+
+    // Batch entries are recorded as they run; the batch frame itself carries the bytes and the
+    // end-to-end latency. Names a servant does not expose are folded together so a misbehaving
+    // client cannot grow the registry without bound.
+    MethodMetrics metricsFor(byte kind, Object body) {
+        if (!(body instanceof Object[]) || ((Object[]) body).length < 2 || !(((Object[]) body)[0] instanceof String)) {
+            return null;
+        }
+        Object[] request = (Object[]) body;
+        DispatchTable table = servants.get(request[0]);
+        if (table == null) {
+            return null;
         }
-        if (target.isPrimitive()) {
-            if (target == boolean.class && source == Boolean.class) return true;
-            if (target == int.class && source == Integer.class) return true;
-            if (target == long.class && source == Long.class) return true;
-            if (target == double.class && source == Double.class) return true;
-            if (target == float.class && source == Float.class) return true;
-            if (target == byte.class && source == Byte.class) return true;
-            if (target == short.class && source == Short.class) return true;
-            if (target == char.class && source == Character.class) return true;
+        String method = kind == FramedStream.KIND_BATCH ? BATCH_METRIC : metricName(table, request[1]);
+        return metrics.forMethod((String) request[0], method);
+    }
+
+    // Called on the thread that just wrote the reply, whose Compression holds that reply's figures;
+    // the request's inflation was captured on the reading thread and is passed in.
+    static void recordCompression(MethodMetrics metrics, long inflatedBytes, long compressedBytes, long inflateNanos) {
+        if (compressedBytes > 0) {
+            metrics.recordCompression(inflatedBytes, compressedBytes, inflateNanos);
+        }
+        Compression deflation = Compression.current();
+        if (deflation.lastWireBytes > 0) {
+            metrics.recordCompression(deflation.lastPayloadBytes, deflation.lastWireBytes, deflation.lastNanos);
+        }
+    }
+
+    private static String metricName(DispatchTable table, Object methodName) {
+        return methodName instanceof String && table.getMethodNames().contains(methodName)
+                ? (String) methodName : UNKNOWN_METRIC;
+    }
+
+    private Object dispatch(String servantName, String methodName, Object[] args) {
+        DispatchTable table = servants.get(servantName);
+        if (table == null) {
+            return new Exception("Servant not found: " + servantName);
         }
-        return false;
+        Object result = table.invoke(methodName, args);
+        return CursorServant.isStreamed(result) ? cursors.open(result) : result;
     }
     
     public void shutdown() {
         running = false;
-        executor.shutdown();
+        connectionExecutor.shutdown();
+        invalidationExecutor.shutdown();
+        requestExecutor.shutdown();
+        cursors.shutdown();
+        Compression.endPooled();
+        if (nioTransport != null) {
+            nioTransport.shutdown();
+            return;
+        }
         try {
             serverSocket.close();
         } catch (IOException e) {
         }
     }
     
+    public static class Call {
+        final String methodName;
+        final Object[] args;
+
+        public Call(String methodName, Object... args) {
+            this.methodName = methodName;
+            this.args = args != null ? args : new Object[0];
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+    }
+
+    public static class CallResult {
+        private final Object value;
+
+        CallResult(Object value) {
+            this.value = value;
+        }
+
+        public boolean isError() {
+            return value instanceof Exception;
+        }
+
+        public Exception getError() {
+            return isError() ? (Exception) value : null;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <T> T get() throws Exception {
+            if (value instanceof Exception) {
+                throw (Exception) value;
+            }
+            return (T) value;
+        }
+    }
+
     public static class Stub {
-        private String host;
-        private int port;
+        private final LoadBalancer balancer;
+        private final boolean ownsPool;
         private String servantName;
+        private final Object muxLock = new Object();
+        private volatile NearCache nearCache;
+        private volatile LoadBalancer.Node pinned;
+        private final Set<String> balancedMethods = ConcurrentHashMap.newKeySet();
+        private final Set<String> idempotentMethods = ConcurrentHashMap.newKeySet();
         
         public Stub(String host, int port, String servantName) {
-            this.host = host;
-            this.port = port;
+            this(new ObjectReference(host, port, servantName));
+        }
+
+        // Each stub pins its calls to one endpoint of the reference, picked by load, and moves to
+        // another only when that one refuses connections or is ejected. Servants keep their state
+        // in the process that serves them, so spreading one client's calls would let it register
+        // a user on one node and then not find it on the next. Replicas listed in one reference
+        // must still share their store for a move, or clients pinned elsewhere, to see the same
+        // users; see balanceMethods for calls that may be spread.
+        public Stub(ObjectReference reference) {
+            List<LoadBalancer.Node> nodes = new ArrayList<>();
+            for (ObjectReference.Endpoint endpoint : reference.getEndpoints()) {
+                nodes.add(new LoadBalancer.Node(new ConnectionPool(endpoint.host, endpoint.port)));
+            }
+            this.balancer = new LoadBalancer(nodes);
+            this.ownsPool = true;
+            this.servantName = reference.getServiceName();
+        }
+
+        public Stub(ConnectionPool pool, String servantName) {
+            this.balancer = new LoadBalancer(Collections.singletonList(new LoadBalancer.Node(pool)));
+            this.ownsPool = false;
             this.servantName = servantName;
         }
         
+        // Lets the named methods go to whichever endpoint is least loaded instead of the pinned one.
+        // Only declare methods whose result does not depend on state held by one node, such as
+        // reads from a store every replica shares.
+        public void balanceMethods(String... methodNames) {
+            balancedMethods.addAll(Arrays.asList(methodNames));
+        }
+
+        // A pooled connection the server dropped while idle fails on first use. A call whose
+        // request never left is sent again on a fresh connection either way; one that went out
+        // and lost its connection before any reply is sent again only for the named methods,
+        // since the server may have run it. Only declare methods that can safely run twice.
+        public void markIdempotent(String... methodNames) {
+            idempotentMethods.addAll(Arrays.asList(methodNames));
+        }
+
+        private boolean isIdempotent(String methodName) {
+            return methodName != null && idempotentMethods.contains(methodName);
+        }
+
         @SuppressWarnings("unchecked")
         public <T> T invoke(String methodName, Object... args) throws Exception {
-            try (Socket socket = new Socket(host, port)) {
-                socket.setSoTimeout(30000);
-                ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-                ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
-                
-                out.writeObject(servantName);
-                out.writeObject(methodName);
-                out.writeObject(args != null ? args : new Object[0]);
-                out.flush();
-                
-                Object result = in.readObject();
+            NearCache cache = nearCache;
+            if (cache != null && cache.isCacheable(methodName)) {
+                return (T) invokeCached(cache, methodName, args != null ? args : new Object[0]);
+            }
+            Object result;
+            try {
+                result = routeCall(methodName, FramedStream.KIND_REQUEST, requestBody(methodName, args), isIdempotent(methodName));
+            } finally {
+                evictAfterCall(cache, args);
+            }
+            if (result instanceof Exception) {
+                throw (Exception) result;
+            }
+            return (T) result;
+        }
+
+        // The server's invalidation for this stub's own write may arrive after the reply, and a read
+        // straight after must not see the old value. The stub cannot tell writes from other uncached
+        // calls, so each drops what its first argument keys, and a batch drops everything.
+        private static void evictAfterCall(NearCache cache, Object[] args) {
+            if (cache == null) {
+                return;
+            }
+            if (args != null && args.length > 0) {
+                cache.invalidate(args[0]);
+            } else {
+                cache.clear();
+            }
+        }
+
+        // Cached replies are shared between callers and must be treated as read-only.
+        public void enableNearCache(int maxEntries, long ttlMillis, String... cacheableMethods) throws Exception {
+            NearCache cache = new NearCache(maxEntries, ttlMillis, Arrays.asList(cacheableMethods));
+            synchronized (muxLock) {
+                Exception failure = null;
+                boolean subscribed = false;
+                for (LoadBalancer.Node node : balancer.nodes()) {
+                    try {
+                        subscribe(node, cache);
+                        subscribed = true;
+                    } catch (Exception e) {
+                        balancer.recordFailure(node);
+                        failure = e;
+                    }
+                }
+                if (!subscribed) {
+                    throw failure;
+                }
+                nearCache = cache;
+            }
+        }
+
+        public void disableNearCache() {
+            synchronized (muxLock) {
+                nearCache = null;
+                for (LoadBalancer.Node node : balancer.nodes()) {
+                    node.subscription = null;
+                }
+            }
+        }
+
+        public NearCache.Stats getNearCacheStats() {
+            NearCache cache = nearCache;
+            return cache == null ? null : cache.getStats();
+        }
+
+        private Object invokeCached(NearCache cache, String methodName, Object[] args) throws Exception {
+            if (!isSubscribed(cache)) {
+                Object result = routeCall(methodName, FramedStream.KIND_REQUEST, requestBody(methodName, args), isIdempotent(methodName));
                 if (result instanceof Exception) {
                     throw (Exception) result;
                 }
-                return (T) result;
+                return result;
+            }
+            Object cached = cache.get(methodName, args);
+            if (cached != NearCache.MISS) {
+                return cached;
+            }
+            long epoch = cache.epoch();
+            Object result = routeCall(methodName, FramedStream.KIND_REQUEST, requestBody(methodName, args), isIdempotent(methodName));
+            if (result instanceof Exception) {
+                throw (Exception) result;
+            }
+            if (!(result instanceof ResultStream)) {
+                cache.put(methodName, args, result, epoch);
+            }
+            return result;
+        }
+
+        // Invalidations arrive on the multiplexed connections; if one dropped, anything cached since
+        // may have missed one, so the cache is emptied before the subscription is re-established.
+        // A write can land on any node, so the cache is only used while every node is subscribed.
+        private boolean isSubscribed(NearCache cache) {
+            if (allSubscribed()) {
+                return true;
+            }
+            synchronized (muxLock) {
+                if (nearCache != cache) {
+                    return false;
+                }
+                boolean subscribed = true;
+                for (LoadBalancer.Node node : balancer.nodes()) {
+                    MultiplexedConnection conn = node.subscription;
+                    if (conn != null && conn.isOpen()) {
+                        continue;
+                    }
+                    cache.clear();
+                    if (balancer.isEjected(node)) {
+                        subscribed = false;
+                        continue;
+                    }
+                    try {
+                        subscribe(node, cache);
+                    } catch (Exception e) {
+                        balancer.recordFailure(node);
+                        subscribed = false;
+                    }
+                }
+                return subscribed;
+            }
+        }
+
+        private boolean allSubscribed() {
+            for (LoadBalancer.Node node : balancer.nodes()) {
+                MultiplexedConnection conn = node.subscription;
+                if (conn == null || !conn.isOpen()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void subscribe(LoadBalancer.Node node, NearCache cache) throws Exception {
+            MultiplexedConnection conn = multiplexedConnection(node);
+            conn.setPushListener(invalidation -> {
+                if (invalidation instanceof Object[] && ((Object[]) invalidation).length == 2) {
+                    cache.invalidate(((Object[]) invalidation)[1]);
+                }
+            });
+            try {
+                conn.send(FramedStream.KIND_SUBSCRIBE, servantName, servantName + " subscription").get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+            node.subscription = conn;
+        }
+
+        // The pinned node, or any node for a balanced method; null methodName is a batch, which
+        // always goes to the pinned node.
+        private LoadBalancer.Node choose(String methodName) {
+            if (methodName != null && balancedMethods.contains(methodName)) {
+                return balancer.choose(null);
+            }
+            LoadBalancer.Node node = pinned;
+            if (node == null || balancer.isEjected(node)) {
+                node = balancer.choose(null);
+                pinned = node;
+            }
+            return node;
+        }
+
+        private Object routeCall(String methodName, byte kind, Object body, boolean idempotent) throws Exception {
+            boolean balanced = methodName != null && balancedMethods.contains(methodName);
+            LoadBalancer.Node node = choose(methodName);
+            Object result;
+            try {
+                result = call(node, kind, body, idempotent);
+            } catch (ConnectException e) {
+                LoadBalancer.Node other = balancer.choose(node);
+                if (other == null) {
+                    throw e;
+                }
+                // A refused connection never ran the call; a pinned stub moves with it for good.
+                if (!balanced) {
+                    pinned = other;
+                }
+                node = other;
+                result = call(node, kind, body, idempotent);
+            }
+            if (result instanceof ServerOverloadedException && balanced) {
+                // A shed request never ran, so another node can take it.
+                LoadBalancer.Node other = balancer.choose(node);
+                if (other != null) {
+                    node = other;
+                    result = call(node, kind, body, idempotent);
+                }
+            }
+            return result instanceof ResultPage ? stream(node, (ResultPage) result) : result;
+        }
+
+        // A streamed result's later pages live in a cursor on the node that produced the first one.
+        private ResultStream<Object> stream(LoadBalancer.Node node, ResultPage first) {
+            if (first.last) {
+                return ResultStream.of(first.rows);
+            }
+            return new ResultStream<>(first, new ResultStream.PageSource() {
+                @Override
+                public ResultPage next(long cursorId, int pageSize) throws Exception {
+                    // A resent next would skip the page the lost reply carried.
+                    Object page = call(node, FramedStream.KIND_REQUEST,
+                            new Object[] { CURSOR_SERVANT, "next", new Object[] { cursorId, pageSize } }, false);
+                    if (page instanceof Exception) {
+                        throw (Exception) page;
+                    }
+                    return (ResultPage) page;
+                }
+
+                @Override
+                public void close(long cursorId) throws Exception {
+                    call(node, FramedStream.KIND_REQUEST,
+                            new Object[] { CURSOR_SERVANT, "close", new Object[] { cursorId } }, true);
+                }
+            });
+        }
+
+        private Object call(LoadBalancer.Node node, byte kind, Object body, boolean idempotent) throws Exception {
+            long start = balancer.begin(node);
+            LoadBalancer.Outcome outcome = LoadBalancer.Outcome.FAILURE;
+            try {
+                Object result = call(node.pool, kind, body, idempotent);
+                outcome = result instanceof ServerOverloadedException
+                        ? LoadBalancer.Outcome.OVERLOADED : LoadBalancer.Outcome.SUCCESS;
+                return result;
+            } catch (Exception e) {
+                outcome = LoadBalancer.outcome(e);
+                throw e;
+            } finally {
+                balancer.end(node, start, outcome);
+            }
+        }
+
+        // A request on a reused connection is tried once more, as markIdempotent describes.
+        // Anything else, a read timeout above all, may have executed and is left to the caller.
+        private Object call(ConnectionPool pool, byte kind, Object body, boolean idempotent) throws Exception {
+            for (boolean first = true; ; first = false) {
+                ConnectionPool.PooledConnection conn = pool.acquire();
+                boolean reused = conn.isReused();
+                boolean reusable = false;
+                try {
+                    Object result = conn.call(kind, body);
+                    reusable = true;
+                    return result;
+                } catch (IOException e) {
+                    if (!first || !reused || !(conn.unsent || idempotent && conn.failedBeforeReply)) {
+                        throw e;
+                    }
+                } finally {
+                    pool.release(conn, reusable);
+                }
+            }
+        }
+
+        // Rows arrive a page at a time as the stream is consumed. Methods that return an array or a
+        // collection are accepted too and come back as a single page.
+        @SuppressWarnings("unchecked")
+        public <T> ResultStream<T> invokeStream(String methodName, Object... args) throws Exception {
+            Object result = invoke(methodName, args);
+            if (result instanceof ResultStream) {
+                return (ResultStream<T>) result;
+            }
+            if (result instanceof Object[]) {
+                return ResultStream.of((Object[]) result);
+            }
+            if (result instanceof Collection) {
+                return ResultStream.of(((Collection<?>) result).toArray());
+            }
+            throw new IllegalArgumentException(servantName + "." + methodName + " did not return a sequence");
+        }
+
+        @SuppressWarnings("unchecked")
+        public <T> CompletableFuture<T> invokeAsync(String methodName, Object... args) {
+            NearCache cache = nearCache;
+            CompletableFuture<Object> reply = send(methodName, FramedStream.KIND_REQUEST, requestBody(methodName, args),
+                    servantName + "." + methodName);
+            if (cache != null && !cache.isCacheable(methodName)) {
+                reply = reply.whenComplete((result, failure) -> evictAfterCall(cache, args));
+            }
+            return (CompletableFuture<T>) reply;
+        }
+
+        public List<CallResult> invokeBatch(List<Call> calls) throws Exception {
+            return invokeBatch(calls, false);
+        }
+
+        public List<CallResult> invokeBatch(List<Call> calls, boolean sequential) throws Exception {
+            try {
+                return batch(calls, sequential);
+            } finally {
+                evictAfterCall(nearCache, null);
+            }
+        }
+
+        private List<CallResult> batch(List<Call> calls, boolean sequential) throws Exception {
+            if (calls.size() <= MAX_BATCH_SIZE) {
+                return toCallResults(routeCall(null, FramedStream.KIND_BATCH, batchBody(calls, sequential), false), calls.size());
+            }
+            if (sequential) {
+                List<CallResult> results = new ArrayList<>(calls.size());
+                for (int from = 0; from < calls.size(); from += MAX_BATCH_SIZE) {
+                    List<Call> chunk = calls.subList(from, Math.min(calls.size(), from + MAX_BATCH_SIZE));
+                    results.addAll(toCallResults(routeCall(null, FramedStream.KIND_BATCH, batchBody(chunk, true), false), chunk.size()));
+                }
+                return results;
+            }
+            try {
+                return invokeBatchAsync(calls).get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+
+        public CompletableFuture<List<CallResult>> invokeBatchAsync(List<Call> calls) {
+            List<CompletableFuture<List<CallResult>>> chunks = new ArrayList<>();
+            for (int from = 0; from < calls.size(); from += MAX_BATCH_SIZE) {
+                List<Call> chunk = calls.subList(from, Math.min(calls.size(), from + MAX_BATCH_SIZE));
+                int size = chunk.size();
+                chunks.add(send(null, FramedStream.KIND_BATCH, batchBody(chunk, false), servantName + " batch")
+                        .thenApply(reply -> {
+                            try {
+                                return toCallResults(reply, size);
+                            } catch (Exception e) {
+                                throw new CompletionException(e);
+                            }
+                        }));
+            }
+            NearCache cache = nearCache;
+            return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).whenComplete(
+                    (ignored, failure) -> evictAfterCall(cache, null)).thenApply(ignored -> {
+                List<CallResult> results = new ArrayList<>(calls.size());
+                for (CompletableFuture<List<CallResult>> chunk : chunks) {
+                    results.addAll(chunk.join());
+                }
+                return results;
+            });
+        }
+
+        private CompletableFuture<Object> send(String methodName, byte kind, Object body, String description) {
+            LoadBalancer.Node node = choose(methodName);
+            long start = balancer.begin(node);
+            MultiplexedConnection conn;
+            try {
+                conn = multiplexedConnection(node);
+            } catch (IOException e) {
+                balancer.end(node, start, LoadBalancer.outcome(e));
+                CompletableFuture<Object> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+            CompletableFuture<Object> future = conn.send(kind, body, description);
+            future.whenComplete((result, error) -> balancer.end(node, start, LoadBalancer.outcome(error)));
+            return future.thenApply(result -> result instanceof ResultPage ? stream(node, (ResultPage) result) : result);
+        }
+
+        private Object requestBody(String methodName, Object[] args) {
+            return new Object[] { servantName, methodName, args != null ? args : new Object[0] };
+        }
+
+        private Object batchBody(List<Call> calls, boolean sequential) {
+            String[] methodNames = new String[calls.size()];
+            Object[] argLists = new Object[calls.size()];
+            for (int i = 0; i < methodNames.length; i++) {
+                methodNames[i] = calls.get(i).methodName;
+                argLists[i] = calls.get(i).args;
+            }
+            return new Object[] { servantName, sequential, methodNames, argLists };
+        }
+
+        private static List<CallResult> toCallResults(Object reply, int expected) throws Exception {
+            if (reply instanceof Exception) {
+                throw (Exception) reply;
+            }
+            Object[] values = (Object[]) reply;
+            if (values.length != expected) {
+                throw new StreamCorruptedException("Batch reply has " + values.length + " results, expected " + expected);
+            }
+            List<CallResult> results = new ArrayList<>(values.length);
+            for (Object value : values) {
+                results.add(new CallResult(value));
+            }
+            return results;
+        }
+
+        private MultiplexedConnection multiplexedConnection(LoadBalancer.Node node) throws IOException {
+            MultiplexedConnection conn = node.mux;
+            if (conn != null && conn.isOpen()) {
+                return conn;
+            }
+            synchronized (muxLock) {
+                conn = node.mux;
+                if (conn == null || !conn.isOpen()) {
+                    conn = new MultiplexedConnection(node.pool.getHost(), node.pool.getPort(),
+                            MultiplexedConnection.DEFAULT_CALL_TIMEOUT_MS);
+                    node.mux = conn;
+                }
+                return conn;
+            }
+        }
+
+        public int getPendingAsyncCalls() {
+            int pending = 0;
+            for (LoadBalancer.Node node : balancer.nodes()) {
+                MultiplexedConnection conn = node.mux;
+                pending += conn == null ? 0 : conn.getPendingCount();
+            }
+            return pending;
+        }
+
+        // The pool of the first endpoint in the reference.
+        public ConnectionPool.Stats getPoolStats() {
+            return balancer.nodes().get(0).pool.getStats();
+        }
+
+        public List<LoadBalancer.Stats> getBalancerStats() {
+            return balancer.getStats();
+        }
+
+        public void close() {
+            synchronized (muxLock) {
+                nearCache = null;
+                for (LoadBalancer.Node node : balancer.nodes()) {
+                    node.subscription = null;
+                    if (node.mux != null) {
+                        node.mux.close();
+                        node.mux = null;
+                    }
+                }
+            }
+            balancer.close();
+            if (ownsPool) {
+                for (LoadBalancer.Node node : balancer.nodes()) {
+                    node.pool.close();
+                }
             }
         }
     }
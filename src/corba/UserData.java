@@ -10,6 +10,8 @@ public class UserData implements Serializable {
     public String email;
     public String role;
     public boolean active;
+    // Bumped by every change to the user; pass it back to updateUser to detect a concurrent edit.
+    public long version;
 
     public UserData() {
         this.id = "";
@@ -26,10 +28,15 @@ public class UserData implements Serializable {
         this.role = role;
         this.active = active;
     }
+
+    public UserData(String id, String name, String email, String role, boolean active, long version) {
+        this(id, name, email, role, active);
+        this.version = version;
+    }
     
     @Override
     public String toString() {
-        return String.format("User[id=%s, name=%s, email=%s, role=%s, active=%s]",
-                id, name, email, role, active);
+        return String.format("User[id=%s, name=%s, email=%s, role=%s, active=%s, version=%d]",
+                id, name, email, role, active, version);
     }
 }
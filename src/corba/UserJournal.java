@@ -0,0 +1,494 @@
+package corba;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import common.EventLog;
+import common.LatencyHistogram;
+
+// Write-ahead log for UserServiceServant. Writers append a record once their change is visible
+// and then wait until a single writer thread has forced it to disk; every record that arrived
+// during one fsync shares the next. The log is split into segments: a snapshot starts a new
+// segment, dumps the live users, and then deletes the segments it covers.
+//
+// Every record is a complete copy of one user at one version, and replay keeps the highest version
+// it has seen. Records for a user may therefore reach the log in any order, and replaying a segment
+// over a snapshot that already reflects part of it still ends in the right state. That lets
+// snapshots run while writes continue.
+public class UserJournal implements Closeable {
+    private static final EventLog LOG = EventLog.forSource("UserJournal");
+    public static final long DEFAULT_SNAPSHOT_RECORDS = 100000;
+
+    // OP_PUT records predate credential epochs and replay with the epoch equal to the version.
+    static final byte OP_PUT = 1;
+    static final byte OP_PUT_EPOCH = 2;
+
+    private static final int SNAPSHOT_MAGIC = 0x55534E50;
+    private static final int SNAPSHOT_VERSION = 3;
+    private static final int OLDEST_SNAPSHOT_VERSION = 2;
+    private static final int RECORD_HEADER = 8;
+    private static final String SNAPSHOT_FILE = "users.snapshot";
+
+    public interface Target {
+        void put(String id, String name, String email, String password, String role, boolean active, long version,
+                 long epoch);
+    }
+
+    private final Path directory;
+    private final Consumer<Target> snapshotSource;
+    private final long snapshotRecords;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pendingRecords = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    private FramedStream.ExposedByteArrayOutputStream pending = new FramedStream.ExposedByteArrayOutputStream(4096);
+    private FramedStream.ExposedByteArrayOutputStream writing = new FramedStream.ExposedByteArrayOutputStream(4096);
+    private final RecordWriter record = new RecordWriter();
+    private long appended;
+    private long durable;
+    private IOException failure;
+    private boolean closed;
+    private boolean rotateRequested;
+
+    private FileChannel channel;
+    private long segment;
+    private long recordsSinceSnapshot;
+    private final Thread writer;
+    private final ExecutorService snapshotter = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "UserJournal-snapshot");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final LatencyHistogram fsyncNanos = new LatencyHistogram();
+    private final LatencyHistogram batchRecords = new LatencyHistogram();
+    private volatile long snapshots;
+    private volatile long lastSnapshotMillis;
+    private volatile long lastSnapshotUsers;
+    private long recoveredUsers;
+    private long recoveredRecords;
+    private long recoveryMillis;
+
+    private UserJournal(Path directory, Consumer<Target> snapshotSource, long snapshotRecords) {
+        this.directory = directory;
+        this.snapshotSource = snapshotSource;
+        this.snapshotRecords = snapshotRecords;
+        this.writer = new Thread(this::writeLoop, "UserJournal-writer");
+        this.writer.setDaemon(true);
+    }
+
+    // Replays the snapshot and the log tail into target, then opens a fresh segment for appends.
+    // snapshotSource is handed a Target to put every live user into whenever a snapshot is taken.
+    public static UserJournal open(Path directory, Target target, Consumer<Target> snapshotSource,
+                                   long snapshotRecords) throws IOException {
+        Files.createDirectories(directory);
+        UserJournal journal = new UserJournal(directory, snapshotSource, snapshotRecords);
+        journal.recover(target);
+        journal.channel = FileChannel.open(journal.segmentPath(journal.segment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        journal.writer.start();
+        return journal;
+    }
+
+    public boolean isEmpty() {
+        return recoveredRecords == 0 && recoveredUsers == 0;
+    }
+
+    public long put(String id, String name, String email, String password, String role, boolean active, long version,
+                    long epoch) {
+        lock.lock();
+        try {
+            if (failure != null) {
+                throw new UncheckedIOException("User journal is unavailable", failure);
+            }
+            if (closed) {
+                throw new IllegalStateException("User journal is closed");
+            }
+            record.encode(version, epoch, active, id, name, email, password, role);
+            pending.write(record.bytes.buffer(), 0, record.bytes.size());
+            appended++;
+            pendingRecords.signal();
+            return appended;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A record is [int length][int crc32][op][long version][long epoch][active][fields]; the
+    // checksum lets recovery tell a torn tail from a complete record.
+    private static final class RecordWriter {
+        final FramedStream.ExposedByteArrayOutputStream bytes = new FramedStream.ExposedByteArrayOutputStream(256);
+        private final DataOutputStream data = new DataOutputStream(bytes);
+        private final CRC32 crc = new CRC32();
+
+        void encode(long version, long epoch, boolean active, String... fields) throws IOException {
+            bytes.reset();
+            data.writeInt(0);
+            data.writeInt(0);
+            data.writeByte(OP_PUT_EPOCH);
+            data.writeLong(version);
+            data.writeLong(epoch);
+            data.writeBoolean(active);
+            for (String field : fields) {
+                BinaryCodec.writeString(field, data);
+            }
+            byte[] buffer = bytes.buffer();
+            int length = bytes.size() - RECORD_HEADER;
+            crc.reset();
+            crc.update(buffer, RECORD_HEADER, length);
+            writeInt(buffer, 0, length);
+            writeInt(buffer, 4, (int) crc.getValue());
+        }
+
+        private static void writeInt(byte[] buffer, int offset, int value) {
+            buffer[offset] = (byte) (value >>> 24);
+            buffer[offset + 1] = (byte) (value >>> 16);
+            buffer[offset + 2] = (byte) (value >>> 8);
+            buffer[offset + 3] = (byte) value;
+        }
+    }
+
+    // Blocks until the record numbered sequence, as returned by an append, is on disk.
+    public void await(long sequence) {
+        lock.lock();
+        try {
+            while (durable < sequence && failure == null) {
+                flushed.awaitUninterruptibly();
+            }
+            if (durable < sequence) {
+                throw new UncheckedIOException("User journal write failed", failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            long batchEnd;
+            long batchSize;
+            boolean rotate;
+            lock.lock();
+            try {
+                while (pending.size() == 0 && !closed && !rotateRequested) {
+                    pendingRecords.awaitUninterruptibly();
+                }
+                if (pending.size() == 0 && closed) {
+                    return;
+                }
+                FramedStream.ExposedByteArrayOutputStream swap = writing;
+                writing = pending;
+                pending = swap;
+                pending.reset();
+                batchSize = appended - durable;
+                batchEnd = appended;
+                rotate = rotateRequested;
+                rotateRequested = false;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                if (writing.size() > 0) {
+                    ByteBuffer buffer = ByteBuffer.wrap(writing.buffer(), 0, writing.size());
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    long start = System.nanoTime();
+                    channel.force(false);
+                    fsyncNanos.record(System.nanoTime() - start);
+                    batchRecords.record(batchSize);
+                }
+                if (rotate) {
+                    channel.close();
+                    segment++;
+                    channel = FileChannel.open(segmentPath(segment),
+                            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                    forceDirectory();
+                    long covered = segment;
+                    snapshotter.execute(() -> snapshot(covered));
+                }
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    failure = e;
+                    flushed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                LOG.error("journal.write.failed", "error", e.getMessage(), "action", "rejecting further writes");
+                return;
+            }
+            lock.lock();
+            try {
+                durable = batchEnd;
+                flushed.signalAll();
+                recordsSinceSnapshot += batchSize;
+                if (recordsSinceSnapshot >= snapshotRecords && snapshotSource != null) {
+                    recordsSinceSnapshot = 0;
+                    rotateRequested = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Everything appended to segments before firstSegment was already visible in the users being
+    // dumped, because a change is applied before it is appended and the dump starts after the
+    // rotation; the dump sees that version of each user or a later one.
+    private void snapshot(long firstSegment) {
+        long start = System.currentTimeMillis();
+        Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        long[] count = new long[1];
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out), 1 << 16));
+            data.writeInt(SNAPSHOT_MAGIC);
+            data.writeInt(SNAPSHOT_VERSION);
+            data.writeLong(firstSegment);
+            RecordWriter entry = new RecordWriter();
+            UncheckedIOException[] error = new UncheckedIOException[1];
+            snapshotSource.accept((id, name, email, password, role, active, version, epoch) -> {
+                if (error[0] != null) {
+                    return;
+                }
+                try {
+                    entry.encode(version, epoch, active, id, name, email, password, role);
+                    data.write(entry.bytes.buffer(), 0, entry.bytes.size());
+                    count[0]++;
+                } catch (IOException e) {
+                    error[0] = new UncheckedIOException(e);
+                }
+            });
+            if (error[0] != null) {
+                throw error[0].getCause();
+            }
+            data.flush();
+            out.force(true);
+        } catch (IOException e) {
+            LOG.error("snapshot.failed", "error", e.getMessage(), "action", "keeping the log");
+            return;
+        }
+        try {
+            Files.move(temporary, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory();
+            for (long old : segments()) {
+                if (old < firstSegment) {
+                    Files.deleteIfExists(segmentPath(old));
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("snapshot.install.failed", "error", e.getMessage());
+            return;
+        }
+        snapshots++;
+        lastSnapshotUsers = count[0];
+        lastSnapshotMillis = System.currentTimeMillis() - start;
+    }
+
+    private void recover(Target target) throws IOException {
+        long start = System.currentTimeMillis();
+        long firstSegment = 0;
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            try (FileChannel in = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                if (buffer.remaining() < 16 || buffer.getInt() != SNAPSHOT_MAGIC) {
+                    throw new StreamCorruptedException("Not a user snapshot: " + snapshot);
+                }
+                int version = buffer.getInt();
+                if (version < OLDEST_SNAPSHOT_VERSION || version > SNAPSHOT_VERSION) {
+                    throw new StreamCorruptedException("Unsupported user snapshot version " + version + ": " + snapshot);
+                }
+                firstSegment = buffer.getLong();
+                int end = replay(buffer, target);
+                if (end != buffer.limit()) {
+                    throw new StreamCorruptedException("Snapshot is truncated or corrupt at byte " + end);
+                }
+            }
+        }
+        recoveredUsers = recoveredRecords;
+        recoveredRecords = 0;
+        long last = firstSegment;
+        for (long number : segments()) {
+            Path path = segmentPath(number);
+            if (number < firstSegment || Files.size(path) == 0) {
+                Files.deleteIfExists(path);
+                continue;
+            }
+            last = number;
+            try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long size = in.size();
+                int end = replay(in.map(FileChannel.MapMode.READ_ONLY, 0, size), target);
+                if (end < size) {
+                    // A crash mid-append leaves a torn record; nothing after it was ever acknowledged.
+                    LOG.warn("segment.truncated", "file", path.getFileName(), "fromBytes", size, "toBytes", end);
+                    in.truncate(end);
+                    in.force(true);
+                }
+            }
+        }
+        segment = last + 1;
+        recoveryMillis = System.currentTimeMillis() - start;
+    }
+
+    private int replay(ByteBuffer buffer, Target target) throws IOException {
+        byte[] payload = new byte[256];
+        FramedStream.ByteArrayInput input = new FramedStream.ByteArrayInput();
+        DataInputStream data = new DataInputStream(input);
+        CRC32 check = new CRC32();
+        while (buffer.remaining() >= RECORD_HEADER) {
+            int position = buffer.position();
+            int length = buffer.getInt();
+            int expected = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                return position;
+            }
+            if (payload.length < length) {
+                payload = new byte[Math.max(length, payload.length * 2)];
+            }
+            buffer.get(payload, 0, length);
+            check.reset();
+            check.update(payload, 0, length);
+            if ((int) check.getValue() != expected) {
+                return position;
+            }
+            input.reset(payload, 0, length);
+            apply(data, target);
+            recoveredRecords++;
+        }
+        return buffer.position();
+    }
+
+    private static void apply(DataInputStream in, Target target) throws IOException {
+        byte op = in.readByte();
+        if (op != OP_PUT && op != OP_PUT_EPOCH) {
+            throw new StreamCorruptedException("Unknown journal record type: " + op);
+        }
+        long version = in.readLong();
+        long epoch = op == OP_PUT_EPOCH ? in.readLong() : version;
+        boolean active = in.readBoolean();
+        target.put(BinaryCodec.readString(in), BinaryCodec.readString(in), BinaryCodec.readString(in),
+                BinaryCodec.readString(in), BinaryCodec.readString(in), active, version, epoch);
+    }
+
+    private List<Long> segments() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "users-*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(name.substring(6, name.length() - 4)));
+                } catch (NumberFormatException e) {
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("users-%06d.log", number));
+    }
+
+    // Makes a newly created or renamed file survive a crash; not every platform can open a
+    // directory for this, and there the rename is as durable as the file system makes it.
+    private void forceDirectory() {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            pendingRecords.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        snapshotter.shutdown();
+        try {
+            // A snapshot still being installed deletes segments, which must not happen under
+            // whatever opens this directory next.
+            snapshotter.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    public Stats getStats() {
+        long records;
+        lock.lock();
+        try {
+            records = durable;
+        } finally {
+            lock.unlock();
+        }
+        return new Stats(records, fsyncNanos.getCount(), batchRecords.getMean(), batchRecords.getMax(),
+                fsyncNanos.percentile(0.50) / 1000, fsyncNanos.percentile(0.99) / 1000, fsyncNanos.getMax() / 1000,
+                snapshots, lastSnapshotUsers, lastSnapshotMillis, recoveredUsers, recoveredRecords, recoveryMillis);
+    }
+
+    public static class Stats {
+        public final long records;
+        public final long fsyncs;
+        public final double meanBatch;
+        public final long maxBatch;
+        public final long fsyncP50Micros;
+        public final long fsyncP99Micros;
+        public final long fsyncMaxMicros;
+        public final long snapshots;
+        public final long lastSnapshotUsers;
+        public final long lastSnapshotMillis;
+        public final long recoveredUsers;
+        public final long recoveredRecords;
+        public final long recoveryMillis;
+
+        Stats(long records, long fsyncs, double meanBatch, long maxBatch, long fsyncP50Micros, long fsyncP99Micros,
+              long fsyncMaxMicros, long snapshots, long lastSnapshotUsers, long lastSnapshotMillis,
+              long recoveredUsers, long recoveredRecords, long recoveryMillis) {
+            this.records = records;
+            this.fsyncs = fsyncs;
+            this.meanBatch = meanBatch;
+            this.maxBatch = maxBatch;
+            this.fsyncP50Micros = fsyncP50Micros;
+            this.fsyncP99Micros = fsyncP99Micros;
+            this.fsyncMaxMicros = fsyncMaxMicros;
+            this.snapshots = snapshots;
+            this.lastSnapshotUsers = lastSnapshotUsers;
+            this.lastSnapshotMillis = lastSnapshotMillis;
+            this.recoveredUsers = recoveredUsers;
+            this.recoveredRecords = recoveredRecords;
+            this.recoveryMillis = recoveryMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Journal[records=%d, fsyncs=%d, batch(mean=%.1f, max=%d), fsync(p50=%dus, p99=%dus, max=%dus), "
+                            + "snapshots=%d, lastSnapshot=%d users in %dms, recovered=%d users + %d records in %dms]",
+                    records, fsyncs, meanBatch, maxBatch, fsyncP50Micros, fsyncP99Micros, fsyncMaxMicros,
+                    snapshots, lastSnapshotUsers, lastSnapshotMillis, recoveredUsers, recoveredRecords, recoveryMillis);
+        }
+    }
+}
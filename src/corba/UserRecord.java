@@ -0,0 +1,48 @@
+package corba;
+
+// One user at one version. Records are never modified: a change builds the successor and a
+// UserStore swaps it in only if the user is still at the version it was built from, so readers
+// take no lock and always see a consistent user, and writers racing on the same user retry
+// against the winner.
+final class UserRecord {
+    final String id;
+    final String name;
+    final String email;
+    final String password;
+    final String role;
+    final boolean active;
+    final long version;
+    // The version at which the password or the active flag last changed. Session tokens are bound
+    // to it, so editing a profile leaves the user signed in.
+    final long epoch;
+    final UserData data;
+
+    UserRecord(String id, String name, String email, String password, String role, boolean active, long version) {
+        this(id, name, email, password, role, active, version, version);
+    }
+
+    UserRecord(String id, String name, String email, String password, String role, boolean active, long version,
+               long epoch) {
+        this.id = id;
+        this.name = name;
+        this.email = email;
+        this.password = password;
+        this.role = role;
+        this.active = active;
+        this.version = version;
+        this.epoch = epoch;
+        this.data = new UserData(id, name, email, role, active, version);
+    }
+
+    UserRecord withProfile(String name, String email) {
+        return new UserRecord(id, name, email, password, role, active, version + 1, epoch);
+    }
+
+    UserRecord withPassword(String password) {
+        return new UserRecord(id, name, email, password, role, active, version + 1);
+    }
+
+    UserRecord deactivated() {
+        return new UserRecord(id, name, email, password, role, false, version + 1);
+    }
+}
@@ -1,142 +1,410 @@
 package corba;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import common.EventLog;
 
-public class UserServiceServant {
-    private final Map<String, InternalUser> users;
+public class UserServiceServant implements InvalidatingServant {
+    // Passed as expectedVersion to update whatever the current version is.
+    public static final long ANY_VERSION = -1;
 
-    private static class InternalUser {
-        volatile String id;
-        volatile String name;
-        volatile String email;
-        volatile String password;
-        volatile String role;
-        volatile boolean active;
+    private static final EventLog LOG = EventLog.forSource("CORBA Server");
+    private static final UserData NOT_FOUND = new UserData("", "", "", "", false);
 
-        InternalUser(String id, String name, String email, String password, String role) {
-            this.id = id;
-            this.name = name;
-            this.email = email;
-            this.password = password;
-            this.role = role;
-            this.active = true;
-        }
-        
-        synchronized UserData toUserData() {
-            return new UserData(id, name, email, role, active);
+    private final UserStore users;
+    private final SessionTokens sessions = new SessionTokens(this::sessionEpoch);
+    private final UserJournal journal;
+    private final AtomicLong usersGeneration = new AtomicLong();
+    private volatile AllUsersReply allUsersReply;
+    private final LongAdder allUsersHits = new LongAdder();
+    private final LongAdder allUsersMisses = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private volatile Consumer<Object> invalidationListener;
+
+    private static final class AllUsersReply {
+        final long generation;
+        final EncodedReply<UserData[]> reply;
+
+        AllUsersReply(long generation, EncodedReply<UserData[]> reply) {
+            this.generation = generation;
+            this.reply = reply;
         }
     }
 
+    // -Duserservice.dataDir makes registrations and changes durable; without it users live in memory.
     public UserServiceServant() {
-        this.users = new ConcurrentHashMap<>();
-        initializeSampleUsers();
+        this(System.getProperty("userservice.dataDir") != null ? Paths.get(System.getProperty("userservice.dataDir")) : null);
+    }
+
+    public UserServiceServant(Path dataDir) {
+        this(UserStore.fromProperties(), dataDir);
+    }
+
+    UserServiceServant(UserStore store, Path dataDir) {
+        this.users = store;
+        if (dataDir == null) {
+            this.journal = null;
+            initializeSampleUsers();
+            return;
+        }
+        try {
+            this.journal = UserJournal.open(dataDir, this::recover, this::dumpUsers,
+                    Long.getLong("userservice.snapshotRecords", UserJournal.DEFAULT_SNAPSHOT_RECORDS));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open the user store in " + dataDir, e);
+        }
+        if (journal.isEmpty()) {
+            initializeSampleUsers();
+            long sequence = 0;
+            for (Iterator<UserRecord> it = users.iterator(); it.hasNext(); ) {
+                sequence = append(it.next());
+            }
+            journal.await(sequence);
+        }
+        LOG.info("store.opened", "dir", dataDir, "journal", journal.getStats(), "store", users.getStats());
+    }
+
+    // Replay keeps the highest version of each user, whatever order the records come in.
+    private void recover(String id, String name, String email, String password, String role, boolean active,
+                         long version, long epoch) {
+        users.restore(new UserRecord(id, name, email, password, role, active, version, epoch));
+    }
+
+    private void dumpUsers(UserJournal.Target target) {
+        for (Iterator<UserRecord> it = users.iterator(); it.hasNext(); ) {
+            UserRecord user = it.next();
+            target.put(user.id, user.name, user.email, user.password, user.role, user.active, user.version,
+                    user.epoch);
+        }
+    }
+
+    // A record is appended only after it has been swapped in, which is what lets a snapshot dump
+    // the store without locking it; the reply then waits for the group commit. Once an append or
+    // a commit fails the journal refuses every later write, so the caller gets the error and the
+    // change is swapped back out again by commit, or a registration removed again.
+    private long append(UserRecord user) {
+        return journal == null ? 0
+                : journal.put(user.id, user.name, user.email, user.password, user.role, user.active, user.version,
+                        user.epoch);
+    }
+
+    private void awaitDurable(long sequence) {
+        if (journal != null && sequence > 0) {
+            journal.await(sequence);
+        }
+    }
+
+    // Journals a change that has been swapped in from current, restoring current if the journal
+    // fails. The restore is itself a swap and gives way to any later change to the user; that
+    // change fails on the same journal and restores the record it replaced.
+    private void commit(UserRecord current, UserRecord next) {
+        try {
+            awaitDurable(append(next));
+        } catch (RuntimeException e) {
+            if (users.replace(next, current) != UserStore.Result.OK) {
+                LOG.error("user.rollback.skipped", "id", next.id, "version", next.version, "reason", "superseded");
+            }
+            throw e;
+        }
+    }
+
+    public String getStoreStats() {
+        return (journal == null ? "Journal[disabled]" : journal.getStats().toString()) + ", " + users.getStats();
+    }
+
+    // Flushes and stops the journal and the session purge; changes made after this fail and are
+    // taken back. Package private so that it never becomes a remote operation.
+    void close() throws IOException {
+        sessions.shutdown();
+        if (journal != null) {
+            journal.close();
+        }
     }
 
     private void initializeSampleUsers() {
-        users.put("admin", new InternalUser("admin", "Administrator", "admin@library.com", "admin123", "admin"));
-        users.put("user1", new InternalUser("user1", "Amich", "amich@example.com", "pass123", "user"));
-        users.put("user2", new InternalUser("user2", "dali", "dali@example.com", "pass456", "user"));
-        users.put("librarian", new InternalUser("librarian", "ahmed", "staff@library.com", "lib123", "librarian"));
+        users.insert(new UserRecord("admin", "Administrator", "admin@library.com", "admin123", "admin", true, 1));
+        users.insert(new UserRecord("user1", "Amich", "amich@example.com", "pass123", "user", true, 1));
+        users.insert(new UserRecord("user2", "dali", "dali@example.com", "pass456", "user", true, 1));
+        users.insert(new UserRecord("librarian", "ahmed", "staff@library.com", "lib123", "librarian", true, 1));
     }
 
     public Boolean registerUser(String id, String name, String email, String password) {
-        InternalUser newUser = new InternalUser(id, name, email, password, "user");
-        InternalUser existing = users.putIfAbsent(id, newUser);
-        if (existing != null) {
-            System.out.println("[CORBA Server] User already exists: " + id);
-            return false;
+        UserRecord user = new UserRecord(id, name, email, password, "user", true, 1);
+        switch (users.insert(user)) {
+            case EMAIL_TAKEN:
+                LOG.info("user.register.rejected", "reason", "email_taken", "email", email);
+                return false;
+            case EXISTS:
+                LOG.info("user.register.rejected", "reason", "exists", "id", id);
+                return false;
+            default:
+                break;
         }
-        System.out.println("[CORBA Server] Registered new user: " + id);
+        try {
+            awaitDurable(append(user));
+        } catch (RuntimeException e) {
+            if (users.remove(user)) {
+                // A listing or a near cache may have picked the user up in the meantime.
+                usersChanged(id);
+            } else {
+                LOG.error("user.rollback.skipped", "id", id, "version", user.version, "reason", "superseded");
+            }
+            throw e;
+        }
+        usersChanged(id);
+        LOG.info("user.registered", "id", id);
         return true;
     }
 
     public Boolean authenticate(String id, String password) {
-        InternalUser user = users.get(id);
+        UserRecord user = users.get(id);
         if (user == null) {
-            System.out.println("[CORBA Server] Authentication failed - user not found: " + id);
+            LOG.info("auth.failed", "id", id, "reason", "not_found");
             return false;
         }
-        synchronized (user) {
-            if (!user.active) {
-                System.out.println("[CORBA Server] Authentication failed - user inactive: " + id);
-                return false;
-            }
-            boolean success = user.password.equals(password);
-            System.out.println("[CORBA Server] Authentication " + (success ? "successful" : "failed") + " for user: " + id);
-            return success;
+        if (!user.active) {
+            LOG.info("auth.failed", "id", id, "reason", "inactive");
+            return false;
+        }
+        boolean success = user.password.equals(password);
+        if (success) {
+            LOG.info("auth.succeeded", "id", id);
+        } else {
+            LOG.info("auth.failed", "id", id, "reason", "bad_password");
         }
+        return success;
     }
 
-    public UserData getUserInfo(String id) {
-        System.out.println("[CORBA Server] Getting user info for: " + id);
-        InternalUser user = users.get(id);
+    // Returns a signed session token, or an empty string when the credentials are rejected.
+    public String login(String id, String password) {
+        UserRecord user = users.get(id);
         if (user == null) {
-            return new UserData("", "", "", "", false);
+            LOG.info("login.failed", "id", id, "reason", "not_found");
+            return "";
+        }
+        if (!user.active || !user.password.equals(password)) {
+            LOG.info("login.failed", "id", id, "reason", "bad_credentials");
+            return "";
         }
-        return user.toUserData();
+        // Bound to the credentials just checked: if a password change or deletion has already
+        // moved the user on, the token is refused from its first use.
+        LOG.info("login.succeeded", "id", id);
+        return sessions.issue(id, user.epoch);
+    }
+
+    // What a session token must carry to stay valid: the user's current credential epoch, as long
+    // as the user exists and is active. Profile edits keep the epoch and so keep sessions.
+    private long sessionEpoch(String id) {
+        UserRecord user = users.get(id);
+        return user != null && user.active ? user.epoch : -1;
     }
 
-    public UserData[] getAllUsers() {
-        System.out.println("[CORBA Server] Getting all users");
-        List<UserData> result = new ArrayList<>();
-        for (InternalUser user : users.values()) {
-            result.add(user.toUserData());
+    // Returns the user id the token belongs to, or an empty string when it is no longer valid.
+    public String validateToken(String token) {
+        String id = sessions.validate(token);
+        return id != null ? id : "";
+    }
+
+    public Boolean logout(String token) {
+        boolean revoked = sessions.revoke(token);
+        if (revoked) {
+            LOG.info("session.closed");
         }
-        return result.toArray(new UserData[0]);
+        return revoked;
     }
 
-    public Boolean updateUser(String id, String name, String email) {
-        InternalUser user = users.get(id);
-        if (user == null) {
-            System.out.println("[CORBA Server] User not found: " + id);
-            return false;
+    public String getSessionStats() {
+        return sessions.getStats().toString();
+    }
+
+    public UserData getUserInfo(String id) {
+        LOG.info("user.lookup", "id", id);
+        UserRecord user = users.get(id);
+        return user != null ? user.data : NOT_FOUND;
+    }
+
+    // Deactivated users keep their address, as they keep their id.
+    public UserData getUserByEmail(String email) {
+        LOG.info("user.lookup_by_email", "email", email);
+        String key = UserStore.emailKey(email);
+        UserRecord user = key != null ? users.getByEmail(key) : null;
+        return user != null ? user.data : NOT_FOUND;
+    }
+
+    // Streamed like streamAllUsers, but only walks the members of one role.
+    public Iterator<UserData> getUsersByRole(String role) {
+        LOG.info("users.by_role", "role", role);
+        Iterator<UserRecord> members = users.withRole(role);
+        return new Iterator<UserData>() {
+            @Override
+            public boolean hasNext() {
+                return members.hasNext();
+            }
+
+            @Override
+            public UserData next() {
+                return members.next().data;
+            }
+        };
+    }
+
+    public EncodedReply<UserData[]> getAllUsers() {
+        LOG.info("users.list");
+        long generation = usersGeneration.get();
+        AllUsersReply cached = allUsersReply;
+        if (cached != null && cached.generation == generation) {
+            allUsersHits.increment();
+            return cached.reply;
         }
-        synchronized (user) {
-            user.name = name;
-            user.email = email;
+        allUsersMisses.increment();
+        UserData[] result = new UserData[users.size()];
+        int count = 0;
+        for (Iterator<UserRecord> it = users.iterator(); it.hasNext(); ) {
+            if (count == result.length) {
+                result = Arrays.copyOf(result, count * 2 + 1);
+            }
+            result[count++] = it.next().data;
         }
-        System.out.println("[CORBA Server] Updated user: " + id);
-        return true;
+        if (count != result.length) {
+            result = Arrays.copyOf(result, count);
+        }
+        // A write that lands while the list is built bumps the generation, so this reply is
+        // stored already stale and the next call rebuilds it.
+        EncodedReply<UserData[]> reply = new EncodedReply<>(result);
+        allUsersReply = new AllUsersReply(generation, reply);
+        return reply;
     }
 
-    public Boolean deleteUser(String id) {
-        InternalUser user = users.get(id);
-        if (user == null) {
-            System.out.println("[CORBA Server] User not found: " + id);
-            return false;
+    // Rows are built as the client pages through them, from a weakly consistent view of the map,
+    // so neither side ever holds the whole user list.
+    public Iterator<UserData> streamAllUsers() {
+        LOG.info("users.stream");
+        Iterator<UserRecord> all = users.iterator();
+        return new Iterator<UserData>() {
+            @Override
+            public boolean hasNext() {
+                return all.hasNext();
+            }
+
+            @Override
+            public UserData next() {
+                return all.next().data;
+            }
+        };
+    }
+
+    public String getCacheStats() {
+        long hits = allUsersHits.sum();
+        long misses = allUsersMisses.sum();
+        return String.format("AllUsers[hits=%d, misses=%d, hitRate=%.2f], UpdateConflicts[%d]",
+                hits, misses, hits + misses == 0 ? 0.0 : (double) hits / (hits + misses), conflicts.sum());
+    }
+
+    @Override
+    public void setInvalidationListener(Consumer<Object> listener) {
+        this.invalidationListener = listener;
+    }
+
+    private void usersChanged(String id) {
+        usersGeneration.incrementAndGet();
+        userChanged(id);
+    }
+
+    private void userChanged(String id) {
+        Consumer<Object> listener = invalidationListener;
+        if (listener != null) {
+            listener.accept(id);
+        }
+    }
+
+    public Boolean updateUser(String id, String name, String email) {
+        return updateUser(id, ANY_VERSION, name, email);
+    }
+
+    // Applies the change only if the user is still at expectedVersion, the version field of the
+    // UserData the caller edited; an edit based on a stale read is refused rather than
+    // overwriting the change it did not see, and the caller re-reads and retries.
+    public Boolean updateUser(String id, long expectedVersion, String name, String email) {
+        while (true) {
+            UserRecord current = users.get(id);
+            if (current == null) {
+                LOG.info("user.not_found", "id", id, "op", "update");
+                return false;
+            }
+            if (expectedVersion != ANY_VERSION && current.version != expectedVersion) {
+                conflicts.increment();
+                LOG.info("user.update.conflict", "id", id, "expected", expectedVersion, "found", current.version);
+                return false;
+            }
+            UserRecord next = current.withProfile(name, email);
+            switch (users.replace(current, next)) {
+                case OK:
+                    commit(current, next);
+                    usersChanged(id);
+                    LOG.info("user.updated", "id", id, "version", next.version);
+                    return true;
+                case EMAIL_TAKEN:
+                    LOG.info("user.update.rejected", "id", id, "reason", "email_taken", "email", email);
+                    return false;
+                default:
+                    // Lost a race with another write; the next pass re-reads and re-checks the version.
+                    break;
+            }
         }
-        synchronized (user) {
-            user.active = false;
+    }
+
+    public Boolean deleteUser(String id) {
+        UserRecord current;
+        UserRecord next;
+        while (true) {
+            current = users.get(id);
+            if (current == null) {
+                LOG.info("user.not_found", "id", id, "op", "delete");
+                return false;
+            }
+            next = current.deactivated();
+            if (users.replace(current, next) == UserStore.Result.OK) {
+                break;
+            }
         }
-        System.out.println("[CORBA Server] Deactivated user: " + id);
+        commit(current, next);
+        usersChanged(id);
+        LOG.info("user.deactivated", "id", id);
         return true;
     }
 
     public Boolean changePassword(String id, String oldPassword, String newPassword) {
-        InternalUser user = users.get(id);
-        if (user == null) {
-            System.out.println("[CORBA Server] User not found: " + id);
-            return false;
-        }
-        synchronized (user) {
-            if (!user.password.equals(oldPassword)) {
-                System.out.println("[CORBA Server] Password change failed - wrong old password for: " + id);
+        UserRecord current;
+        UserRecord next;
+        while (true) {
+            current = users.get(id);
+            if (current == null) {
+                LOG.info("user.not_found", "id", id, "op", "change_password");
                 return false;
             }
-            user.password = newPassword;
+            if (!current.password.equals(oldPassword)) {
+                LOG.info("password.change.rejected", "id", id, "reason", "wrong_password");
+                return false;
+            }
+            next = current.withPassword(newPassword);
+            if (users.replace(current, next) == UserStore.Result.OK) {
+                break;
+            }
         }
-        System.out.println("[CORBA Server] Password changed for user: " + id);
+        commit(current, next);
+        usersChanged(id);
+        LOG.info("password.changed", "id", id);
         return true;
     }
 
     public Boolean isAdmin(String id) {
-        InternalUser user = users.get(id);
-        if (user == null) {
-            return false;
-        }
-        synchronized (user) {
-            return "admin".equals(user.role);
-        }
+        UserRecord user = users.get(id);
+        return user != null && "admin".equals(user.role);
     }
 }
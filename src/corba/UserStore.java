@@ -0,0 +1,59 @@
+package corba;
+
+import java.util.Iterator;
+import java.util.Locale;
+
+// Where UserServiceServant keeps its users. Reads never block; writes are conditional on the
+// version the caller read, and a store enforces that no two users share an email address.
+interface UserStore {
+    enum Result { OK, EXISTS, EMAIL_TAKEN, CONFLICT }
+
+    UserRecord get(String id);
+
+    // key is an address normalized by emailKey.
+    UserRecord getByEmail(String key);
+
+    Iterator<UserRecord> withRole(String role);
+
+    Iterator<UserRecord> iterator();
+
+    int size();
+
+    // EXISTS if the id is taken, EMAIL_TAKEN if the address is.
+    Result insert(UserRecord user);
+
+    // Swaps next in for current; CONFLICT if the user is no longer at current's version.
+    Result replace(UserRecord current, UserRecord next);
+
+    // Takes back a registration the journal refused. Drops user only while the store still holds
+    // that version of it; false if a later change got there first.
+    boolean remove(UserRecord user);
+
+    // Recovery: keeps user unless the store already holds the same or a later version of it.
+    // Email uniqueness is not checked, since a replay may pass through states that never coexisted.
+    void restore(UserRecord user);
+
+    String getStats();
+
+    // Emails compare case-insensitively; a blank email is not indexed and never conflicts.
+    static String emailKey(String email) {
+        if (email == null) {
+            return null;
+        }
+        String key = email.trim().toLowerCase(Locale.ROOT);
+        return key.isEmpty() ? null : key;
+    }
+
+    // -Duserservice.store=compact selects the columnar store for very large user counts.
+    static UserStore fromProperties() {
+        String kind = System.getProperty("userservice.store", "heap");
+        switch (kind) {
+            case "heap":
+                return new HeapUserStore();
+            case "compact":
+                return new CompactUserStore();
+            default:
+                throw new IllegalArgumentException("Unknown user store: " + kind);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package corba;
+
+import java.io.*;
+
+public interface WireCodec {
+    byte JAVA_SERIALIZATION = 1;
+    byte BINARY = 2;
+
+    byte id();
+
+    String name();
+
+    void encode(Object value, DataOutputStream out) throws IOException;
+
+    Object decode(DataInputStream in) throws IOException;
+
+    static WireCodec forId(byte id) {
+        switch (id) {
+            case JAVA_SERIALIZATION:
+                return JavaSerializationCodec.INSTANCE;
+            case BINARY:
+                return BinaryCodec.INSTANCE;
+            default:
+                return null;
+        }
+    }
+
+    static byte[] defaultPreferences() {
+        String forced = System.getProperty("simpleorb.codec");
+        if ("java".equalsIgnoreCase(forced)) {
+            return new byte[] { JAVA_SERIALIZATION };
+        }
+        if ("binary".equalsIgnoreCase(forced)) {
+            return new byte[] { BINARY };
+        }
+        return new byte[] { BINARY, JAVA_SERIALIZATION };
+    }
+}
@@ -0,0 +1,288 @@
+package rmi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import common.Book;
+
+// Trigram index over lower-cased titles and authors. Each book gets an int id when it is added;
+// every three-character window of its lower-cased text (spaces and punctuation included) maps to
+// a posting list of those ids in ascending order. Any query of three characters or more can only
+// occur in a text containing all of its trigrams, so intersecting their postings gives a superset
+// of the answer whose size follows the rarest trigram rather than the catalog; the caller then
+// checks each candidate with the same contains() test the full scan used.
+//
+// Writers are serialized on the index. Readers take no lock: postings only ever grow at the end,
+// with the new size published through a volatile field after the id is in place. A removed book
+// leaves its id behind as a dead entry until dead ids outnumber live ones, at which point the
+// postings are rewritten with compact ids and swapped in as a whole.
+class BookIndex {
+    enum Field {
+        TITLE {
+            @Override
+            String of(Book book) {
+                return book.getTitle();
+            }
+        },
+        AUTHOR {
+            @Override
+            String of(Book book) {
+                return book.getAuthor();
+            }
+        };
+
+        abstract String of(Book book);
+    }
+
+    static final int GRAM = 3;
+    private static final int MIN_DEAD_FOR_REBUILD = 1024;
+
+    private volatile Generation current = new Generation(16);
+    private int dead;
+    private long indexedChars;
+    private long rebuilds;
+
+    private static final class Postings {
+        int[] ids = new int[2];
+        volatile int size;
+
+        // Only called by the writer; ids are handed out in ascending order, so appending keeps
+        // the list sorted, and a trigram repeated within one text is stored once.
+        void append(int id) {
+            int n = size;
+            if (n > 0 && ids[n - 1] == id) {
+                return;
+            }
+            if (n == ids.length) {
+                ids = Arrays.copyOf(ids, n + (n >> 1));
+            }
+            ids[n] = id;
+            size = n + 1;
+        }
+    }
+
+    private static final class Generation {
+        final Map<String, Integer> idByIsbn = new ConcurrentHashMap<>();
+        final Map<Long, Postings> titles = new ConcurrentHashMap<>();
+        final Map<Long, Postings> authors = new ConcurrentHashMap<>();
+        volatile String[] isbns;
+        int nextId;
+
+        Generation(int capacity) {
+            this.isbns = new String[capacity];
+        }
+
+        Map<Long, Postings> grams(Field field) {
+            return field == Field.TITLE ? titles : authors;
+        }
+
+        int assign(String isbn) {
+            int id = nextId++;
+            String[] table = isbns;
+            if (id == table.length) {
+                table = Arrays.copyOf(table, id * 2);
+            }
+            table[id] = isbn;
+            isbns = table;
+            idByIsbn.put(isbn, id);
+            return id;
+        }
+
+        void index(Field field, String text, int id) {
+            Map<Long, Postings> grams = grams(field);
+            for (int i = 0; i + GRAM <= text.length(); i++) {
+                grams.computeIfAbsent(gram(text, i), g -> new Postings()).append(id);
+            }
+        }
+    }
+
+    private static long gram(String text, int at) {
+        return (long) text.charAt(at) << 32 | (long) text.charAt(at + 1) << 16 | text.charAt(at + 2);
+    }
+
+    synchronized void add(Book book) {
+        Generation g = current;
+        int id = g.assign(book.getIsbn());
+        for (Field field : Field.values()) {
+            String text = field.of(book).toLowerCase();
+            g.index(field, text, id);
+            indexedChars += text.length();
+        }
+    }
+
+    synchronized void remove(Book book) {
+        Generation g = current;
+        Integer id = g.idByIsbn.remove(book.getIsbn());
+        if (id == null) {
+            return;
+        }
+        g.isbns[id] = null;
+        for (Field field : Field.values()) {
+            indexedChars -= field.of(book).toLowerCase().length();
+        }
+        if (++dead >= MIN_DEAD_FOR_REBUILD && dead > g.idByIsbn.size()) {
+            current = compact(g);
+            dead = 0;
+            rebuilds++;
+        }
+    }
+
+    // Copies the live ids into a fresh generation, numbering them in their old order so every
+    // rewritten posting list stays sorted.
+    private static Generation compact(Generation old) {
+        String[] oldIsbns = old.isbns;
+        int[] remap = new int[old.nextId];
+        Generation g = new Generation(Math.max(16, old.idByIsbn.size()));
+        for (int id = 0; id < old.nextId; id++) {
+            String isbn = oldIsbns[id];
+            remap[id] = isbn == null ? -1 : g.assign(isbn);
+        }
+        for (Field field : Field.values()) {
+            for (Map.Entry<Long, Postings> entry : old.grams(field).entrySet()) {
+                Postings source = entry.getValue();
+                Postings target = null;
+                for (int i = 0, n = source.size; i < n; i++) {
+                    int id = remap[source.ids[i]];
+                    if (id >= 0) {
+                        if (target == null) {
+                            target = new Postings();
+                        }
+                        target.append(id);
+                    }
+                }
+                if (target != null) {
+                    g.grams(field).put(entry.getKey(), target);
+                }
+            }
+        }
+        return g;
+    }
+
+    // The ISBNs of the books whose field contains every trigram of the lower-cased query, in the
+    // order they were added; null when the query is shorter than a trigram and cannot be narrowed.
+    List<String> candidates(Field field, String lowerQuery) {
+        int grams = lowerQuery.length() - GRAM + 1;
+        if (grams < 1) {
+            return null;
+        }
+        Generation g = current;
+        Map<Long, Postings> index = g.grams(field);
+        Run[] runs = new Run[grams];
+        for (int i = 0; i < grams; i++) {
+            Postings postings = index.get(gram(lowerQuery, i));
+            if (postings == null) {
+                return new ArrayList<>();
+            }
+            int n = postings.size;
+            runs[i] = new Run(postings.ids, n);
+        }
+        Arrays.sort(runs, (a, b) -> Integer.compare(a.size, b.size));
+        // The shortest run is copied because the intersection narrows it in place; the others are
+        // only read, so they may still be the live posting arrays.
+        int[] ids = Arrays.copyOf(runs[0].ids, runs[0].size);
+        int count = ids.length;
+        for (int i = 1; i < runs.length && count > 0; i++) {
+            count = intersect(ids, count, runs[i].ids, runs[i].size);
+        }
+        String[] isbns = g.isbns;
+        List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int id = ids[i];
+            String isbn = id < isbns.length ? isbns[id] : null;
+            // A stale slot may still name a book that was removed and added again under a new id.
+            Integer live = isbn != null ? g.idByIsbn.get(isbn) : null;
+            if (live != null && live == id) {
+                result.add(isbn);
+            }
+        }
+        return result;
+    }
+
+    // The first size entries of ids, sorted and without duplicates.
+    private static final class Run {
+        final int[] ids;
+        final int size;
+
+        Run(int[] ids, int size) {
+            this.ids = ids;
+            this.size = size;
+        }
+    }
+
+    // Keeps the first count entries of ids that also occur in the first size entries of other, in
+    // place; returns how many. Each probe gallops forward from the last match, so a short list
+    // against a long one costs about short * log(long / short).
+    private static int intersect(int[] ids, int count, int[] other, int size) {
+        int kept = 0;
+        int from = 0;
+        for (int i = 0; i < count && from < size; i++) {
+            int id = ids[i];
+            int step = 1;
+            int hi = from;
+            while (hi < size && other[hi] < id) {
+                from = hi + 1;
+                hi += step;
+                step <<= 1;
+            }
+            int found = Arrays.binarySearch(other, from, Math.min(hi + 1, size), id);
+            if (found >= 0) {
+                ids[kept++] = id;
+                from = found + 1;
+            } else {
+                from = -found - 1;
+            }
+        }
+        return kept;
+    }
+
+    // Walks every posting list, so it costs about as much as a rebuild; for monitoring only.
+    synchronized Stats getStats() {
+        Generation g = current;
+        long grams = 0;
+        long entries = 0;
+        long bytes = 16 + 4L * g.isbns.length;
+        for (Field field : Field.values()) {
+            for (Postings postings : g.grams(field).values()) {
+                grams++;
+                entries += postings.size;
+                // Map node and boxed key, the Postings object, and its int[] at full capacity.
+                bytes += 32 + 24 + 24 + 16 + 4L * postings.ids.length;
+            }
+        }
+        return new Stats(g.idByIsbn.size(), dead, grams, entries, indexedChars, bytes, rebuilds);
+    }
+
+    static class Stats {
+        final int books;
+        final int dead;
+        final long trigrams;
+        final long postings;
+        final long indexedChars;
+        final long estimatedBytes;
+        final long rebuilds;
+
+        Stats(int books, int dead, long trigrams, long postings, long indexedChars, long estimatedBytes,
+              long rebuilds) {
+            this.books = books;
+            this.dead = dead;
+            this.trigrams = trigrams;
+            this.postings = postings;
+            this.indexedChars = indexedChars;
+            this.estimatedBytes = estimatedBytes;
+            this.rebuilds = rebuilds;
+        }
+
+        double bytesPerChar() {
+            return indexedChars == 0 ? 0.0 : (double) estimatedBytes / indexedChars;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("BookIndex[books=%d, dead=%d, trigrams=%d, postings=%d, indexedChars=%d, "
+                            + "estimatedBytes=%d, bytesPerChar=%.2f, rebuilds=%d]",
+                    books, dead, trigrams, postings, indexedChars, estimatedBytes, bytesPerChar(), rebuilds);
+        }
+    }
+}
@@ -4,13 +4,20 @@ import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.List;
 import common.Book;
+import common.BookPage;
 
 public interface BookService extends Remote {
     boolean addBook(Book book) throws RemoteException;
     Book getBook(String isbn) throws RemoteException;
     List<Book> searchByTitle(String title) throws RemoteException;
     List<Book> searchByAuthor(String author) throws RemoteException;
+    // Up to limit distinct titles or authors (field "title" or "author") starting with prefix,
+    // ignoring case and accents, in alphabetical order.
+    List<String> suggest(String prefix, String field, int limit) throws RemoteException;
     List<Book> getAllBooks() throws RemoteException;
+    // One page of the catalog sorted by "title", "author", "year" or "isbn". Pass an empty cursor
+    // for the first page and the page's next cursor for each one after it.
+    BookPage listBooks(String sortKey, String cursor, int pageSize) throws RemoteException;
     boolean removeBook(String isbn) throws RemoteException;
     boolean borrowBook(String isbn, String userId) throws RemoteException;
     boolean returnBook(String isbn) throws RemoteException;
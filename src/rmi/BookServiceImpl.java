@@ -3,114 +3,319 @@ package rmi;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import common.Book;
+import common.BookPage;
+import common.EventLog;
+import common.MethodMetrics;
+import common.MetricsRegistry;
 
 public class BookServiceImpl extends UnicastRemoteObject implements BookService {
     private static final long serialVersionUID = 1L;
-    private Map<String, Book> books;
-    private Map<String, String> borrowedBooks;
+    private static final EventLog LOG = EventLog.forSource("RMI Server");
+    private static final int LOCK_STRIPES = 64;
+    private static final int MAX_SUGGESTIONS = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+
+    // Stored books are never modified once published: a borrow or return puts a copy with the new
+    // availability, so readers go straight to the map without a lock and never see a half-made
+    // change. Writers serialize per ISBN on a striped monitor, which keeps a book and its loan
+    // consistent while changes to unrelated books proceed in parallel.
+    private final Map<String, Book> books = new ConcurrentHashMap<>();
+    private final Map<String, String> borrowedBooks = new ConcurrentHashMap<>();
+    private final transient Object[] locks = new Object[LOCK_STRIPES];
+    private final transient BookIndex index = new BookIndex();
+    private final transient PrefixIndex titleCompletions = new PrefixIndex();
+    private final transient PrefixIndex authorCompletions = new PrefixIndex();
+    private final transient SortIndex orders = new SortIndex();
+
+    private final transient MetricsRegistry metrics = new MetricsRegistry(RMIServer.SERVICE_NAME);
+    private final transient MethodMetrics addBookMetrics = metrics.forMethod(RMIServer.SERVICE_NAME, "addBook");
+    private final transient MethodMetrics getBookMetrics = metrics.forMethod(RMIServer.SERVICE_NAME, "getBook");
+    private final transient MethodMetrics searchByTitleMetrics = metrics.forMethod(RMIServer.SERVICE_NAME, "searchByTitle");
+    private final transient MethodMetrics searchByAuthorMetrics = metrics.forMethod(RMIServer.SERVICE_NAME, "searchByAuthor");
+    private final transient MethodMetrics suggestMetrics = metrics.forMethod(RMIServer.SERVICE_NAME, "suggest");
+    private final transient MethodMetrics getAllBooksMetrics = metrics.forMethod(RMIServer.SERVICE_NAME, "getAllBooks");
+    private final transient MethodMetrics listBooksMetrics = metrics.forMethod(RMIServer.SERVICE_NAME, "listBooks");
+    private final transient MethodMetrics removeBookMetrics = metrics.forMethod(RMIServer.SERVICE_NAME, "removeBook");
+    private final transient MethodMetrics borrowBookMetrics = metrics.forMethod(RMIServer.SERVICE_NAME, "borrowBook");
+    private final transient MethodMetrics returnBookMetrics = metrics.forMethod(RMIServer.SERVICE_NAME, "returnBook");
 
     public BookServiceImpl() throws RemoteException {
-        super();
-        books = new HashMap<>();
-        borrowedBooks = new HashMap<>();
+        super(0, null, RmiTraffic.SERVER_SOCKETS);
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
         initializeSampleBooks();
     }
 
+    // Callers answer a null isbn themselves, as not found: the concurrent maps take no null keys.
+    private Object lockFor(String isbn) {
+        int h = isbn.hashCode();
+        return locks[(h ^ (h >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+    private static Book withAvailability(Book book, boolean available) {
+        Book copy = new Book(book.getIsbn(), book.getTitle(), book.getAuthor(), book.getYear());
+        copy.setAvailable(available);
+        return copy;
+    }
+
     private void initializeSampleBooks() {
-        books.put("978-0-13-468599-1", new Book("978-0-13-468599-1", "Distributed Systems: Concepts and Design", "George Coulouris", 2011));
-        books.put("978-0-13-235088-4", new Book("978-0-13-235088-4", "Computer Networking: A Top-Down Approach", "James Kurose", 2016));
-        books.put("978-0-59-651798-8", new Book("978-0-59-651798-8", "Head First Design Patterns", "Eric Freeman", 2004));
-        books.put("978-0-13-468747-6", new Book("978-0-13-468747-6", "Java: The Complete Reference", "Herbert Schildt", 2018));
-        books.put("978-1-49-195016-0", new Book("978-1-49-195016-0", "Building Microservices", "Sam Newman", 2021));
+        insert(new Book("978-0-13-468599-1", "Distributed Systems: Concepts and Design", "George Coulouris", 2011));
+        insert(new Book("978-0-13-235088-4", "Computer Networking: A Top-Down Approach", "James Kurose", 2016));
+        insert(new Book("978-0-59-651798-8", "Head First Design Patterns", "Eric Freeman", 2004));
+        insert(new Book("978-0-13-468747-6", "Java: The Complete Reference", "Herbert Schildt", 2018));
+        insert(new Book("978-1-49-195016-0", "Building Microservices", "Sam Newman", 2021));
     }
 
-    @Override
-    public synchronized boolean addBook(Book book) throws RemoteException {
-        if (books.containsKey(book.getIsbn())) {
-            System.out.println("[RMI Server] Book with ISBN " + book.getIsbn() + " already exists");
-            return false;
-        }
+    private void insert(Book book) {
         books.put(book.getIsbn(), book);
-        System.out.println("[RMI Server] Added book: " + book.getTitle());
-        return true;
+        indexBook(book);
+    }
+
+    private void indexBook(Book book) {
+        index.add(book);
+        titleCompletions.add(book.getTitle());
+        authorCompletions.add(book.getAuthor());
+        orders.add(book);
+    }
+
+    private void unindexBook(Book book) {
+        index.remove(book);
+        titleCompletions.remove(book.getTitle());
+        authorCompletions.remove(book.getAuthor());
+        orders.remove(book);
+    }
+
+    // Every remote method runs through here, so its latency, failures and request bytes are
+    // recorded in one place, and its reply bytes once RMI has written them.
+    private static <T> T timed(MethodMetrics metrics, Supplier<T> call) {
+        long requestBytes = RmiTraffic.takeRequestBytes();
+        long start = System.nanoTime();
+        boolean failed = false;
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            failed = true;
+            throw e;
+        } finally {
+            metrics.record(System.nanoTime() - start, failed, requestBytes, 0);
+            RmiTraffic.expectReply(metrics);
+        }
+    }
+
+    public String getIndexStats() {
+        return index.getStats() + String.format(", Completions[titles=%d, authors=%d]",
+                titleCompletions.size(), authorCompletions.size());
+    }
+
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public boolean addBook(Book book) throws RemoteException {
+        return timed(addBookMetrics, () -> {
+            // Stores its own copy, so a caller that keeps changing the book it passed in cannot
+            // change the catalog behind the lock.
+            Book stored = withAvailability(book, book.isAvailable());
+            if (stored.getIsbn() == null) {
+                LOG.info("book.add.rejected", "reason", "no_isbn", "title", stored.getTitle());
+                return false;
+            }
+            // The title and author indexes take no nulls; refused here, before the book is visible
+            // in the catalog, rather than half-indexed.
+            if (stored.getTitle() == null || stored.getAuthor() == null) {
+                LOG.info("book.add.rejected", "isbn", stored.getIsbn(), "reason", "no_title_or_author");
+                return false;
+            }
+            synchronized (lockFor(stored.getIsbn())) {
+                if (books.putIfAbsent(stored.getIsbn(), stored) != null) {
+                    LOG.info("book.add.rejected", "isbn", stored.getIsbn(), "reason", "exists");
+                    return false;
+                }
+                indexBook(stored);
+            }
+            LOG.info("book.added", "isbn", stored.getIsbn(), "title", stored.getTitle());
+            return true;
+        });
     }
 
     @Override
     public Book getBook(String isbn) throws RemoteException {
-        System.out.println("[RMI Server] Getting book with ISBN: " + isbn);
-        return books.get(isbn);
+        return timed(getBookMetrics, () -> {
+            LOG.info("book.lookup", "isbn", isbn);
+            return isbn != null ? books.get(isbn) : null;
+        });
     }
 
     @Override
     public List<Book> searchByTitle(String title) throws RemoteException {
-        System.out.println("[RMI Server] Searching books by title: " + title);
-        return books.values().stream()
-                .filter(book -> book.getTitle().toLowerCase().contains(title.toLowerCase()))
-                .collect(Collectors.toList());
+        return timed(searchByTitleMetrics, () -> {
+            LOG.info("book.search", "title", title);
+            return search(BookIndex.Field.TITLE, title);
+        });
     }
 
     @Override
     public List<Book> searchByAuthor(String author) throws RemoteException {
-        System.out.println("[RMI Server] Searching books by author: " + author);
-        return books.values().stream()
-                .filter(book -> book.getAuthor().toLowerCase().contains(author.toLowerCase()))
-                .collect(Collectors.toList());
+        return timed(searchByAuthorMetrics, () -> {
+            LOG.info("book.search", "author", author);
+            return search(BookIndex.Field.AUTHOR, author);
+        });
+    }
+
+    @Override
+    public List<String> suggest(String prefix, String field, int limit) throws RemoteException {
+        return timed(suggestMetrics, () -> {
+            LOG.info("book.suggest", "prefix", prefix, "field", field);
+            PrefixIndex completions = "author".equalsIgnoreCase(field) ? authorCompletions
+                    : "title".equalsIgnoreCase(field) ? titleCompletions : null;
+            if (completions == null || limit <= 0) {
+                return new ArrayList<>();
+            }
+            return completions.complete(prefix, Math.min(limit, MAX_SUGGESTIONS));
+        });
+    }
+
+    // Queries of a trigram or longer are narrowed by the index; shorter ones, which match too
+    // much of the catalog for an index to help, scan it. Either way the final test is the same
+    // lower-cased contains() as always, so the results do not depend on the path taken.
+    private List<Book> search(BookIndex.Field field, String query) {
+        String lowerQuery = query.toLowerCase();
+        List<String> candidates = index.candidates(field, lowerQuery);
+        if (candidates == null) {
+            return books.values().stream()
+                    .filter(book -> field.of(book).toLowerCase().contains(lowerQuery))
+                    .collect(Collectors.toList());
+        }
+        List<Book> result = new ArrayList<>(candidates.size());
+        for (String isbn : candidates) {
+            Book book = books.get(isbn);
+            if (book != null && field.of(book).toLowerCase().contains(lowerQuery)) {
+                result.add(book);
+            }
+        }
+        return result;
     }
 
     @Override
     public List<Book> getAllBooks() throws RemoteException {
-        System.out.println("[RMI Server] Getting all books");
-        return new ArrayList<>(books.values());
+        return timed(getAllBooksMetrics, () -> {
+            LOG.info("books.list");
+            return new ArrayList<>(books.values());
+        });
     }
 
+    // An unknown sort key, or a cursor that is malformed or came from another order, gets an empty
+    // final page rather than silently restarting the listing.
     @Override
-    public synchronized boolean removeBook(String isbn) throws RemoteException {
-        if (books.containsKey(isbn)) {
-            books.remove(isbn);
-            borrowedBooks.remove(isbn);
-            System.out.println("[RMI Server] Removed book with ISBN: " + isbn);
+    public BookPage listBooks(String sortKey, String cursor, int pageSize) throws RemoteException {
+        return timed(listBooksMetrics, () -> {
+            LOG.info("books.page", "sort", sortKey, "size", pageSize);
+            SortIndex.Order order = SortIndex.Order.forName(sortKey);
+            if (order == null) {
+                return new BookPage(new ArrayList<>(), "");
+            }
+            String after = null;
+            if (cursor != null && !cursor.isEmpty()) {
+                after = SortIndex.resumeKey(order, cursor);
+                if (after == null) {
+                    return new BookPage(new ArrayList<>(), "");
+                }
+            }
+            SortIndex.Page page = orders.page(order, after, Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE)));
+            List<Book> result = new ArrayList<>(page.isbns.size());
+            for (String isbn : page.isbns) {
+                // Skips a book removed between reading the order and reading the catalog.
+                Book book = books.get(isbn);
+                if (book != null) {
+                    result.add(book);
+                }
+            }
+            return new BookPage(result, page.more ? SortIndex.cursor(order, page.lastKey) : "");
+        });
+    }
+
+    @Override
+    public boolean removeBook(String isbn) throws RemoteException {
+        return timed(removeBookMetrics, () -> {
+            if (isbn == null) {
+                LOG.info("book.not_found", "isbn", isbn, "op", "remove");
+                return false;
+            }
+            synchronized (lockFor(isbn)) {
+                Book removed = books.remove(isbn);
+                if (removed == null) {
+                    LOG.info("book.not_found", "isbn", isbn, "op", "remove");
+                    return false;
+                }
+                borrowedBooks.remove(isbn);
+                unindexBook(removed);
+            }
+            LOG.info("book.removed", "isbn", isbn);
             return true;
-        }
-        System.out.println("[RMI Server] Book with ISBN " + isbn + " not found");
-        return false;
+        });
     }
 
     @Override
-    public synchronized boolean borrowBook(String isbn, String userId) throws RemoteException {
-        Book book = books.get(isbn);
-        if (book == null) {
-            System.out.println("[RMI Server] Book not found: " + isbn);
-            return false;
-        }
-        if (!book.isAvailable()) {
-            System.out.println("[RMI Server] Book not available: " + isbn);
-            return false;
-        }
-        book.setAvailable(false);
-        borrowedBooks.put(isbn, userId);
-        System.out.println("[RMI Server] Book borrowed by user " + userId + ": " + book.getTitle());
-        return true;
+    public boolean borrowBook(String isbn, String userId) throws RemoteException {
+        return timed(borrowBookMetrics, () -> {
+            if (isbn == null) {
+                LOG.info("book.not_found", "isbn", isbn, "op", "borrow");
+                return false;
+            }
+            Book book;
+            synchronized (lockFor(isbn)) {
+                book = books.get(isbn);
+                if (book == null) {
+                    LOG.info("book.not_found", "isbn", isbn, "op", "borrow");
+                    return false;
+                }
+                if (!book.isAvailable()) {
+                    LOG.info("book.borrow.rejected", "isbn", isbn, "user", userId, "reason", "unavailable");
+                    return false;
+                }
+                // The loan table cannot hold a missing borrower; such a loan goes unrecorded.
+                if (userId != null) {
+                    borrowedBooks.put(isbn, userId);
+                }
+                books.put(isbn, withAvailability(book, false));
+            }
+            LOG.info("book.borrowed", "isbn", isbn, "user", userId, "title", book.getTitle());
+            return true;
+        });
     }
 
     @Override
-    public synchronized boolean returnBook(String isbn) throws RemoteException {
-        Book book = books.get(isbn);
-        if (book == null) {
-            System.out.println("[RMI Server] Book not found: " + isbn);
-            return false;
-        }
-        if (book.isAvailable()) {
-            System.out.println("[RMI Server] Book was not borrowed: " + isbn);
-            return false;
-        }
-        book.setAvailable(true);
-        borrowedBooks.remove(isbn);
-        System.out.println("[RMI Server] Book returned: " + book.getTitle());
-        return true;
+    public boolean returnBook(String isbn) throws RemoteException {
+        return timed(returnBookMetrics, () -> {
+            if (isbn == null) {
+                LOG.info("book.not_found", "isbn", isbn, "op", "return");
+                return false;
+            }
+            Book book;
+            synchronized (lockFor(isbn)) {
+                book = books.get(isbn);
+                if (book == null) {
+                    LOG.info("book.not_found", "isbn", isbn, "op", "return");
+                    return false;
+                }
+                if (book.isAvailable()) {
+                    LOG.info("book.return.rejected", "isbn", isbn, "reason", "not_borrowed");
+                    return false;
+                }
+                books.put(isbn, withAvailability(book, true));
+                borrowedBooks.remove(isbn);
+            }
+            LOG.info("book.returned", "isbn", isbn, "title", book.getTitle());
+            return true;
+        });
     }
 }
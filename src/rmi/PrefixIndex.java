@@ -0,0 +1,65 @@
+package rmi;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+
+// Distinct titles (or authors) in a skip list keyed by their normalized form, for autocomplete.
+// A completion lookup seeks to the prefix and walks forward until it has enough entries or leaves
+// the prefix, so it costs a logarithmic seek plus the entries returned, whatever the catalog size.
+// Each entry counts the books sharing the text and disappears with the last of them.
+class PrefixIndex {
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    private final NavigableMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+
+    private static final class Entry {
+        final String text;
+        final int books;
+
+        Entry(String text, int books) {
+            this.text = text;
+            this.books = books;
+        }
+    }
+
+    // Lower-cased, accents stripped and runs of whitespace folded to one space, so an accented
+    // title completes from its unaccented prefix. Leading space is dropped but a trailing one is
+    // kept, so a prefix ending in a space still means the word before it is complete.
+    static String normalize(String text) {
+        String folded = MARKS.matcher(Normalizer.normalize(text.toLowerCase(Locale.ROOT), Normalizer.Form.NFD)).replaceAll("");
+        folded = SPACES.matcher(folded).replaceAll(" ");
+        return folded.startsWith(" ") ? folded.substring(1) : folded;
+    }
+
+    void add(String text) {
+        entries.merge(normalize(text), new Entry(text, 1), (old, added) -> new Entry(old.text, old.books + 1));
+    }
+
+    void remove(String text) {
+        entries.computeIfPresent(normalize(text), (key, old) -> old.books > 1 ? new Entry(old.text, old.books - 1) : null);
+    }
+
+    // Up to limit completions of prefix in normalized order, each as first written when added.
+    List<String> complete(String prefix, int limit) {
+        String key = normalize(prefix);
+        List<String> result = new ArrayList<>(Math.min(limit, 16));
+        for (Map.Entry<String, Entry> entry : entries.tailMap(key, true).entrySet()) {
+            if (result.size() >= limit || !entry.getKey().startsWith(key)) {
+                break;
+            }
+            result.add(entry.getValue().text);
+        }
+        return result;
+    }
+
+    int size() {
+        return entries.size();
+    }
+}
@@ -17,10 +17,12 @@ public class RMIServer {
             
             Registry registry = LocateRegistry.createRegistry(RMI_PORT);
             registry.rebind(SERVICE_NAME, bookService);
+            bookService.getMetrics().registerMBean();
             
             System.out.println("[RMI Server] Server started successfully!");
             System.out.println("[RMI Server] Service Name: " + SERVICE_NAME);
             System.out.println("[RMI Server] Port: " + RMI_PORT);
+            System.out.println("[RMI Server] Metrics: JMX library:type=Metrics,name=\"" + SERVICE_NAME + "\"");
             System.out.println("[RMI Server] Waiting for client connections...");
             System.out.println("==============================================");
             
@@ -0,0 +1,148 @@
+package rmi;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIServerSocketFactory;
+import common.MethodMetrics;
+
+// Counts the bytes RMI moves for each call, so BookServiceImpl can report per-method traffic the
+// way the ORB does from its frame lengths. JRMP serves one call at a time on a connection's
+// thread: the request is read and unmarshalled on that thread before the method runs, and the
+// reply is marshalled and flushed on it after the method returns. So the bytes a thread has read
+// since the previous call are this call's request, and what it writes up to the next flush is
+// this call's reply.
+final class RmiTraffic {
+    static final RMIServerSocketFactory SERVER_SOCKETS = new ServerSockets();
+
+    private static final class Counters {
+        long read;
+        long written;
+        MethodMetrics pendingReply;
+    }
+
+    private static final ThreadLocal<Counters> COUNTERS = ThreadLocal.withInitial(Counters::new);
+
+    private RmiTraffic() {
+    }
+
+    // Bytes read on this thread since the last call to this method; zero outside an RMI thread.
+    static long takeRequestBytes() {
+        Counters counters = COUNTERS.get();
+        long read = counters.read;
+        counters.read = 0;
+        counters.written = 0;
+        return read;
+    }
+
+    // Charges the bytes this thread writes up to its next flush to the given method.
+    static void expectReply(MethodMetrics metrics) {
+        COUNTERS.get().pendingReply = metrics;
+    }
+
+    private static final class ServerSockets implements RMIServerSocketFactory, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public ServerSocket createServerSocket(int port) throws IOException {
+            return new ServerSocket(port) {
+                @Override
+                public Socket accept() throws IOException {
+                    Socket socket = new MeteredSocket();
+                    implAccept(socket);
+                    return socket;
+                }
+            };
+        }
+
+        // RMI shares a listening port between exports whose factories are equal.
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ServerSockets;
+        }
+
+        @Override
+        public int hashCode() {
+            return ServerSockets.class.hashCode();
+        }
+    }
+
+    private static final class MeteredSocket extends Socket {
+        private InputStream in;
+        private OutputStream out;
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException {
+            if (in == null) {
+                in = new MeteredInput(super.getInputStream());
+            }
+            return in;
+        }
+
+        @Override
+        public synchronized OutputStream getOutputStream() throws IOException {
+            if (out == null) {
+                out = new MeteredOutput(super.getOutputStream());
+            }
+            return out;
+        }
+    }
+
+    private static final class MeteredInput extends FilterInputStream {
+        MeteredInput(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                COUNTERS.get().read++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                COUNTERS.get().read += n;
+            }
+            return n;
+        }
+    }
+
+    private static final class MeteredOutput extends FilterOutputStream {
+        MeteredOutput(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            COUNTERS.get().written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            COUNTERS.get().written += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            Counters counters = COUNTERS.get();
+            if (counters.pendingReply != null) {
+                counters.pendingReply.recordReplyBytes(counters.written);
+                counters.pendingReply = null;
+                counters.written = 0;
+            }
+            out.flush();
+        }
+    }
+}
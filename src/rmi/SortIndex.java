@@ -0,0 +1,134 @@
+package rmi;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import common.Book;
+
+// The catalog in each listing order, as skip lists from a sort key to the ISBN. Every key ends
+// with the ISBN, so keys are unique and ties keep a fixed order. A page resumes strictly after the
+// last key of the previous one: books added or removed elsewhere in the order never make a page
+// repeat or skip the books that stayed, and a call only ever touches one page of entries.
+class SortIndex {
+    enum Order {
+        TITLE {
+            @Override
+            String key(Book book) {
+                return book.getTitle().toLowerCase(Locale.ROOT) + '\0' + book.getIsbn();
+            }
+        },
+        AUTHOR {
+            @Override
+            String key(Book book) {
+                return book.getAuthor().toLowerCase(Locale.ROOT) + '\0' + book.getIsbn();
+            }
+        },
+        YEAR {
+            // Flipping the sign bit makes the hex digits sort like the signed year.
+            @Override
+            String key(Book book) {
+                return String.format("%08x", book.getYear() ^ Integer.MIN_VALUE) + '\0' + book.getIsbn();
+            }
+        },
+        ISBN {
+            @Override
+            String key(Book book) {
+                return book.getIsbn();
+            }
+        };
+
+        abstract String key(Book book);
+
+        // Case-insensitive and independent of the default locale, where "title".toUpperCase()
+        // is not always "TITLE"; null for a missing or unknown name.
+        static Order forName(String name) {
+            if (name == null) {
+                return null;
+            }
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final Map<Order, NavigableMap<String, String>> orders = new EnumMap<>(Order.class);
+
+    SortIndex() {
+        for (Order order : Order.values()) {
+            orders.put(order, new ConcurrentSkipListMap<>());
+        }
+    }
+
+    void add(Book book) {
+        for (Order order : Order.values()) {
+            orders.get(order).put(order.key(book), book.getIsbn());
+        }
+    }
+
+    void remove(Book book) {
+        for (Order order : Order.values()) {
+            orders.get(order).remove(order.key(book));
+        }
+    }
+
+    // One page of ISBNs in the given order, starting after the key a cursor was made from.
+    static final class Page {
+        final List<String> isbns;
+        final String lastKey;
+        final boolean more;
+
+        Page(List<String> isbns, String lastKey, boolean more) {
+            this.isbns = isbns;
+            this.lastKey = lastKey;
+            this.more = more;
+        }
+    }
+
+    Page page(Order order, String afterKey, int limit) {
+        NavigableMap<String, String> entries = orders.get(order);
+        NavigableMap<String, String> rest = afterKey == null ? entries : entries.tailMap(afterKey, false);
+        List<String> isbns = new ArrayList<>(Math.min(limit, 64));
+        String lastKey = null;
+        for (Map.Entry<String, String> entry : rest.entrySet()) {
+            // Seeing one entry past the page tells the client there is more without a last,
+            // empty round trip.
+            if (isbns.size() == limit) {
+                return new Page(isbns, lastKey, true);
+            }
+            isbns.add(entry.getValue());
+            lastKey = entry.getKey();
+        }
+        return new Page(isbns, lastKey, false);
+    }
+
+    // Cursors are opaque to clients: the order's name and the last key, base64url-encoded.
+    static String cursor(Order order, String lastKey) {
+        return ENCODER.encodeToString((order.name() + '\n' + lastKey).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // The key a cursor resumes after, or null when it is malformed or was made for another order.
+    static String resumeKey(Order order, String cursor) {
+        String decoded;
+        try {
+            decoded = new String(DECODER.decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        int separator = decoded.indexOf('\n');
+        if (separator < 0 || !decoded.substring(0, separator).equals(order.name())) {
+            return null;
+        }
+        return decoded.substring(separator + 1);
+    }
+}
@@ -0,0 +1,46 @@
+package common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class EventLogTest {
+    private static final EventLog LOG = EventLog.forSource("EventLogTest");
+
+    private static Thread writer() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("EventLog-writer")) {
+                return thread;
+            }
+        }
+        return null;
+    }
+
+    private static void awaitParked(Thread writer) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writer.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(Thread.State.WAITING, writer.getState());
+    }
+
+    @Test
+    public void anIdleWriterParksUntilTheNextEvent() throws Exception {
+        LOG.error("test.first");
+        EventLog.flush();
+        Thread writer = writer();
+        assertNotNull(writer);
+        // Parked without a timeout rather than polling the empty ring.
+        awaitParked(writer);
+
+        long written = EventLog.getStats().written;
+        for (int round = 0; round < 20; round++) {
+            LOG.error("test.wake", "round", round);
+            EventLog.flush();
+            awaitParked(writer);
+        }
+        assertTrue(EventLog.getStats().written >= written + 20);
+    }
+}
@@ -0,0 +1,76 @@
+package corba;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AdaptiveLimiterTest {
+    private static final long MS = 1000000;
+
+    // Feeds one window of 100 calls, each of the given latency, holding up to concurrent of them
+    // in flight at once.
+    private static void window(AdaptiveLimiter limiter, int concurrent, long latencyNanos) {
+        for (int done = 0; done < 100; ) {
+            int held = 0;
+            while (held < Math.min(concurrent, 100 - done) && limiter.tryAcquire()) {
+                held++;
+            }
+            assertTrue(held > 0);
+            for (int i = 0; i < held; i++) {
+                limiter.release(latencyNanos);
+            }
+            done += held;
+        }
+    }
+
+    @Test
+    public void limitGrowsWhileUsedAtBaselineLatency() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 100, true);
+        for (int i = 0; i < 5; i++) {
+            window(limiter, limiter.getLimit(), MS);
+        }
+        assertTrue("limit " + limiter.getLimit(), limiter.getLimit() > 20);
+        assertEquals(MS, limiter.getBaselineLatencyNanos());
+
+        // An idle server has no reason to raise it further.
+        int limit = limiter.getLimit();
+        window(limiter, 1, MS);
+        assertEquals(limit, limiter.getLimit());
+    }
+
+    @Test
+    public void sustainedOverloadKeepsBackingOffAndRecovers() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(100, 1, 100, true);
+        window(limiter, 100, MS);
+        assertEquals(100, limiter.getLimit());
+
+        int previous = limiter.getLimit();
+        for (int i = 0; i < 20; i++) {
+            window(limiter, previous, 5 * MS);
+            assertTrue("window " + i + " limit " + limiter.getLimit(), limiter.getLimit() < previous);
+            previous = limiter.getLimit();
+        }
+        assertEquals(MS, limiter.getBaselineLatencyNanos());
+
+        for (int i = 0; i < 30; i++) {
+            window(limiter, limiter.getLimit(), MS);
+        }
+        assertEquals(100, limiter.getLimit());
+    }
+
+    @Test
+    public void aSlowerServiceBecomesTheBaselineAtTheMinimumLimit() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(4, 2, 100, true);
+        window(limiter, 4, MS);
+        for (int i = 0; i < 200; i++) {
+            window(limiter, limiter.getLimit(), 5 * MS);
+        }
+        assertTrue(limiter.getBaselineLatencyNanos() > 4 * MS);
+        // Latency at the new level is no longer treated as overload.
+        for (int i = 0; i < 10; i++) {
+            window(limiter, limiter.getLimit(), 5 * MS);
+        }
+        assertTrue("limit " + limiter.getLimit(), limiter.getLimit() > 2);
+    }
+}
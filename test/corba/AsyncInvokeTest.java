@@ -0,0 +1,63 @@
+package corba;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AsyncInvokeTest {
+    public static class EchoServant {
+        public String echo(String value, Integer delayMs) throws InterruptedException {
+            Thread.sleep(delayMs);
+            return value;
+        }
+
+        public String fail(String message) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    private void repliesMatchTheirRequests(SimpleORB.Transport transport) throws Exception {
+        try (OrbFixture server = new OrbFixture(transport).serve("Echo", new EchoServant())) {
+            SimpleORB.Stub stub = server.stub("Echo");
+            try {
+                // Earlier calls sleep longer, so replies come back in roughly reverse order.
+                List<CompletableFuture<String>> futures = new ArrayList<>();
+                for (int i = 0; i < 40; i++) {
+                    futures.add(stub.invokeAsync("echo", "call-" + i, (40 - i) % 8 * 5));
+                }
+                CompletableFuture<String> failing = stub.invokeAsync("fail", "boom");
+                for (int i = 0; i < futures.size(); i++) {
+                    assertEquals("call-" + i, futures.get(i).get(10, TimeUnit.SECONDS));
+                }
+                try {
+                    failing.get(10, TimeUnit.SECONDS);
+                    fail("expected the servant's exception");
+                } catch (ExecutionException e) {
+                    assertTrue(String.valueOf(e.getCause()), e.getCause().getMessage().contains("boom"));
+                }
+                assertEquals(0, stub.getPendingAsyncCalls());
+                // Synchronous calls still work alongside the multiplexed connection.
+                assertEquals("sync", stub.invoke("echo", "sync", 0));
+            } finally {
+                stub.close();
+            }
+        }
+    }
+
+    @Test
+    public void pipelinedRepliesMatchTheirRequestsOnBlockingTransport() throws Exception {
+        repliesMatchTheirRequests(SimpleORB.Transport.BLOCKING);
+    }
+
+    @Test
+    public void pipelinedRepliesMatchTheirRequestsOnNioTransport() throws Exception {
+        repliesMatchTheirRequests(SimpleORB.Transport.NIO);
+    }
+}
@@ -0,0 +1,163 @@
+package corba;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import common.Book;
+
+public class BinaryCodecTest {
+    private static byte[] encode(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        BinaryCodec.INSTANCE.encode(value, out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Object decode(byte[] bytes) throws IOException {
+        return BinaryCodec.INSTANCE.decode(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    private static Object roundTrip(Object value) throws IOException {
+        return decode(encode(value));
+    }
+
+    @Test
+    public void scalarsRoundTrip() throws Exception {
+        assertNull(roundTrip(null));
+        assertEquals("", roundTrip(""));
+        assertEquals("héllo wörld", roundTrip("héllo wörld"));
+        assertEquals(Boolean.TRUE, roundTrip(true));
+        assertEquals(Integer.MIN_VALUE, roundTrip(Integer.MIN_VALUE));
+        assertEquals(-1L, roundTrip(-1L));
+        assertEquals(Long.MAX_VALUE, roundTrip(Long.MAX_VALUE));
+        assertEquals(2.5, roundTrip(2.5));
+        assertEquals(1.5f, roundTrip(1.5f));
+        assertEquals((short) -7, roundTrip((short) -7));
+        assertEquals((byte) 3, roundTrip((byte) 3));
+        assertEquals('x', roundTrip('x'));
+    }
+
+    @Test
+    public void primitiveArraysRoundTrip() throws Exception {
+        assertArrayEquals(new byte[] { 1, -2, 3 }, (byte[]) roundTrip(new byte[] { 1, -2, 3 }));
+        assertArrayEquals(new int[] { 0, -1, Integer.MAX_VALUE }, (int[]) roundTrip(new int[] { 0, -1, Integer.MAX_VALUE }));
+        assertArrayEquals(new long[] { Long.MIN_VALUE, 5 }, (long[]) roundTrip(new long[] { Long.MIN_VALUE, 5 }));
+        assertArrayEquals(new double[] { 0.1, -3 }, (double[]) roundTrip(new double[] { 0.1, -3 }), 0.0);
+    }
+
+    @Test
+    public void typedArraysKeepTheirComponentType() throws Exception {
+        String[] strings = (String[]) roundTrip(new String[] { "a", null, "c" });
+        assertArrayEquals(new String[] { "a", null, "c" }, strings);
+
+        UserData[] users = (UserData[]) roundTrip(new UserData[] { new UserData("u1", "Ann", "a@x", "user", true, 3), null });
+        assertEquals("Ann", users[0].name);
+        assertEquals(3, users[0].version);
+        assertNull(users[1]);
+
+        Integer[] ints = (Integer[]) roundTrip(new Integer[] { 1, null, 3 });
+        assertArrayEquals(new Integer[] { 1, null, 3 }, ints);
+
+        Book[] books = (Book[]) roundTrip(new Book[] { new Book("isbn", "Title", "Author", 2001) });
+        assertEquals("Title", books[0].getTitle());
+
+        String[][] nested = (String[][]) roundTrip(new String[][] { { "a" }, { "b", "c" } });
+        assertEquals("c", nested[1][1]);
+
+        Object[] mixed = (Object[]) roundTrip(new Object[] { "a", 1, new int[] { 2 } });
+        assertSame(Object[].class, mixed.getClass());
+        assertEquals(1, mixed[1]);
+    }
+
+    @Test
+    public void collectionsAndValuesRoundTrip() throws Exception {
+        List<Object> list = Arrays.asList("a", 2, null, Arrays.asList(3L));
+        assertEquals(list, roundTrip(list));
+
+        Map<Object, Object> map = new LinkedHashMap<>();
+        map.put("k", new UserData("u2", "Bob", "b@x", "admin", false, 9).toString());
+        map.put(7, null);
+        assertEquals(map, roundTrip(map));
+
+        ResultPage page = (ResultPage) roundTrip(new ResultPage(42, new UserData[] { new UserData("u3", "C", "c@x", "user", true, 1) }, false));
+        assertEquals(42, page.cursorId);
+        assertTrue(page.rows instanceof UserData[]);
+        assertEquals("u3", ((UserData) page.rows[0]).id);
+
+        // Unregistered types travel as embedded Java serialization.
+        Book book = (Book) roundTrip(new Book("isbn-9", "T", "A", 1999));
+        assertEquals("isbn-9", book.getIsbn());
+    }
+
+    private static class NoMessageConstructor extends Exception {
+        NoMessageConstructor() {
+            super("fixed");
+        }
+    }
+
+    @Test
+    public void exceptionsKeepTheirTypeWhenTheClassIsAvailable() throws Exception {
+        Object decoded = roundTrip(new IllegalArgumentException("bad argument"));
+        assertSame(IllegalArgumentException.class, decoded.getClass());
+        assertEquals("bad argument", ((Exception) decoded).getMessage());
+
+        decoded = roundTrip(new java.io.FileNotFoundException("missing"));
+        assertSame(java.io.FileNotFoundException.class, decoded.getClass());
+
+        decoded = roundTrip(new NoMessageConstructor());
+        assertSame(OrbException.class, decoded.getClass());
+        assertEquals(NoMessageConstructor.class.getName(), ((OrbException) decoded).getRemoteType());
+        assertEquals("fixed", ((OrbException) decoded).getMessage());
+
+        decoded = roundTrip(new OutOfMemoryError("not rebuilt"));
+        assertSame(OrbException.class, decoded.getClass());
+    }
+
+    private static void assertCorrupt(byte[] bytes) throws IOException {
+        try {
+            decode(bytes);
+            fail("expected a corrupt stream to be rejected");
+        } catch (StreamCorruptedException expected) {
+        }
+    }
+
+    @Test
+    public void wireLengthsAreCappedBeforeAllocating() throws Exception {
+        byte[] huge = { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 };
+        for (byte tag : new byte[] { 1, 11, 12, 13, 14, 16, 17, 20 }) {
+            byte[] bytes = new byte[1 + huge.length];
+            bytes[0] = tag;
+            System.arraycopy(huge, 0, bytes, 1, huge.length);
+            assertCorrupt(bytes);
+        }
+        // An Object[] and a String[] claiming 2^31 - 1 elements.
+        assertCorrupt(new byte[] { 15, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 });
+        assertCorrupt(new byte[] { 15, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 });
+    }
+
+    @Test
+    public void arrayElementsMustMatchTheirComponentType() throws Exception {
+        byte[] bytes = encode(new Integer[] { 1 });
+        // Swap the element's INT tag for a STRING one holding an empty string.
+        byte[] tampered = Arrays.copyOf(bytes, bytes.length);
+        tampered[tampered.length - 2] = 1;
+        tampered[tampered.length - 1] = 1;
+        assertCorrupt(tampered);
+    }
+}
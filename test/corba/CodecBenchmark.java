@@ -0,0 +1,72 @@
+package corba;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// Encode+decode round trip of typical SimpleORB bodies under each codec, one thread, through the
+// same unsynchronized buffers FramedStream encodes into and decodes from. Run with
+//   mvn -q test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=corba.CodecBenchmark
+public class CodecBenchmark {
+    private static final long WARMUP_NS = 2_000_000_000L;
+    private static final long MEASURE_NS = 3_000_000_000L;
+
+    private static final FramedStream.ExposedByteArrayOutputStream bytes = new FramedStream.ExposedByteArrayOutputStream(256);
+    private static final DataOutputStream out = new DataOutputStream(bytes);
+    private static final FramedStream.ByteArrayInput input = new FramedStream.ByteArrayInput();
+    private static final DataInputStream in = new DataInputStream(input);
+    private static Object sink;
+
+    public static void main(String[] args) throws Exception {
+        UserData user = new UserData("user1", "Regular User", "user1@library.com", "user", true, 4);
+        UserData[] users = new UserData[1000];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = new UserData("user" + i, "User " + i, "user" + i + "@library.com", i % 10 == 0 ? "admin" : "user", true, i);
+        }
+        Object[][] cases = {
+                { "request envelope", new Object[] { "UserService", "getUser", new Object[] { "user1" } } },
+                { "Boolean reply", Boolean.TRUE },
+                { "UserData", user },
+                { "UserData[1000]", users },
+        };
+        WireCodec[] codecs = { JavaSerializationCodec.INSTANCE, BinaryCodec.INSTANCE };
+
+        System.out.printf("%-18s", "value");
+        for (WireCodec codec : codecs) {
+            System.out.printf("%24s", codec.name() + " bytes / ns");
+        }
+        System.out.println();
+        for (Object[] c : cases) {
+            System.out.printf("%-18s", c[0]);
+            for (WireCodec codec : codecs) {
+                int length = encode(codec, c[1]);
+                run(codec, c[1], WARMUP_NS);
+                System.out.printf("%24s", length + " / " + run(codec, c[1], MEASURE_NS));
+            }
+            System.out.println();
+        }
+    }
+
+    private static int encode(WireCodec codec, Object value) throws IOException {
+        bytes.reset();
+        codec.encode(value, out);
+        out.flush();
+        return bytes.size();
+    }
+
+    // Mean nanoseconds per round trip over roughly the given time.
+    private static long run(WireCodec codec, Object value, long durationNs) throws IOException {
+        long start = System.nanoTime();
+        long deadline = start + durationNs;
+        long iterations = 0;
+        long now;
+        do {
+            for (int i = 0; i < 100; i++) {
+                input.reset(bytes.buffer(), 0, encode(codec, value));
+                sink = codec.decode(in);
+            }
+            iterations += 100;
+        } while ((now = System.nanoTime()) < deadline);
+        return (now - start) / iterations;
+    }
+}
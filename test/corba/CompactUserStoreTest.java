@@ -0,0 +1,110 @@
+package corba;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class CompactUserStoreTest {
+    private static void assertSameUser(UserRecord expected, UserRecord actual) {
+        assertEquals(expected.id, actual.id);
+        assertEquals(expected.name, actual.name);
+        assertEquals(expected.email, actual.email);
+        assertEquals(expected.password, actual.password);
+        assertEquals(expected.role, actual.role);
+        assertEquals(expected.active, actual.active);
+        assertEquals(expected.version, actual.version);
+    }
+
+    @Test
+    public void namesAndEmailsRoundTripWhetherCodedOrInline() {
+        CompactUserStore store = new CompactUserStore();
+        String[][] odd = {
+                { "Ann Lee", "ann@example.com" },
+                { "  Ann   Lee ", "ANN.LEE@Example.com" },
+                { "", "" },
+                { null, null },
+                { "Zoë Ünal-Çelik", "zoë@exämple.com" },
+                { "Lee", "a@b@example.com" },
+                { "Ann Lee", "no-at-sign" },
+                { "Ann Lee", "trailing@" },
+                { "Ann Lee", "@example.com" },
+        };
+        UserRecord[] users = new UserRecord[odd.length * 3];
+        // Three rounds so every word and domain is seen inline first and coded afterwards.
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < odd.length; i++) {
+                String email = odd[i][1] == null || round == 0 ? odd[i][1] : round + odd[i][1];
+                UserRecord user = new UserRecord("u" + round + "-" + i, odd[i][0], email, "pw" + i,
+                        i % 2 == 0 ? "user" : "admin", i % 3 != 0, round + 1);
+                assertEquals(UserStore.Result.OK, store.insert(user));
+                users[round * odd.length + i] = user;
+            }
+        }
+        assertTrue(store.dictionarySize() > 0);
+        for (UserRecord user : users) {
+            assertSameUser(user, store.get(user.id));
+        }
+        assertEquals("u0-0", store.getByEmail("ann@example.com").id);
+        assertEquals("u2-5", store.getByEmail("2a@b@example.com").id);
+    }
+
+    @Test
+    public void repeatedWordsAndDomainsAreStoredOnce() {
+        CompactUserStore store = new CompactUserStore();
+        for (int i = 0; i < 1000; i++) {
+            store.insert(new UserRecord("user" + i, "Margaret Richardson", "user" + i + "@library.example.com", "pw",
+                    "user", true, 1));
+        }
+        assertEquals(3, store.dictionarySize());
+        assertEquals("Margaret Richardson", store.get("user999").name);
+    }
+
+    @Test
+    public void compactionKeepsReadsConsistentAndReusesChunkSlots() throws Exception {
+        CompactUserStore store = new CompactUserStore(1024, 4096);
+        int users = 100;
+        for (int i = 0; i < users; i++) {
+            store.insert(new UserRecord("id" + i, "Name 0", "id" + i + "@example.com", "pw", "user", true, 1));
+        }
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicInteger bad = new AtomicInteger();
+        Thread reader = new Thread(() -> {
+            while (!stop.get()) {
+                for (int i = 0; i < users; i++) {
+                    UserRecord user = store.get("id" + i);
+                    // Every version of a user carries its own version number in its name.
+                    if (user == null || !user.name.equals("Name " + (user.version - 1))
+                            || !user.email.equals("id" + i + "@example.com")) {
+                        bad.incrementAndGet();
+                    }
+                }
+            }
+        });
+        reader.start();
+        int slotsAfterFirstRounds = 0;
+        for (int round = 1; round <= 300; round++) {
+            for (int i = 0; i < users; i++) {
+                UserRecord current = store.get("id" + i);
+                assertEquals(UserStore.Result.OK, store.replace(current, new UserRecord(current.id, "Name " + round,
+                        current.email, current.password, current.role, current.active, current.version + 1)));
+            }
+            if (round == 50) {
+                slotsAfterFirstRounds = store.chunkSlots();
+            }
+        }
+        stop.set(true);
+        reader.join();
+
+        assertEquals(0, bad.get());
+        assertTrue(store.getStats(), store.getStats().contains("compactions="));
+        assertTrue(store.getStats(), !store.getStats().contains("compactions=0]"));
+        // Without reuse every compaction would append fresh slots to the array.
+        assertTrue(store.getStats(), store.chunkSlots() <= slotsAfterFirstRounds + 2);
+        for (int i = 0; i < users; i++) {
+            assertEquals("Name 300", store.get("id" + i).name);
+        }
+    }
+}
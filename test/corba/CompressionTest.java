@@ -0,0 +1,96 @@
+package corba;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class CompressionTest {
+    private static byte[] text(int size, long seed) {
+        Random random = new Random(seed);
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) ('a' + random.nextInt(6));
+        }
+        return bytes;
+    }
+
+    private static byte[] roundTrip(byte[] payload) throws Exception {
+        FramedStream.ExposedByteArrayOutputStream deflated = new FramedStream.ExposedByteArrayOutputStream(256);
+        int length = Compression.current().deflate(payload, payload.length, deflated);
+        assertEquals(payload.length, Compression.inflatedLength(deflated.buffer(), 0, length));
+        byte[] inflated = new byte[payload.length];
+        Compression.current().inflate(deflated.buffer(), 0, length, inflated, payload.length);
+        return inflated;
+    }
+
+    @Test
+    public void payloadsOfEverySizeRoundTrip() throws Exception {
+        for (int size : new int[] { 0, 1, 100, Compression.THRESHOLD, 200 * 1024 }) {
+            byte[] payload = text(size, size);
+            assertArrayEquals(payload, roundTrip(payload));
+            assertEquals(size, Compression.current().lastPayloadBytes);
+        }
+    }
+
+    @Test
+    public void corruptStreamsAreRefused() throws Exception {
+        byte[] payload = text(20000, 1);
+        FramedStream.ExposedByteArrayOutputStream deflated = new FramedStream.ExposedByteArrayOutputStream(256);
+        int length = Compression.current().deflate(payload, payload.length, deflated);
+        byte[] truncated = Arrays.copyOf(deflated.buffer(), length / 2);
+        try {
+            Compression.current().inflate(truncated, 0, truncated.length, new byte[payload.length], payload.length);
+            fail("expected a truncated stream to be refused");
+        } catch (StreamCorruptedException expected) {
+        }
+        // The pair that saw the failure went back to the pool in a usable state.
+        assertArrayEquals(payload, roundTrip(payload));
+    }
+
+    @Test
+    public void moreThreadsThanPooledPairsShareThemSafely() throws Exception {
+        int threads = Compression.POOL_SIZE * 3;
+        AtomicInteger mismatches = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            workers.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 50; i++) {
+                        byte[] payload = text(16 * 1024 + i, seed * 100 + i);
+                        if (!Arrays.equals(payload, roundTrip(payload))) {
+                            mismatches.incrementAndGet();
+                        }
+                    }
+                } catch (Exception e) {
+                    mismatches.incrementAndGet();
+                }
+            }));
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(0, mismatches.get());
+    }
+
+    @Test
+    public void endingThePoolLeavesCompressionUsable() throws Exception {
+        byte[] payload = text(30000, 7);
+        assertArrayEquals(payload, roundTrip(payload));
+        Compression.endPooled();
+        assertArrayEquals(payload, roundTrip(payload));
+        assertTrue(Compression.current().lastWireBytes < payload.length);
+    }
+}
@@ -0,0 +1,50 @@
+package corba;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Path;
+import org.junit.Test;
+
+public class DispatchTableTest {
+    @Test
+    public void invalidationHookIsNotDispatched() {
+        DispatchTable table = new DispatchTable(new UserServiceServant((Path) null));
+        assertFalse(table.getMethodNames().contains("setInvalidationListener"));
+        assertTrue(table.getMethodNames().contains("getUserInfo"));
+        Object result = table.invoke("setInvalidationListener", new Object[] { null });
+        assertTrue(String.valueOf(result), result instanceof Exception);
+    }
+
+    @Test
+    public void remoteClientCannotSilenceNearCacheInvalidations() throws Exception {
+        try (OrbFixture server = new OrbFixture(SimpleORB.Transport.BLOCKING)
+                .serve("UserService", new UserServiceServant((Path) null))) {
+            SimpleORB.Stub cached = server.stub("UserService");
+            SimpleORB.Stub writer = server.stub("UserService");
+            try {
+                cached.enableNearCache(100, 60000, "getUserInfo");
+                String before = cached.<UserData>invoke("getUserInfo", "user1").name;
+                try {
+                    writer.invoke("setInvalidationListener", new Object[] { null });
+                    fail("the listener hook must not be remotely callable");
+                } catch (Exception expected) {
+                }
+                assertTrue(writer.<Boolean>invoke("updateUser", "user1", "Renamed", "user1@library.com"));
+
+                long deadline = System.currentTimeMillis() + 5000;
+                String after = before;
+                while (!after.equals("Renamed") && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(20);
+                    after = cached.<UserData>invoke("getUserInfo", "user1").name;
+                }
+                assertEquals("Renamed", after);
+            } finally {
+                cached.close();
+                writer.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package corba;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import org.junit.Test;
+
+public class NearCacheTest {
+    // Holds back its invalidations until the test releases them, standing in for a push that is
+    // still on its way when the writer's reply arrives.
+    public static class LateInvalidationServant implements InvalidatingServant {
+        private final Map<String, String> values = new ConcurrentHashMap<>();
+        private final List<Object> held = new ArrayList<>();
+        private volatile Consumer<Object> listener = key -> { };
+
+        @Override
+        public void setInvalidationListener(Consumer<Object> listener) {
+            this.listener = listener;
+        }
+
+        public String get(String key) {
+            return values.getOrDefault(key, "");
+        }
+
+        public Boolean put(String key, String value) {
+            values.put(key, value);
+            synchronized (held) {
+                held.add(key);
+            }
+            return Boolean.TRUE;
+        }
+
+        int release() {
+            synchronized (held) {
+                int released = held.size();
+                held.forEach(listener);
+                held.clear();
+                return released;
+            }
+        }
+    }
+
+    // Pushes are delivered on another thread; waits until the stub has applied them.
+    private static void releaseAndAwait(LateInvalidationServant servant, SimpleORB.Stub stub) throws Exception {
+        long target = stub.getNearCacheStats().invalidations + servant.release();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (stub.getNearCacheStats().invalidations < target && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(target, stub.getNearCacheStats().invalidations);
+    }
+
+    @Test
+    public void aStubReadsItsOwnWriteBeforeTheInvalidationArrives() throws Exception {
+        LateInvalidationServant servant = new LateInvalidationServant();
+        try (OrbFixture server = new OrbFixture(SimpleORB.Transport.BLOCKING).serve("Values", servant)) {
+            SimpleORB.Stub stub = server.stub("Values");
+            try {
+                stub.enableNearCache(100, 60000, "get");
+                stub.invoke("put", "a", "1");
+                stub.invoke("put", "b", "1");
+                releaseAndAwait(servant, stub);
+                assertEquals("1", stub.invoke("get", "a"));
+                assertEquals("1", stub.invoke("get", "b"));
+
+                assertTrue(stub.<Boolean>invoke("put", "a", "2"));
+                assertEquals("2", stub.invoke("get", "a"));
+                // Only the written key was dropped.
+                long hits = stub.getNearCacheStats().hits;
+                assertEquals("1", stub.invoke("get", "b"));
+                assertEquals(hits + 1, stub.getNearCacheStats().hits);
+
+                stub.invokeAsync("put", "a", "3").get();
+                assertEquals("3", stub.invoke("get", "a"));
+
+                stub.invokeBatch(Arrays.asList(new SimpleORB.Call("put", "b", "4")));
+                assertEquals("4", stub.invoke("get", "b"));
+            } finally {
+                stub.close();
+            }
+        }
+    }
+
+    @Test
+    public void userUpdatesAreVisibleToTheSameStubAtOnce() throws Exception {
+        try (OrbFixture server = new OrbFixture(SimpleORB.Transport.NIO)
+                .serve("UserService", new UserServiceServant((Path) null))) {
+            SimpleORB.Stub stub = server.stub("UserService");
+            try {
+                stub.enableNearCache(100, 60000, "getUserInfo");
+                for (int i = 0; i < 50; i++) {
+                    stub.<UserData>invoke("getUserInfo", "user1");
+                    String name = "Renamed " + i;
+                    assertTrue(stub.<Boolean>invoke("updateUser", "user1", name, "user1@library.com"));
+                    assertEquals(name, stub.<UserData>invoke("getUserInfo", "user1").name);
+                }
+            } finally {
+                stub.close();
+            }
+        }
+    }
+}
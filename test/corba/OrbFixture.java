@@ -0,0 +1,39 @@
+package corba;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+// A SimpleORB serving on a free local port from a daemon thread, for tests. The request limit is
+// fixed rather than sized from the cores, so a burst of test calls is never shed as overload.
+class OrbFixture implements AutoCloseable {
+    final SimpleORB orb = new SimpleORB();
+    final int port;
+
+    OrbFixture(SimpleORB.Transport transport) throws IOException {
+        this.port = freePort();
+        orb.init(port, transport, ExecutionStrategy.bounded(8, 256).withFixedLimit());
+        Thread t = new Thread(orb::run, "OrbFixture-" + port);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    OrbFixture serve(String name, Object servant) {
+        orb.registerServant(name, servant);
+        return this;
+    }
+
+    SimpleORB.Stub stub(String name) {
+        return new SimpleORB.Stub("localhost", port, name);
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @Override
+    public void close() {
+        orb.shutdown();
+    }
+}
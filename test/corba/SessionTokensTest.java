@@ -0,0 +1,93 @@
+package corba;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SessionTokensTest {
+    private static final byte[] KEY = "0123456789abcdef0123456789abcdef".getBytes();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void clearKey() {
+        System.clearProperty("userservice.tokenKey");
+    }
+
+    @Test
+    public void tokenIsBoundToTheCredentialEpoch() throws Exception {
+        Map<String, Long> epochs = new HashMap<>();
+        epochs.put("ann", 3L);
+        SessionTokens tokens = new SessionTokens(KEY, 60000, id -> epochs.getOrDefault(id, -1L));
+        try {
+            String token = tokens.issue("ann", 3);
+            assertEquals("ann", tokens.validate(token));
+            epochs.put("ann", 4L);
+            assertNull(tokens.validate(token));
+            assertNull(tokens.validate(tokens.issue("ann", 3)));
+            assertEquals("ann", tokens.validate(tokens.issue("ann", 4)));
+            epochs.remove("ann");
+            assertNull(tokens.validate(tokens.issue("ann", 4)));
+        } finally {
+            tokens.shutdown();
+        }
+    }
+
+    @Test
+    public void forgedExpiredAndLoggedOutTokensAreRejected() throws Exception {
+        SessionTokens tokens = new SessionTokens(KEY, 60000, id -> 1L);
+        SessionTokens otherKey = new SessionTokens("another key, also thirty-two by".getBytes(), 60000, id -> 1L);
+        SessionTokens expired = new SessionTokens(KEY, -1, id -> 1L);
+        try {
+            String token = tokens.issue("bob", 1);
+            assertNull(tokens.validate(otherKey.issue("bob", 1)));
+            assertNull(tokens.validate(token.substring(0, token.indexOf('.')) + ".AAAA"));
+            assertNull(tokens.validate("garbage"));
+            assertNull(tokens.validate(null));
+            assertNull(tokens.validate(expired.issue("bob", 1)));
+            assertTrue(tokens.revoke(token));
+            assertNull(tokens.validate(token));
+        } finally {
+            tokens.shutdown();
+            otherKey.shutdown();
+            expired.shutdown();
+        }
+    }
+
+    @Test
+    public void revocationSurvivesARestartAndHoldsOnAnotherProcessWithTheKey() throws Exception {
+        System.setProperty("userservice.tokenKey", Base64.getEncoder().encodeToString(KEY));
+        Path dir = folder.newFolder("users").toPath();
+        UserServiceServant first = new UserServiceServant(new HeapUserStore(), dir);
+        String kept = first.login("user2", "pass456");
+        String changed = first.login("user1", "pass123");
+        String deleted = first.login("librarian", "lib123");
+        assertEquals("user1", first.validateToken(changed));
+        // Profile edits leave sessions alone; only credential changes end them.
+        assertTrue(first.updateUser("user2", "Dali", "dali@example.org"));
+        assertEquals("user2", first.validateToken(kept));
+        assertTrue(first.changePassword("user1", "pass123", "new-password"));
+        assertTrue(first.deleteUser("librarian"));
+        assertEquals("", first.validateToken(changed));
+        assertEquals("", first.validateToken(deleted));
+
+        // A second process recovering the same journal with the same key, as after a restart.
+        UserServiceServant second = new UserServiceServant(new HeapUserStore(), dir);
+        assertEquals("user2", second.validateToken(kept));
+        assertEquals("", second.validateToken(changed));
+        assertEquals("", second.validateToken(deleted));
+        assertEquals("user1", second.validateToken(second.login("user1", "new-password")));
+        first.close();
+        second.close();
+    }
+}
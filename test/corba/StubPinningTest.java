@@ -0,0 +1,76 @@
+package corba;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class StubPinningTest {
+    private static ObjectReference reference(int... ports) {
+        ObjectReference.Endpoint[] endpoints = new ObjectReference.Endpoint[ports.length];
+        for (int i = 0; i < ports.length; i++) {
+            endpoints[i] = new ObjectReference.Endpoint("localhost", ports[i]);
+        }
+        return new ObjectReference(Arrays.asList(endpoints), "UserService");
+    }
+
+    private static boolean hasUser(OrbFixture node, String id) throws Exception {
+        SimpleORB.Stub stub = node.stub("UserService");
+        try {
+            return !stub.<UserData>invoke("getUserInfo", id).id.isEmpty();
+        } finally {
+            stub.close();
+        }
+    }
+
+    @Test
+    public void callsStayOnOneReplicaUnlessBalanced() throws Exception {
+        try (OrbFixture a = new OrbFixture(SimpleORB.Transport.BLOCKING).serve("UserService", new UserServiceServant((Path) null));
+             OrbFixture b = new OrbFixture(SimpleORB.Transport.NIO).serve("UserService", new UserServiceServant((Path) null))) {
+            SimpleORB.Stub stub = new SimpleORB.Stub(reference(a.port, b.port));
+            try {
+                assertTrue(stub.<Boolean>invoke("registerUser", "pinned", "Pinned", "pinned@example.com", "secret"));
+                for (int i = 0; i < 50; i++) {
+                    assertEquals("Pinned", stub.<UserData>invoke("getUserInfo", "pinned").name);
+                }
+                String token = stub.invoke("login", "pinned", "secret");
+                for (int i = 0; i < 20; i++) {
+                    assertEquals("pinned", stub.invoke("validateToken", token));
+                }
+                // Servant state is per node: only the pinned one has the user.
+                assertTrue(hasUser(a, "pinned") != hasUser(b, "pinned"));
+
+                stub.balanceMethods("getStoreStats");
+                for (int i = 0; i < 200; i++) {
+                    stub.invoke("getStoreStats");
+                }
+                List<LoadBalancer.Stats> stats = stub.getBalancerStats();
+                assertTrue(String.valueOf(stats), stats.get(0).calls > 0 && stats.get(1).calls > 0);
+            } finally {
+                stub.close();
+            }
+        }
+    }
+
+    @Test
+    public void refusedConnectionMovesThePinForGood() throws Exception {
+        int dead = OrbFixture.freePort();
+        try (OrbFixture live = new OrbFixture(SimpleORB.Transport.BLOCKING).serve("UserService", new UserServiceServant((Path) null))) {
+            SimpleORB.Stub stub = new SimpleORB.Stub(reference(dead, live.port));
+            try {
+                assertTrue(stub.<Boolean>invoke("registerUser", "moved", "Moved", "moved@example.com", "secret"));
+                for (int i = 0; i < 30; i++) {
+                    assertEquals("Moved", stub.<UserData>invoke("getUserInfo", "moved").name);
+                }
+                LoadBalancer.Stats deadStats = stub.getBalancerStats().get(0);
+                assertTrue(String.valueOf(deadStats), deadStats.failures <= 1);
+                assertEquals(31, stub.getBalancerStats().get(1).calls);
+            } finally {
+                stub.close();
+            }
+        }
+    }
+}
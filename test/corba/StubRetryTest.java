@@ -0,0 +1,163 @@
+package corba;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StubRetryTest {
+    // Answers the first few requests on each connection, then either closes the connection, by
+    // default or with a reset, or keeps reading without ever replying.
+    private static class FakeServer implements Runnable {
+        final ServerSocket server;
+        final int answers;
+        final boolean closeAfterAnswers;
+        final boolean reset;
+        final AtomicInteger connections = new AtomicInteger();
+        final AtomicInteger requests = new AtomicInteger();
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        FakeServer(int answers, boolean closeAfterAnswers) throws IOException {
+            this(answers, closeAfterAnswers, false);
+        }
+
+        FakeServer(int answers, boolean closeAfterAnswers, boolean reset) throws IOException {
+            this.server = new ServerSocket(0);
+            this.answers = answers;
+            this.closeAfterAnswers = closeAfterAnswers;
+            this.reset = reset;
+            Thread t = new Thread(this, "StubRetryTest-server");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        @Override
+        public void run() {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    connections.incrementAndGet();
+                    Thread t = new Thread(() -> serve(socket), "StubRetryTest-connection");
+                    t.setDaemon(true);
+                    t.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (Socket s = socket) {
+                FramedStream stream = FramedStream.accept(s);
+                for (int answered = 0; ; ) {
+                    FramedStream.Frame frame = stream.read();
+                    requests.incrementAndGet();
+                    if (answered < answers) {
+                        stream.write(FramedStream.KIND_REPLY, frame.correlationId, "ok");
+                        if (++answered == answers && closeAfterAnswers) {
+                            if (reset) {
+                                s.setSoLinger(true, 0);
+                            }
+                            break;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+            }
+            closed.countDown();
+        }
+
+        void close() throws IOException {
+            server.close();
+        }
+    }
+
+    private FakeServer server;
+    private ConnectionPool pool;
+
+    @Before
+    public void setUp() {
+        server = null;
+        pool = null;
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (pool != null) {
+            pool.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    private SimpleORB.Stub stub(int soTimeoutMs) {
+        pool = new ConnectionPool("localhost", server.server.getLocalPort(), ConnectionPool.DEFAULT_MAX_IDLE,
+                ConnectionPool.DEFAULT_IDLE_TIMEOUT_MS, ConnectionPool.DEFAULT_MAX_LIFETIME_MS, soTimeoutMs);
+        return new SimpleORB.Stub(pool, "UserService");
+    }
+
+    @Test
+    public void timedOutCallIsNotSentAgain() throws Exception {
+        server = new FakeServer(1, false);
+        SimpleORB.Stub stub = stub(300);
+        assertEquals("ok", stub.invoke("registerUser", "alice"));
+        try {
+            stub.invoke("registerUser", "bob");
+            fail("expected the call to time out");
+        } catch (SocketTimeoutException expected) {
+        }
+        Thread.sleep(200);
+        assertEquals(2, server.requests.get());
+        assertEquals(1, server.connections.get());
+    }
+
+    @Test
+    public void idempotentCallOnConnectionClosedByServerIsRetried() throws Exception {
+        server = new FakeServer(1, true);
+        SimpleORB.Stub stub = stub(5000);
+        stub.markIdempotent("getUser");
+        assertEquals("ok", stub.invoke("getUser", "alice"));
+        server.closed.await(5, TimeUnit.SECONDS);
+        assertEquals("ok", stub.invoke("getUser", "bob"));
+        assertEquals(2, server.connections.get());
+    }
+
+    @Test
+    public void otherCallsThatMayHaveRunAreNotSentAgain() throws Exception {
+        server = new FakeServer(1, true);
+        SimpleORB.Stub stub = stub(5000);
+        stub.markIdempotent("getUser");
+        assertEquals("ok", stub.invoke("registerUser", "alice"));
+        server.closed.await(5, TimeUnit.SECONDS);
+        // The write lands in the socket buffer; only the missing reply shows the connection is gone.
+        try {
+            stub.invoke("registerUser", "bob");
+            fail("expected the call to fail");
+        } catch (IOException expected) {
+        }
+        assertEquals(1, server.connections.get());
+    }
+
+    @Test
+    public void callWhoseRequestNeverLeftIsRetried() throws Exception {
+        server = new FakeServer(1, true, true);
+        SimpleORB.Stub stub = stub(5000);
+        assertEquals("ok", stub.invoke("registerUser", "alice"));
+        server.closed.await(5, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        // The reset has arrived, so writing the request fails and the server never sees it.
+        assertEquals("ok", stub.invoke("registerUser", "bob"));
+        assertEquals(2, server.connections.get());
+        assertEquals(2, server.requests.get());
+    }
+}
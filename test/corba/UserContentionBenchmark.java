@@ -0,0 +1,80 @@
+package corba;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Reader throughput on isAdmin for one hot user while a writer updates that user continuously,
+// with the journal disabled so the writer is bound by the store alone. Run with
+//   mvn -q test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=corba.UserContentionBenchmark
+// and optionally -Dexec.args="1 4 16" for the reader counts.
+public class UserContentionBenchmark {
+    private static final long WARMUP_MS = 2000;
+    private static final long MEASURE_MS = 3000;
+    private static volatile boolean sink;
+
+    public static void main(String[] args) throws Exception {
+        // Keeps the writer's per-update INFO events out of the measurement.
+        if (System.getProperty("eventlog.level") == null) {
+            System.setProperty("eventlog.level", "WARN");
+        }
+        int[] readerCounts = { 1, 4, 16 };
+        if (args.length > 0) {
+            readerCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                readerCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%-8s%16s%16s%n", "readers", "reads/s", "writes/s");
+        for (int readers : readerCounts) {
+            run(readers, WARMUP_MS);
+            long[] rates = run(readers, MEASURE_MS);
+            System.out.printf("%-8d%14.1fM%16d%n", readers, rates[0] / 1e6, rates[1]);
+        }
+    }
+
+    // Returns reads per second and writes per second over roughly the given time.
+    private static long[] run(int readers, long durationMs) throws InterruptedException {
+        UserServiceServant servant = new UserServiceServant(new HeapUserStore(), null);
+        AtomicBoolean stop = new AtomicBoolean();
+        LongAdder reads = new LongAdder();
+        LongAdder writes = new LongAdder();
+        CountDownLatch done = new CountDownLatch(readers + 1);
+        for (int r = 0; r < readers; r++) {
+            start("reader-" + r, () -> {
+                long count = 0;
+                boolean admin = false;
+                while (!stop.get()) {
+                    for (int i = 0; i < 1000; i++) {
+                        admin ^= servant.isAdmin("user1");
+                    }
+                    count += 1000;
+                }
+                sink = admin;
+                reads.add(count);
+                done.countDown();
+            });
+        }
+        start("writer", () -> {
+            long count = 0;
+            while (!stop.get()) {
+                servant.updateUser("user1", "Amich " + (count & 7), "amich@example.com");
+                count++;
+            }
+            writes.add(count);
+            done.countDown();
+        });
+        long start = System.nanoTime();
+        Thread.sleep(durationMs);
+        stop.set(true);
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return new long[] { (long) (reads.sum() / seconds), (long) (writes.sum() / seconds) };
+    }
+
+    private static void start(String name, Runnable task) {
+        Thread t = new Thread(task, "UserContentionBenchmark-" + name);
+        t.setDaemon(true);
+        t.start();
+    }
+}
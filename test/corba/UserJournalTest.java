@@ -0,0 +1,222 @@
+package corba;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class UserJournalTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // Keeps the highest version of each user, as the stores do on replay.
+    private static class Users implements UserJournal.Target {
+        final Map<String, Long> versions = new HashMap<>();
+        final Map<String, Long> epochs = new HashMap<>();
+        final Map<String, String> names = new HashMap<>();
+
+        @Override
+        public void put(String id, String name, String email, String password, String role, boolean active, long version,
+                        long epoch) {
+            Long seen = versions.get(id);
+            if (seen == null || seen < version) {
+                versions.put(id, version);
+                epochs.put(id, epoch);
+                names.put(id, name);
+            }
+        }
+
+        void put(String id, String name, long version) {
+            put(id, name, null, null, null, true, version, version);
+        }
+
+        void dump(UserJournal.Target target) {
+            for (Map.Entry<String, Long> user : versions.entrySet()) {
+                String id = user.getKey();
+                target.put(id, names.get(id), id + "@x", "pw", "user", true, user.getValue(), epochs.get(id));
+            }
+        }
+    }
+
+    private static long put(UserJournal journal, String id, String name, long version) {
+        return put(journal, id, name, version, version);
+    }
+
+    private static long put(UserJournal journal, String id, String name, long version, long epoch) {
+        return journal.put(id, name, id + "@x", "pw", "user", true, version, epoch);
+    }
+
+    private Users reopen(Path dir) throws IOException {
+        Users users = new Users();
+        UserJournal.open(dir, users, null, UserJournal.DEFAULT_SNAPSHOT_RECORDS).close();
+        return users;
+    }
+
+    private static Path lastSegment(Path dir) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "users-*.log")) {
+            for (Path file : files) {
+                if (Files.size(file) > 0) {
+                    segments.add(file);
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments.get(segments.size() - 1);
+    }
+
+    @Test
+    public void reopenReplaysTheHighestVersionOfEachUser() throws Exception {
+        Path dir = folder.newFolder().toPath();
+        UserJournal journal = UserJournal.open(dir, new Users(), null, UserJournal.DEFAULT_SNAPSHOT_RECORDS);
+        assertTrue(journal.isEmpty());
+        put(journal, "a", "Ann", 1);
+        put(journal, "b", "Bob", 1);
+        put(journal, "a", "Ann 3", 3, 2);
+        journal.await(put(journal, "a", "Ann 2", 2));
+        journal.close();
+
+        Users users = reopen(dir);
+        assertEquals(2, users.versions.size());
+        assertEquals(3L, (long) users.versions.get("a"));
+        assertEquals(2L, (long) users.epochs.get("a"));
+        assertEquals("Ann 3", users.names.get("a"));
+        assertEquals("Bob", users.names.get("b"));
+
+        // A second generation of segments replays on top of the first.
+        journal = UserJournal.open(dir, new Users(), null, UserJournal.DEFAULT_SNAPSHOT_RECORDS);
+        assertFalse(journal.isEmpty());
+        journal.await(put(journal, "b", "Bob 2", 2));
+        journal.close();
+        assertEquals("Bob 2", reopen(dir).names.get("b"));
+    }
+
+    @Test
+    public void tornRecordAtTheTailIsTruncated() throws Exception {
+        Path dir = folder.newFolder().toPath();
+        UserJournal journal = UserJournal.open(dir, new Users(), null, UserJournal.DEFAULT_SNAPSHOT_RECORDS);
+        put(journal, "a", "Ann", 1);
+        journal.await(put(journal, "b", "Bob", 1));
+        journal.close();
+
+        Path segment = lastSegment(dir);
+        long complete = Files.size(segment);
+        // A header promising 50 bytes, followed by only a few of them.
+        try (OutputStream out = Files.newOutputStream(segment, StandardOpenOption.APPEND)) {
+            out.write(new byte[] { 0, 0, 0, 50, 1, 2, 3, 4, 1, 0, 0 });
+        }
+
+        Users users = reopen(dir);
+        assertEquals(2, users.versions.size());
+        assertEquals(complete, Files.size(segment));
+
+        // Appends after the truncation recover normally.
+        journal = UserJournal.open(dir, new Users(), null, UserJournal.DEFAULT_SNAPSHOT_RECORDS);
+        journal.await(put(journal, "c", "Cy", 1));
+        journal.close();
+        assertEquals(3, reopen(dir).versions.size());
+    }
+
+    @Test
+    public void recordWithABadChecksumEndsTheReplay() throws Exception {
+        Path dir = folder.newFolder().toPath();
+        UserJournal journal = UserJournal.open(dir, new Users(), null, UserJournal.DEFAULT_SNAPSHOT_RECORDS);
+        put(journal, "a", "Ann", 1);
+        journal.await(put(journal, "b", "Bob", 1));
+        Path segment = lastSegment(dir);
+        long complete = Files.size(segment);
+        journal.await(put(journal, "a", "Ann 2", 2));
+        journal.close();
+
+        // Flip the last byte of the final record's payload, as a torn sector would.
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[bytes.length - 1] ^= 0x40;
+        Files.write(segment, bytes);
+
+        Users users = reopen(dir);
+        assertEquals(1L, (long) users.versions.get("a"));
+        assertEquals("Ann", users.names.get("a"));
+        assertEquals(complete, Files.size(segment));
+    }
+
+    @Test
+    public void snapshotReplacesTheSegmentsItCovers() throws Exception {
+        Path dir = folder.newFolder().toPath();
+        Users live = new Users();
+        UserJournal journal = UserJournal.open(dir, new Users(), target -> {
+            synchronized (live) {
+                live.dump(target);
+            }
+        }, 10);
+        for (int i = 0; i < 30; i++) {
+            String id = "u" + (i % 7);
+            synchronized (live) {
+                live.put(id, "User " + i, i);
+            }
+            journal.await(put(journal, id, "User " + i, i));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (journal.getStats().snapshots == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(journal.getStats().snapshots > 0);
+        // Changes reach the snapshot source before the journal, as in the servant.
+        synchronized (live) {
+            live.put("late", "Late", 1);
+        }
+        journal.await(put(journal, "late", "Late", 1));
+        journal.close();
+        assertTrue(Files.exists(dir.resolve("users.snapshot")));
+
+        Users recovered = new Users();
+        journal = UserJournal.open(dir, recovered, null, UserJournal.DEFAULT_SNAPSHOT_RECORDS);
+        UserJournal.Stats stats = journal.getStats();
+        journal.close();
+        assertTrue(stats.recoveredUsers > 0);
+        assertTrue(stats.recoveredRecords < 31);
+        assertEquals(live.versions, recovered.versions);
+        assertEquals(live.epochs, recovered.epochs);
+        assertEquals(live.names, recovered.names);
+    }
+
+    @Test
+    public void recordsWithoutAnEpochReplayWithTheirVersion() throws Exception {
+        Path dir = folder.newFolder().toPath();
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(payload);
+        data.writeByte(UserJournal.OP_PUT);
+        data.writeLong(4);
+        data.writeBoolean(true);
+        for (String field : new String[] { "a", "Ann", "a@x", "pw", "user" }) {
+            BinaryCodec.writeString(field, data);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload.toByteArray());
+        try (DataOutputStream segment = new DataOutputStream(Files.newOutputStream(dir.resolve("users-000000.log")))) {
+            segment.writeInt(payload.size());
+            segment.writeInt((int) crc.getValue());
+            payload.writeTo(segment);
+        }
+
+        Users users = reopen(dir);
+        assertEquals(4L, (long) users.versions.get("a"));
+        assertEquals(4L, (long) users.epochs.get("a"));
+    }
+}
@@ -0,0 +1,91 @@
+package corba;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class UserServiceServantTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static void assertRefused(Runnable change) {
+        try {
+            change.run();
+            fail("expected the journal to refuse the change");
+        } catch (RuntimeException expected) {
+        }
+    }
+
+    @Test
+    public void staleEditsAreRefused() throws Exception {
+        UserServiceServant servant = new UserServiceServant(new HeapUserStore(), null);
+        long version = servant.getUserInfo("user1").version;
+        assertTrue(servant.updateUser("user1", version, "First", "first@example.com"));
+        assertFalse(servant.updateUser("user1", version, "Second", "second@example.com"));
+        assertEquals("First", servant.getUserInfo("user1").name);
+        assertEquals(version + 1, servant.getUserInfo("user1").version);
+        assertTrue(servant.updateUser("user1", version + 1, "Second", "second@example.com"));
+    }
+
+    private static UserData listed(UserServiceServant servant, String id) {
+        for (UserData user : servant.getAllUsers().getValue()) {
+            if (user.id.equals(id)) {
+                return user;
+            }
+        }
+        throw new AssertionError(id + " is not listed");
+    }
+
+    @Test
+    public void everyChangeRefreshesTheUserList() throws Exception {
+        UserServiceServant servant = new UserServiceServant(new HeapUserStore(), null);
+        long version = listed(servant, "user1").version;
+
+        assertTrue(servant.changePassword("user1", "pass123", "other"));
+        assertEquals(version + 1, listed(servant, "user1").version);
+        assertTrue(servant.updateUser("user1", "Changed", "changed@example.com"));
+        assertEquals("Changed", listed(servant, "user1").name);
+        assertTrue(servant.deleteUser("user1"));
+        assertFalse(listed(servant, "user1").active);
+        assertTrue(servant.registerUser("user3", "Third", "third@example.com", "pass"));
+        assertEquals("Third", listed(servant, "user3").name);
+    }
+
+    @Test
+    public void changesTheJournalRefusesAreTakenBack() throws Exception {
+        Path dir = folder.newFolder().toPath();
+        UserServiceServant servant = new UserServiceServant(new HeapUserStore(), dir);
+        UserData before = servant.getUserInfo("user1");
+        servant.close();
+
+        assertRefused(() -> servant.updateUser("user1", "Changed", "changed@example.com"));
+        assertRefused(() -> servant.changePassword("user1", "pass123", "other"));
+        assertRefused(() -> servant.deleteUser("user1"));
+        int listed = servant.getAllUsers().getValue().length;
+        assertRefused(() -> servant.registerUser("user3", "Third", "third@example.com", "pass"));
+
+        UserData after = servant.getUserInfo("user1");
+        assertEquals(before.name, after.name);
+        assertEquals(before.email, after.email);
+        assertEquals(before.version, after.version);
+        assertTrue(after.active);
+        assertEquals("user1", servant.getUserByEmail("amich@example.com").id);
+        assertTrue(servant.authenticate("user1", "pass123"));
+        assertEquals("", servant.getUserInfo("user3").id);
+        assertEquals("", servant.getUserByEmail("third@example.com").id);
+        assertFalse(servant.authenticate("user3", "pass"));
+        assertEquals(listed, servant.getAllUsers().getValue().length);
+
+        // What memory shows is what a restart recovers.
+        UserServiceServant reopened = new UserServiceServant(new HeapUserStore(), dir);
+        assertEquals(before.version, reopened.getUserInfo("user1").version);
+        assertEquals("", reopened.getUserInfo("user3").id);
+        reopened.close();
+    }
+}
@@ -0,0 +1,74 @@
+package corba;
+
+import java.util.Random;
+
+// Retained heap per user for each store, filled with generated but realistic users: ids, names
+// and emails drawn from fixed lists under a fixed seed, so every run builds the same population.
+// Run with, for example,
+//   MAVEN_OPTS=-Xmx4g mvn -q test-compile exec:java -Dexec.classpathScope=test \
+//       -Dexec.mainClass=corba.UserStoreFootprint -Dexec.args="compact 1000000"
+// The first argument is heap or compact (both if omitted), the second the user count.
+public class UserStoreFootprint {
+    private static final String[] FIRST = {
+            "James", "Mary", "John", "Patricia", "Robert", "Jennifer", "Michael", "Linda", "William", "Elizabeth",
+            "David", "Barbara", "Richard", "Susan", "Joseph", "Jessica", "Thomas", "Sarah", "Charles", "Karen",
+            "Mohamed", "Fatima", "Ahmed", "Amina", "Ali", "Leila", "Omar", "Yasmine", "Youssef", "Salma",
+            "Wei", "Li", "Hiroshi", "Yuki", "Raj", "Priya", "Carlos", "Maria", "Luca", "Giulia",
+    };
+    private static final String[] LAST = {
+            "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis", "Rodriguez", "Martinez",
+            "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson", "Thomas", "Taylor", "Moore", "Jackson", "Martin",
+            "Ben Ali", "Trabelsi", "Haddad", "Mansour", "Khalil", "Nasser", "Saleh", "Bouazizi", "Amich", "Dali",
+            "Wang", "Zhang", "Sato", "Suzuki", "Patel", "Sharma", "Silva", "Santos", "Rossi", "Russo",
+    };
+    private static final String[] DOMAINS = {
+            "gmail.com", "gmail.com", "gmail.com", "yahoo.com", "outlook.com", "hotmail.com", "library.com",
+            "example.com", "icloud.com", "proton.me",
+    };
+    private static final String PASSWORD_CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    private static UserStore retained;
+
+    public static void main(String[] args) throws Exception {
+        String[] kinds = args.length > 0 ? new String[] { args[0] } : new String[] { "heap", "compact" };
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        System.out.printf("%-8s%12s%16s%n", "store", "users", "bytes/user");
+        for (String kind : kinds) {
+            long before = usedHeap();
+            retained = "heap".equals(kind) ? new HeapUserStore() : new CompactUserStore();
+            fill(retained, count);
+            long after = usedHeap();
+            System.out.printf("%-8s%12d%16d%n", kind, count, (after - before) / count);
+            System.out.println("  " + retained.getStats());
+            retained = null;
+        }
+    }
+
+    static void fill(UserStore store, int count) {
+        Random random = new Random(42);
+        char[] password = new char[12];
+        for (int i = 0; i < count; i++) {
+            String first = FIRST[random.nextInt(FIRST.length)];
+            String last = LAST[random.nextInt(LAST.length)];
+            String id = (first.charAt(0) + last.replace(" ", "")).toLowerCase() + i;
+            String email = first.toLowerCase() + "." + last.replace(" ", "").toLowerCase() + i + "@"
+                    + DOMAINS[random.nextInt(DOMAINS.length)];
+            for (int c = 0; c < password.length; c++) {
+                password[c] = PASSWORD_CHARS.charAt(random.nextInt(PASSWORD_CHARS.length()));
+            }
+            String role = i % 100 == 0 ? "librarian" : i % 1000 == 1 ? "admin" : "user";
+            store.insert(new UserRecord(id, first + " " + last, email, new String(password), role, true, 1));
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,220 @@
+package corba;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class UserStoreTest {
+    private static UserStore[] stores() {
+        return new UserStore[] { new HeapUserStore(), new CompactUserStore() };
+    }
+
+    private static UserRecord user(String id, String email, long version) {
+        return new UserRecord(id, "Name " + id, email, "pw", "user", true, version);
+    }
+
+    @Test
+    public void replaceFromAStaleVersionConflicts() {
+        for (UserStore store : stores()) {
+            UserRecord v1 = user("a", "a@x", 1);
+            assertEquals(UserStore.Result.OK, store.insert(v1));
+            UserRecord v2 = v1.withProfile("Ann", "a@x");
+            assertEquals(UserStore.Result.OK, store.replace(v1, v2));
+            assertEquals(UserStore.Result.CONFLICT, store.replace(v1, v1.withProfile("Stale", "a@x")));
+            assertEquals("Ann", store.get("a").name);
+            assertEquals(2, store.get("a").version);
+        }
+    }
+
+    @Test
+    public void onlyCredentialChangesMoveTheEpoch() {
+        for (UserStore store : stores()) {
+            UserRecord v1 = user("a", "a@x", 1);
+            store.insert(v1);
+            UserRecord v2 = v1.withProfile("Ann", "a@x");
+            store.replace(v1, v2);
+            assertEquals(1, store.get("a").epoch);
+            UserRecord v3 = v2.withPassword("new");
+            store.replace(v2, v3);
+            UserRecord v4 = v3.withProfile("Anne", "a@x");
+            store.replace(v3, v4);
+            assertEquals(3, store.get("a").epoch);
+            store.replace(v4, v4.deactivated());
+            assertEquals(5, store.get("a").epoch);
+            store.restore(new UserRecord("a", "Ann", "a@x", "pw", "user", true, 9, 7));
+            assertEquals(7, store.get("a").epoch);
+        }
+    }
+
+    @Test
+    public void anotherUsersAddressIsTaken() {
+        for (UserStore store : stores()) {
+            UserRecord a = user("a", "a@x", 1);
+            store.insert(a);
+            store.insert(user("b", "b@x", 1));
+            assertEquals(UserStore.Result.EMAIL_TAKEN, store.replace(a, a.withProfile("Ann", "B@X ")));
+            assertEquals("b", store.getByEmail("b@x").id);
+            assertEquals(1, store.get("a").version);
+        }
+    }
+
+    @Test
+    public void losingARaceToTheSameAddressIsAConflict() {
+        for (UserStore store : stores()) {
+            UserRecord v1 = user("a", "a@x", 1);
+            store.insert(v1);
+            // Two edits of the same version both move the user to new@x; the second must retry,
+            // not be told the address belongs to someone else.
+            assertEquals(UserStore.Result.OK, store.replace(v1, v1.withProfile("First", "new@x")));
+            assertEquals(UserStore.Result.CONFLICT, store.replace(v1, v1.withProfile("Second", "new@x")));
+            assertEquals("First", store.getByEmail("new@x").name);
+            assertNull(store.getByEmail("a@x"));
+        }
+    }
+
+    @Test
+    public void concurrentWritersEachLandExactlyOnce() throws Exception {
+        for (UserStore store : stores()) {
+            store.insert(user("a", "a@x", 1));
+            int threads = 4;
+            int perThread = 500;
+            AtomicInteger unexpected = new AtomicInteger();
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int worker = t;
+                workers.add(new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        while (true) {
+                            UserRecord current = store.get("a");
+                            // Alternate between two addresses so the email claim races too.
+                            String email = (worker + i) % 2 == 0 ? "a@x" : "other@x";
+                            UserStore.Result result = store.replace(current, current.withProfile("w" + worker, email));
+                            if (result == UserStore.Result.OK) {
+                                break;
+                            }
+                            if (result != UserStore.Result.CONFLICT) {
+                                unexpected.incrementAndGet();
+                            }
+                        }
+                    }
+                }));
+            }
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertEquals(0, unexpected.get());
+            UserRecord last = store.get("a");
+            assertEquals(1 + threads * perThread, last.version);
+            assertEquals(last.id, store.getByEmail(UserStore.emailKey(last.email)).id);
+        }
+    }
+
+    @Test
+    public void racingMovesToOneAddressKeepItIndexed() throws Exception {
+        for (UserStore store : stores()) {
+            store.insert(user("a", "a@x", 1));
+            int threads = 3;
+            int rounds = 5000;
+            // Each round, every worker moves the user to the same new address from the same
+            // version. One swap wins, and whatever the losers do must leave the address findable.
+            CyclicBarrier start = new CyclicBarrier(threads + 1);
+            CyclicBarrier done = new CyclicBarrier(threads + 1);
+            AtomicInteger unexpected = new AtomicInteger();
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int worker = t;
+                workers.add(new Thread(() -> {
+                    try {
+                        for (int round = 0; round < rounds; round++) {
+                            start.await();
+                            UserRecord current = store.get("a");
+                            UserStore.Result result = store.replace(current, current.withProfile("w" + worker, round + "@x"));
+                            if (result != UserStore.Result.OK && result != UserStore.Result.CONFLICT) {
+                                unexpected.incrementAndGet();
+                            }
+                            done.await();
+                        }
+                    } catch (Exception e) {
+                        unexpected.incrementAndGet();
+                    }
+                }));
+            }
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            int lost = 0;
+            for (int round = 0; round < rounds; round++) {
+                start.await();
+                done.await();
+                UserRecord live = store.get("a");
+                if (store.getByEmail(UserStore.emailKey(live.email)) == null) {
+                    lost++;
+                    // Put the index right so later rounds start from a consistent store.
+                    store.restore(new UserRecord(live.id, live.name, live.email, live.password, live.role,
+                            live.active, live.version + 1));
+                }
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertEquals(0, unexpected.get());
+            assertEquals("rounds that lost the live address", 0, lost);
+            assertNotNull(store.getByEmail((rounds - 1) + "@x"));
+        }
+    }
+
+    private static List<String> ids(Iterator<UserRecord> users) {
+        List<String> ids = new ArrayList<>();
+        users.forEachRemaining(user -> ids.add(user.id));
+        ids.sort(null);
+        return ids;
+    }
+
+    @Test
+    public void removedRegistrationsLeaveNoTrace() {
+        for (UserStore store : stores()) {
+            UserRecord a = user("a", "a@x", 1);
+            UserRecord b = user("b", "b@x", 1);
+            UserRecord c = user("c", "c@x", 1);
+            for (UserRecord user : new UserRecord[] { a, b, c }) {
+                assertEquals(UserStore.Result.OK, store.insert(user));
+            }
+            // Only the version that was inserted is taken back.
+            UserRecord b2 = b.withProfile("Bea", "b@x");
+            assertEquals(UserStore.Result.OK, store.replace(b, b2));
+            assertFalse(store.remove(b));
+            assertEquals(UserStore.Result.OK, store.replace(b2, b));
+
+            assertTrue(store.remove(b));
+            assertNull(store.get("b"));
+            assertNull(store.getByEmail("b@x"));
+            assertEquals(2, store.size());
+            assertEquals(Arrays.asList("a", "c"), ids(store.iterator()));
+            assertEquals(Arrays.asList("a", "c"), ids(store.withRole("user")));
+            assertEquals("c", store.getByEmail("c@x").id);
+            assertEquals("a", store.get("a").id);
+
+            // The id and the address are free again, and the last slot goes too.
+            assertEquals(UserStore.Result.OK, store.insert(user("b", "b@x", 1)));
+            assertTrue(store.remove(store.get("b")));
+            assertTrue(store.remove(c));
+            assertEquals(Arrays.asList("a"), ids(store.iterator()));
+            assertEquals(UserStore.Result.OK, store.insert(user("d", "c@x", 1)));
+            assertEquals("d", store.getByEmail("c@x").id);
+            assertEquals(Arrays.asList("a", "d"), ids(store.withRole("user")));
+        }
+    }
+}
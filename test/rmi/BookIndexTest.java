@@ -0,0 +1,212 @@
+package rmi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import common.Book;
+
+public class BookIndexTest {
+    // A small alphabet so that trigrams are shared widely and every query intersects long lists.
+    private static final String[] WORDS = {
+            "net", "network", "networking", "distributed", "systems", "design", "patterns", "java",
+            "concurrency", "practice", "the", "art", "of", "computer", "programming", "a", "top-down",
+            "approach", "head", "first", "data", "intensive", "applications", "Ünicode", "ÉTÉ",
+    };
+    private static final String[] AUTHORS = {
+            "George Coulouris", "James Kurose", "Eric Freeman", "Brian Goetz", "Donald Knuth",
+            "Martin Kleppmann", "Andrew Tanenbaum", "Leslie Lamport",
+    };
+
+    private final Random random = new Random(7);
+    private final BookIndex index = new BookIndex();
+    // What the service's catalog would hold, in insertion order.
+    private final Map<String, Book> catalog = new LinkedHashMap<>();
+    private int nextIsbn;
+
+    private String text(String[] words, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(i == 0 ? "" : random.nextInt(4) == 0 ? ": " : " ").append(words[random.nextInt(words.length)]);
+        }
+        return text.toString();
+    }
+
+    private Book add(String isbn, String title, String author) {
+        Book book = new Book(isbn, title, author, 2000);
+        catalog.put(isbn, book);
+        index.add(book);
+        return book;
+    }
+
+    private Book addRandom() {
+        return add("isbn-" + nextIsbn++, text(WORDS, 1 + random.nextInt(5)), AUTHORS[random.nextInt(AUTHORS.length)]);
+    }
+
+    private void remove(String isbn) {
+        index.remove(catalog.remove(isbn));
+    }
+
+    private static List<String> scan(Map<String, Book> catalog, BookIndex.Field field, String lowerQuery) {
+        List<String> matches = new ArrayList<>();
+        for (Book book : catalog.values()) {
+            if (field.of(book).toLowerCase().contains(lowerQuery)) {
+                matches.add(book.getIsbn());
+            }
+        }
+        matches.sort(null);
+        return matches;
+    }
+
+    // The index may return extra candidates, never miss one, and never name a book it no longer
+    // holds; after the contains() check it must agree with the scan exactly.
+    private void assertAgreesWithScan(BookIndex.Field field, String lowerQuery) {
+        List<String> candidates = index.candidates(field, lowerQuery);
+        List<String> verified = new ArrayList<>();
+        for (String isbn : candidates) {
+            Book book = catalog.get(isbn);
+            assertTrue(lowerQuery + " named removed " + isbn, book != null);
+            if (field.of(book).toLowerCase().contains(lowerQuery)) {
+                verified.add(isbn);
+            }
+        }
+        verified.sort(null);
+        assertEquals(field + " '" + lowerQuery + "'", scan(catalog, field, lowerQuery), verified);
+    }
+
+    private void assertQueriesAgree(int queries) {
+        List<Book> books = new ArrayList<>(catalog.values());
+        for (int q = 0; q < queries; q++) {
+            BookIndex.Field field = random.nextBoolean() ? BookIndex.Field.TITLE : BookIndex.Field.AUTHOR;
+            String query;
+            if (random.nextInt(4) == 0 || books.isEmpty()) {
+                // Mostly misses, including trigrams that span word boundaries.
+                query = text(WORDS, 2).toLowerCase();
+                int from = random.nextInt(Math.max(1, query.length() - 3));
+                query = query.substring(from, Math.min(query.length(), from + 3 + random.nextInt(8)));
+            } else {
+                String source = field.of(books.get(random.nextInt(books.size()))).toLowerCase();
+                if (source.length() < BookIndex.GRAM) {
+                    continue;
+                }
+                int from = random.nextInt(source.length() - BookIndex.GRAM + 1);
+                int to = from + BookIndex.GRAM + random.nextInt(source.length() - from - BookIndex.GRAM + 1);
+                query = source.substring(from, to);
+            }
+            if (query.length() >= BookIndex.GRAM) {
+                assertAgreesWithScan(field, query);
+            }
+        }
+    }
+
+    @Test
+    public void candidatesAgreeWithAFullScan() {
+        for (int i = 0; i < 2000; i++) {
+            addRandom();
+        }
+        assertQueriesAgree(3000);
+        assertAgreesWithScan(BookIndex.Field.TITLE, "net");
+        assertAgreesWithScan(BookIndex.Field.TITLE, "networking: design");
+        assertAgreesWithScan(BookIndex.Field.TITLE, "ünicode");
+        assertAgreesWithScan(BookIndex.Field.AUTHOR, "kurose");
+        assertAgreesWithScan(BookIndex.Field.AUTHOR, "no such author");
+    }
+
+    @Test
+    public void queriesShorterThanATrigramAreNotNarrowed() {
+        addRandom();
+        assertEquals(null, index.candidates(BookIndex.Field.TITLE, "ne"));
+        assertEquals(null, index.candidates(BookIndex.Field.AUTHOR, ""));
+    }
+
+    @Test
+    public void removedAndReAddedBooksAreFoundOnlyUnderTheirCurrentText() {
+        for (int i = 0; i < 200; i++) {
+            addRandom();
+        }
+        add("moving", "Distributed Systems", "Leslie Lamport");
+        remove("moving");
+        assertAgreesWithScan(BookIndex.Field.TITLE, "distributed systems");
+        // The old id's postings stay behind until a rebuild; they must not name the new book.
+        add("moving", "Concurrency in Practice", "Brian Goetz");
+        assertTrue(!index.candidates(BookIndex.Field.TITLE, "distributed systems").contains("moving"));
+        assertTrue(index.candidates(BookIndex.Field.TITLE, "concurrency in practice").contains("moving"));
+        assertTrue(!index.candidates(BookIndex.Field.AUTHOR, "lamport").contains("moving"));
+        assertQueriesAgree(1000);
+    }
+
+    @Test
+    public void compactionKeepsAnswersAndDropsDeadIds() {
+        for (int i = 0; i < 3000; i++) {
+            addRandom();
+        }
+        List<String> isbns = new ArrayList<>(catalog.keySet());
+        // Enough removals for dead ids to pass both rebuild thresholds; some are added back.
+        for (int i = 0; i < 2600; i++) {
+            remove(isbns.get(i));
+            if (i % 5 == 0) {
+                Book gone = new Book(isbns.get(i), text(WORDS, 3), AUTHORS[i % AUTHORS.length], 2000);
+                add(gone.getIsbn(), gone.getTitle(), gone.getAuthor());
+            }
+        }
+        BookIndex.Stats stats = index.getStats();
+        assertTrue(stats.toString(), stats.rebuilds >= 1);
+        assertEquals(catalog.size(), stats.books);
+        assertTrue(stats.toString(), stats.dead < 1024);
+        assertTrue(stats.toString(), stats.bytesPerChar() > 0);
+        assertQueriesAgree(3000);
+
+        // Adds and removes after the rebuild work against the new generation.
+        for (int i = 0; i < 300; i++) {
+            addRandom();
+        }
+        for (int i = 2600; i < 2800; i++) {
+            remove(isbns.get(i));
+        }
+        assertQueriesAgree(2000);
+    }
+
+    @Test
+    public void readersRacingARebuildNeverSeeRemovedBooks() throws Exception {
+        for (int i = 0; i < 2000; i++) {
+            addRandom();
+        }
+        List<String> permanent = new ArrayList<>(catalog.keySet()).subList(0, 500);
+        List<String> titles = new ArrayList<>();
+        for (String isbn : permanent) {
+            titles.add(catalog.get(isbn).getTitle().toLowerCase());
+        }
+        List<String> missing = new ArrayList<>();
+        Thread reader = new Thread(() -> {
+            Random local = new Random(11);
+            for (int i = 0; i < 20000; i++) {
+                int pick = local.nextInt(permanent.size());
+                String title = titles.get(pick);
+                if (title.length() >= BookIndex.GRAM
+                        && !index.candidates(BookIndex.Field.TITLE, title).contains(permanent.get(pick))) {
+                    synchronized (missing) {
+                        missing.add(permanent.get(pick));
+                    }
+                }
+            }
+        });
+        reader.start();
+        // The books never removed must stay visible through every rebuild.
+        List<String> churn = new ArrayList<>(catalog.keySet()).subList(500, 2000);
+        for (int round = 0; round < 3; round++) {
+            for (String isbn : new ArrayList<>(churn)) {
+                Book book = catalog.get(isbn);
+                remove(isbn);
+                add(isbn, book.getTitle(), book.getAuthor());
+            }
+        }
+        reader.join();
+        assertTrue(missing.toString(), missing.isEmpty());
+        assertTrue(index.getStats().rebuilds >= 1);
+    }
+}
@@ -0,0 +1,104 @@
+package rmi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import common.Book;
+
+// searchByTitle and searchByAuthor must answer exactly what a lower-cased contains() over the
+// whole catalog does, whichever way the index narrows the query.
+public class BookSearchTest {
+    private static final String[] WORDS = {
+            "net", "internet", "network", "networking", "distributed", "systems", "design", "patterns",
+            "java", "concurrency", "in", "practice", "the", "art", "of", "computer", "programming",
+            "top-down", "approach", "head", "first", "data-intensive", "applications", "Ünicode", "ÉTÉ",
+    };
+    private static final String[] AUTHORS = {
+            "George Coulouris", "James Kurose", "Eric Freeman", "Brian Goetz", "Donald E. Knuth",
+            "Martin Kleppmann", "Andrew S. Tanenbaum", "O'Brien",
+    };
+
+    private final Random random = new Random(5);
+    private BookServiceImpl service;
+
+    @Before
+    public void setUp() throws Exception {
+        service = new BookServiceImpl();
+        for (int i = 0; i < 1500; i++) {
+            service.addBook(new Book("isbn-" + i, text(1 + random.nextInt(5)), AUTHORS[random.nextInt(AUTHORS.length)], 2000));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        UnicastRemoteObject.unexportObject(service, true);
+    }
+
+    private String text(int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append(i == 0 ? "" : random.nextInt(4) == 0 ? ": " : " ").append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    private static List<String> isbns(List<Book> books) {
+        List<String> isbns = new ArrayList<>();
+        for (Book book : books) {
+            isbns.add(book.getIsbn());
+        }
+        isbns.sort(null);
+        return isbns;
+    }
+
+    private void assertSearchMatchesScan(String query) throws Exception {
+        List<Book> titles = new ArrayList<>();
+        List<Book> authors = new ArrayList<>();
+        for (Book book : service.getAllBooks()) {
+            if (book.getTitle().toLowerCase().contains(query.toLowerCase())) {
+                titles.add(book);
+            }
+            if (book.getAuthor().toLowerCase().contains(query.toLowerCase())) {
+                authors.add(book);
+            }
+        }
+        assertEquals("title '" + query + "'", isbns(titles), isbns(service.searchByTitle(query)));
+        assertEquals("author '" + query + "'", isbns(authors), isbns(service.searchByAuthor(query)));
+    }
+
+    @Test
+    public void midWordAndMultiWordQueriesMatchTheScan() throws Exception {
+        String[] queries = {
+                "", " ", "net", "NET", "ternet", "twork", "working", "rk: des", "ing: d", " design",
+                "systems design", "s design", ": ", "top-down", "-down appr", "data-int", "ünic", "été",
+                "goetz", "n goetz", "e. kn", "'brien", "s. tan", "no such words here",
+        };
+        for (String query : queries) {
+            assertSearchMatchesScan(query);
+        }
+        // Substrings of real titles, cut at arbitrary points.
+        List<Book> books = service.getAllBooks();
+        for (int i = 0; i < 2000; i++) {
+            String title = books.get(random.nextInt(books.size())).getTitle();
+            int from = random.nextInt(title.length());
+            assertSearchMatchesScan(title.substring(from, from + random.nextInt(title.length() - from + 1)));
+        }
+    }
+
+    @Test
+    public void removedBooksLeaveTheResults() throws Exception {
+        for (int i = 0; i < 1200; i++) {
+            service.removeBook("isbn-" + i);
+        }
+        service.addBook(new Book("isbn-5", "Networking Again", "Brian Goetz", 2020));
+        for (String query : new String[] { "networking", " again", "g again", "n goetz", "the art" }) {
+            assertSearchMatchesScan(query);
+        }
+    }
+}
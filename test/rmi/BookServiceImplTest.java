@@ -0,0 +1,189 @@
+package rmi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.rmi.server.RemoteObject;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import common.Book;
+import common.BookPage;
+import common.MethodSnapshot;
+
+public class BookServiceImplTest {
+    private BookServiceImpl service;
+
+    @Before
+    public void setUp() throws Exception {
+        service = new BookServiceImpl();
+        for (int i = 0; i < 250; i++) {
+            service.addBook(new Book(String.format("isbn-%04d", i), "Title " + (i * 7 % 250), "Author " + (i % 13), 1950 + i % 70));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        UnicastRemoteObject.unexportObject(service, true);
+    }
+
+    private List<Book> listAll(String sortKey, int pageSize) throws Exception {
+        List<Book> result = new ArrayList<>();
+        String cursor = "";
+        do {
+            BookPage page = service.listBooks(sortKey, cursor, pageSize);
+            assertTrue(page.getBooks().size() <= pageSize);
+            result.addAll(page.getBooks());
+            cursor = page.getNextCursor();
+        } while (!cursor.isEmpty());
+        return result;
+    }
+
+    private static List<String> isbns(List<Book> books) {
+        List<String> isbns = new ArrayList<>();
+        for (Book book : books) {
+            isbns.add(book.getIsbn());
+        }
+        return isbns;
+    }
+
+    @Test
+    public void pagesWalkTheWholeCatalogInOrder() throws Exception {
+        List<Book> expected = new ArrayList<>(service.getAllBooks());
+        expected.sort(Comparator.comparing((Book b) -> b.getTitle().toLowerCase(Locale.ROOT)).thenComparing(Book::getIsbn));
+        assertEquals(isbns(expected), isbns(listAll("title", 17)));
+
+        expected.sort(Comparator.comparingInt(Book::getYear).thenComparing(Book::getIsbn));
+        assertEquals(isbns(expected), isbns(listAll("year", 40)));
+
+        expected.sort(Comparator.comparing(Book::getIsbn));
+        assertEquals(isbns(expected), isbns(listAll("ISBN", 1000)));
+    }
+
+    @Test
+    public void insertsDuringPagingNeitherRepeatNorSkipExistingBooks() throws Exception {
+        Set<String> before = new HashSet<>(isbns(service.getAllBooks()));
+        List<String> seen = new ArrayList<>();
+        String cursor = "";
+        int added = 0;
+        do {
+            BookPage page = service.listBooks("title", cursor, 20);
+            seen.addAll(isbns(page.getBooks()));
+            cursor = page.getNextCursor();
+            // Lands both before and after the cursor in title order.
+            service.addBook(new Book("new-" + added, "Title " + (added * 37 % 250) + "x", "Someone", 2000));
+            service.addBook(new Book("new-a-" + added, "A" + added, "Someone", 2000));
+            added++;
+        } while (!cursor.isEmpty());
+
+        assertEquals(seen.size(), new HashSet<>(seen).size());
+        assertTrue(new HashSet<>(seen).containsAll(before));
+    }
+
+    @Test
+    public void badKeysAndCursorsEndTheListing() throws Exception {
+        BookPage first = service.listBooks("title", "", 10);
+        assertTrue(first.hasMore());
+
+        assertTrue(service.listBooks(null, "", 10).getBooks().isEmpty());
+        assertTrue(service.listBooks("publisher", "", 10).getBooks().isEmpty());
+        assertTrue(service.listBooks("title", "not a cursor!", 10).getBooks().isEmpty());
+        BookPage crossed = service.listBooks("author", first.getNextCursor(), 10);
+        assertTrue(crossed.getBooks().isEmpty());
+        assertFalse(crossed.hasMore());
+    }
+
+    @Test
+    public void sortKeyIgnoresTheDefaultLocale() throws Exception {
+        Locale saved = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            assertEquals(10, service.listBooks("title", "", 10).getBooks().size());
+            assertEquals(10, service.listBooks("Title", "", 10).getBooks().size());
+        } finally {
+            Locale.setDefault(saved);
+        }
+    }
+
+    @Test
+    public void suggestionsIgnoreTheDefaultLocale() throws Exception {
+        Locale saved = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            assertEquals(5, service.suggest("TITLE 1", "title", 5).size());
+            assertTrue(service.addBook(new Book("isbn-ist", "ISTANBUL", "Orhan", 2003)));
+        } finally {
+            Locale.setDefault(saved);
+        }
+        assertEquals("ISTANBUL", service.suggest("istan", "title", 5).get(0));
+    }
+
+    @Test
+    public void nullIsbnIsNotFound() throws Exception {
+        assertNull(service.getBook(null));
+        assertFalse(service.borrowBook(null, "someone"));
+        assertFalse(service.returnBook(null));
+        assertFalse(service.removeBook(null));
+        assertFalse(service.addBook(new Book(null, "No ISBN", "Nobody", 2000)));
+        assertEquals(255, service.getAllBooks().size());
+        assertEquals(0, metricsFor("getBook").getErrors());
+    }
+
+    @Test
+    public void bookWithoutTitleOrAuthorIsNotAdded() throws Exception {
+        assertFalse(service.addBook(new Book("isbn-x", null, "Nobody", 2000)));
+        assertFalse(service.addBook(new Book("isbn-x", "No Author", null, 2000)));
+        assertNull(service.getBook("isbn-x"));
+        assertEquals(255, service.getAllBooks().size());
+        assertEquals(255, listAll("title", 50).size());
+        assertEquals(0, metricsFor("addBook").getErrors());
+        // The isbn was not claimed by the refused attempts.
+        assertTrue(service.addBook(new Book("isbn-x", "Titled", "Somebody", 2000)));
+        assertEquals(1, service.searchByTitle("titled").size());
+    }
+
+    @Test
+    public void loanWithoutABorrowerStillChangesAvailability() throws Exception {
+        assertTrue(service.borrowBook("isbn-0003", null));
+        assertFalse(service.getBook("isbn-0003").isAvailable());
+        assertTrue(service.returnBook("isbn-0003"));
+        assertTrue(service.getBook("isbn-0003").isAvailable());
+    }
+
+    private MethodSnapshot metricsFor(String method) {
+        for (MethodSnapshot snapshot : service.getMetrics().getMethods()) {
+            if (snapshot.getMethod().equals(method)) {
+                return snapshot;
+            }
+        }
+        throw new AssertionError("no metrics for " + method);
+    }
+
+    @Test
+    public void callsOverRmiRecordTheirRequestAndReplyBytes() throws Exception {
+        service.getMetrics().reset();
+        BookService remote = (BookService) RemoteObject.toStub(service);
+        assertEquals("Title 7", remote.getBook("isbn-0001").getTitle());
+        assertEquals(255, remote.getAllBooks().size());
+        assertTrue(remote.borrowBook("isbn-0002", "someone-with-a-long-user-id"));
+
+        MethodSnapshot getBook = metricsFor("getBook");
+        MethodSnapshot getAllBooks = metricsFor("getAllBooks");
+        MethodSnapshot borrowBook = metricsFor("borrowBook");
+        assertEquals(1, getBook.getCalls());
+        assertTrue(getBook.getBytesIn() > "isbn-0001".length());
+        assertTrue(getBook.getBytesOut() > "Title 7".length());
+        assertTrue(getAllBooks.getBytesOut() > 50 * getBook.getBytesOut());
+        assertTrue(borrowBook.getBytesIn() > getBook.getBytesIn());
+        assertTrue(borrowBook.getBytesOut() > 0);
+    }
+}
@@ -0,0 +1,103 @@
+package rmi;
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import common.Book;
+
+// Borrow/return throughput on BookServiceImpl, called in process so that RMI transport does not
+// dominate. 1024 books; each writer loops borrow+return over its own share of them while reader
+// threads call getBook across the whole catalog. Run with
+//   mvn -q test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=rmi.BorrowReturnBenchmark
+// and optionally -Dexec.args="1/0 8/0 8/4" for the writer/reader mixes.
+public class BorrowReturnBenchmark {
+    private static final int BOOKS = 1024;
+    private static final long WARMUP_MS = 2000;
+    private static final long MEASURE_MS = 3000;
+    private static final String[] ISBNS = new String[BOOKS];
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws Exception {
+        // Keeps the per-loan INFO events out of the measurement.
+        if (System.getProperty("eventlog.level") == null) {
+            System.setProperty("eventlog.level", "WARN");
+        }
+        for (int i = 0; i < BOOKS; i++) {
+            ISBNS[i] = String.format("bench-%04d", i);
+        }
+        String[] mixes = args.length > 0 ? args : new String[] { "1/0", "8/0", "8/4" };
+        System.out.printf("%-16s%18s%18s%n", "writers/readers", "borrow+return/s", "reads/s");
+        for (String mix : mixes) {
+            int writers = Integer.parseInt(mix.substring(0, mix.indexOf('/')));
+            int readers = Integer.parseInt(mix.substring(mix.indexOf('/') + 1));
+            BookServiceImpl service = new BookServiceImpl();
+            try {
+                for (int i = 0; i < BOOKS; i++) {
+                    service.addBook(new Book(ISBNS[i], "Title " + i, "Author " + i % 31, 2000));
+                }
+                run(service, writers, readers, WARMUP_MS);
+                long[] rates = run(service, writers, readers, MEASURE_MS);
+                System.out.printf("%-16s%17.2fM%17.2fM%n", mix, rates[0] / 1e6, rates[1] / 1e6);
+            } finally {
+                UnicastRemoteObject.unexportObject(service, true);
+            }
+        }
+    }
+
+    // Returns borrow+return pairs per second and reads per second over roughly the given time.
+    private static long[] run(BookServiceImpl service, int writers, int readers, long durationMs) throws Exception {
+        AtomicBoolean stop = new AtomicBoolean();
+        LongAdder loans = new LongAdder();
+        LongAdder reads = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int first = w;
+            String borrower = "user" + w;
+            threads.add(new Thread(() -> {
+                long count = 0;
+                try {
+                    for (int i = first; !stop.get(); i = i + writers < BOOKS ? i + writers : first) {
+                        String isbn = ISBNS[i];
+                        if (service.borrowBook(isbn, borrower) && service.returnBook(isbn)) {
+                            count++;
+                        }
+                    }
+                } catch (RemoteException e) {
+                    throw new IllegalStateException(e);
+                }
+                loans.add(count);
+            }, "BorrowReturnBenchmark-writer-" + w));
+        }
+        for (int r = 0; r < readers; r++) {
+            threads.add(new Thread(() -> {
+                long count = 0;
+                Object last = null;
+                try {
+                    for (int i = 0; !stop.get(); i = (i + 1) & (BOOKS - 1)) {
+                        last = service.getBook(ISBNS[i]);
+                        count++;
+                    }
+                } catch (RemoteException e) {
+                    throw new IllegalStateException(e);
+                }
+                sink = last;
+                reads.add(count);
+            }, "BorrowReturnBenchmark-reader-" + r));
+        }
+        long start = System.nanoTime();
+        for (Thread t : threads) {
+            t.setDaemon(true);
+            t.start();
+        }
+        Thread.sleep(durationMs);
+        stop.set(true);
+        for (Thread t : threads) {
+            t.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return new long[] { (long) (loans.sum() / seconds), (long) (reads.sum() / seconds) };
+    }
+}